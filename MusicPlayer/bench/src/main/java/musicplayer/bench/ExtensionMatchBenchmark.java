@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer.bench;
+
+import java.util.concurrent.TimeUnit;
+import musicplayer.AudioFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The extension check done for every file a folder scan sees, against the
+ * sixteen {@code endsWith} calls {@code searchAudio} used to make.
+ *
+ * @author DELL
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtensionMatchBenchmark {
+
+	private static final String[] NAMES = {
+		"01 - Intro.mp3", "cover.jpg", "02 - Track.MP3", "folder.ini", "notes.txt",
+		"live.Wav", "03 - Song.m4a", "Thumbs.db", "demo.aiff", "video.mkv",
+		"archive.zip", "04 - Outro.Mp3", "README", "podcast.aac", "clip.m4v", "playlist.m3u"
+	};
+
+	@Benchmark
+	public void isAudio(Blackhole hole){
+		for(String name : NAMES){
+			hole.consume(AudioFiles.isAudio(name));
+		}
+	}
+
+	@Benchmark
+	public void endsWithChain(Blackhole hole){
+		for(String name : NAMES){
+			hole.consume(
+				name.endsWith(".mp3") || name.endsWith(".aac") || name.endsWith(".aif") || name.endsWith(".aiff") ||
+				name.endsWith(".mp4") || name.endsWith(".m4a") || name.endsWith(".m4v") || name.endsWith(".wav") ||
+				name.endsWith(".Mp3") || name.endsWith(".Aac") || name.endsWith(".Aif") || name.endsWith(".Aiff") ||
+				name.endsWith(".Mp4") || name.endsWith(".M4a") || name.endsWith(".M4v") || name.endsWith(".Wav"));
+		}
+	}
+
+}
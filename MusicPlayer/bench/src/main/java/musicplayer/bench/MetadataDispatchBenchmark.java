@@ -0,0 +1,77 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer.bench;
+
+import java.util.concurrent.TimeUnit;
+import javafx.scene.image.Image;
+import musicplayer.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Routing of metadata entries as done by {@code SongModel.handleMetadata}.
+ * The mix includes keys the player does not show, as real files have many.
+ *
+ * @author DELL
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataDispatchBenchmark {
+
+	private static final String[] KEYS = {
+		"title", "artist", "album", "year", "genre", "track count", "composer", "duration", "image", "album artist"
+	};
+
+	private Metadata.Sink sink;
+
+	@Setup
+	public void setUp(final Blackhole hole){
+		sink = new Metadata.Sink(){
+
+			public void setAlbum(String value) {
+				hole.consume(value);
+			}
+
+			public void setArtist(String value) {
+				hole.consume(value);
+			}
+
+			public void setTitle(String value) {
+				hole.consume(value);
+			}
+
+			public void setYear(String value) {
+				hole.consume(value);
+			}
+
+			public void setAlbumCover(Image value) {
+				hole.consume(value);
+			}
+
+		};
+	}
+
+	@Benchmark
+	public void dispatch(){
+		for(String key : KEYS){
+			Metadata.dispatch(key, key.equals("image") ? null : key, sink);
+		}
+	}
+
+}
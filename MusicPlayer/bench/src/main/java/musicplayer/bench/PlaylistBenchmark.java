@@ -0,0 +1,126 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import musicplayer.TrackList;
+import musicplayer.TrackTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk changes on the playlist's {@code ObservableList<File>}, with a change
+ * listener attached the way the ListView attaches one. The {@code trackList}
+ * runs do the same on the {@link TrackList} the playlist now uses.
+ *
+ * @author DELL
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PlaylistBenchmark {
+
+	@Param({"10000", "100000"})
+	public int size;
+
+	private List<File> tracks;
+	private List<File> everyOther;
+	private ObservableList<File> files;
+	private TrackList trackList;
+	private int events;
+
+	@Setup(Level.Trial)
+	public void createTracks(){
+		tracks     = new ArrayList<File>(size);
+		everyOther = new ArrayList<File>(size/2);
+		for(int i = 0; i < size; i++){
+			File track = new File("/music/artist "+(i/200)+"/album "+(i/12)+"/"+i+" - track.mp3");
+			tracks.add(track);
+			if(i%2 == 0){
+				everyOther.add(track);
+			}
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void createList(){
+		ListChangeListener<File> counter = new ListChangeListener<File>(){
+
+			public void onChanged(Change<? extends File> change) {
+				while(change.next()){
+					events++;
+				}
+			}
+
+		};
+		files = FXCollections.observableArrayList();
+		files.addListener(counter);
+		trackList = new TrackList(new TrackTable());
+		trackList.addListener(counter);
+	}
+
+	@Benchmark
+	public int addOneByOne(){
+		for(File track : tracks){
+			files.add(track);
+		}
+		return events;
+	}
+
+	@Benchmark
+	public int addAll(){
+		files.addAll(tracks);
+		return events;
+	}
+
+	@Benchmark
+	public int removeHalfWithList(){
+		files.addAll(tracks);
+		files.removeAll(everyOther);
+		return events;
+	}
+
+	@Benchmark
+	public int removeHalfWithSet(){
+		files.addAll(tracks);
+		files.removeAll(new HashSet<File>(everyOther));
+		return events;
+	}
+
+	@Benchmark
+	public int trackListAddAll(){
+		trackList.addAll(tracks);
+		return events;
+	}
+
+	@Benchmark
+	public int trackListRemoveHalfWithSet(){
+		trackList.addAll(tracks);
+		trackList.removeAll(new HashSet<File>(everyOther));
+		return events;
+	}
+
+}
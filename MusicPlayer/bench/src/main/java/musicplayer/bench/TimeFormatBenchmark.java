@@ -0,0 +1,84 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer.bench;
+
+import java.util.concurrent.TimeUnit;
+import musicplayer.TimeFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code MusicPlayer.formatTime} and {@code PlayerControlsView.formatDuration},
+ * which both delegate to {@link TimeFormat}, next to the String.format code
+ * they replaced.
+ *
+ * @author DELL
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeFormatBenchmark {
+
+	private final char[] buffer = new char[24];
+	private double seconds;
+
+	@Benchmark
+	public String formatTime(){
+		return TimeFormat.hms(nextSeconds());
+	}
+
+	@Benchmark
+	public int formatTimeIntoBuffer(){
+		return TimeFormat.hms((long) nextSeconds(), buffer);
+	}
+
+	@Benchmark
+	public String formatTimeLegacy(){
+		double time = nextSeconds();
+		int hours = (int) (time/3600);
+		if(hours > 0){
+			time -= 3600*hours;
+		}
+		int minutes = (int) (time/60);
+		if(minutes > 0){
+			time -= 60*minutes;
+		}
+		int secs = (int) time;
+		return String.format("%02d:%02d:%02d", hours, minutes, secs);
+	}
+
+	@Benchmark
+	public String formatDuration(){
+		return TimeFormat.ms(nextSeconds());
+	}
+
+	@Benchmark
+	public String formatDurationLegacy(){
+		double millis = nextSeconds()*1000;
+		int secs = (int) (millis/1000) % 60;
+		int minutes = (int) (millis/(1000*60));
+		return String.format("%02d:%02d", minutes, secs);
+	}
+
+	private double nextSeconds(){
+		seconds += 1.37;
+		if(seconds > 5*3600){
+			seconds = 0;
+		}
+		return seconds;
+	}
+
+}
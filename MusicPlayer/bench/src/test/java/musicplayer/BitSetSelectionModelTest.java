@@ -0,0 +1,135 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.scene.control.FocusModel;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ranges as the ListView's behavior asks for them on shift-click, and the
+ * items reported removed when rows go from under the selection.
+ *
+ * @author DELL
+ */
+public class BitSetSelectionModelTest {
+
+	private ObservableList<String> items;
+	private BitSetSelectionModel<String> model;
+
+	@Before
+	public void setUp(){
+		items = FXCollections.observableArrayList("a", "b", "c", "d", "e", "f", "g", "h");
+		// A ListView needs the FX toolkit; the model only needs what it holds
+		FocusModel<String> focus = new FocusModel<String>(){
+
+			@Override
+			protected int getItemCount() {
+				return items.size();
+			}
+
+			@Override
+			protected String getModelItem(int index) {
+				return items.get(index);
+			}
+
+		};
+		model = new BitSetSelectionModel<String>(new SimpleObjectProperty<ObservableList<String>>(items), new SimpleObjectProperty<FocusModel<String>>(focus));
+	}
+
+	@Test
+	public void rangeDownwardsEndsBeforeEnd(){
+		model.selectRange(2, 5);
+		assertEquals(Arrays.asList(2, 3, 4), new ArrayList<Integer>(model.getSelectedIndices()));
+		assertEquals(4, model.getSelectedIndex());
+	}
+
+	@Test
+	public void rangeUpwardsKeepsTheAnchorAndStopsAfterEnd(){
+		// Anchor on 5, shift-click on 2: the ListView asks for (5, 1)
+		model.selectRange(5, 1);
+		assertEquals(Arrays.asList(2, 3, 4, 5), new ArrayList<Integer>(model.getSelectedIndices()));
+		assertEquals(Arrays.asList("c", "d", "e", "f"), new ArrayList<String>(model.getSelectedItems()));
+		assertFalse(model.isSelected(1));
+		assertEquals(2, model.getSelectedIndex());
+	}
+
+	@Test
+	public void rangeUpwardsToTheFirstRow(){
+		model.selectRange(3, -1);
+		assertEquals(Arrays.asList(0, 1, 2, 3), new ArrayList<Integer>(model.getSelectedIndices()));
+	}
+
+	@Test
+	public void rangesAreClippedToTheItems(){
+		model.selectRange(6, 20);
+		assertEquals(Arrays.asList(6, 7), new ArrayList<Integer>(model.getSelectedIndices()));
+		model.clearSelection();
+		model.selectRange(20, 6);
+		assertEquals(Arrays.asList(7), new ArrayList<Integer>(model.getSelectedIndices()));
+	}
+
+	@Test
+	public void clearingARowOutsideTheItemsDoesNothing(){
+		model.selectIndices(1, 7);
+		model.clearSelection(-1);
+		model.clearSelection(8);
+		assertEquals(Arrays.asList(1, 7), new ArrayList<Integer>(model.getSelectedIndices()));
+	}
+
+	@Test
+	public void removedRowsReportTheItemsThatWereSelected(){
+		model.selectIndices(1, 3, 6);
+		final List<String> removed = new ArrayList<String>();
+		final List<String> added = new ArrayList<String>();
+		model.getSelectedItems().addListener(new ListChangeListener<String>(){
+
+			public void onChanged(Change<? extends String> change) {
+				while(change.next()){
+					removed.addAll(change.getRemoved());
+					added.addAll(change.getAddedSubList());
+				}
+			}
+
+		});
+		// Takes "c" and "d" out; "b" stays on row 1 and "g" moves to row 4
+		items.remove(2, 4);
+		assertEquals(Arrays.asList("b", "d", "g"), removed);
+		assertEquals(Arrays.asList("b", "g"), added);
+		assertEquals(Arrays.asList(1, 4), new ArrayList<Integer>(model.getSelectedIndices()));
+		assertTrue(model.isSelected(4));
+	}
+
+	@Test
+	public void rowsAddedAboveReportTheItemsThatWereSelected(){
+		model.selectIndices(0, 2);
+		final List<String> removed = new ArrayList<String>();
+		model.getSelectedItems().addListener(new ListChangeListener<String>(){
+
+			public void onChanged(Change<? extends String> change) {
+				while(change.next()){
+					removed.addAll(change.getRemoved());
+				}
+			}
+
+		});
+		items.add(1, "x");
+		assertEquals(Arrays.asList("a", "c"), removed);
+		assertEquals(Arrays.asList("a", "c"), new ArrayList<String>(model.getSelectedItems()));
+	}
+
+}
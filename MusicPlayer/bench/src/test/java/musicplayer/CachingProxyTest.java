@@ -0,0 +1,268 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The proxy between the player and an origin on this machine, one that
+ * answers ranges or one that always sends the whole file.
+ *
+ * @author DELL
+ */
+public class CachingProxyTest {
+
+	private static final int LENGTH = 300000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final byte[] data = new byte[LENGTH];
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile boolean honorRanges = true;
+	private final CountDownLatch stalled = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private HttpServer origin;
+	private ExecutorService handlers;
+	private CachingProxy proxy;
+
+	@Before
+	public void setUp() throws IOException {
+		for(int i = 0; i < data.length; i++){
+			data[i] = (byte) (i*31+(i >> 8));
+		}
+		origin = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		origin.createContext("/track.mp3", new HttpHandler(){
+
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				serve(exchange);
+			}
+
+		});
+		// One response may be held back while others are served
+		handlers = Executors.newCachedThreadPool();
+		origin.setExecutor(handlers);
+		origin.start();
+		proxy = new CachingProxy(folder.newFolder("cache"), 64L*1024*1024);
+		proxy.start();
+	}
+
+	@After
+	public void tearDown(){
+		release.countDown();
+		proxy.close();
+		origin.stop(0);
+		handlers.shutdownNow();
+	}
+
+	@Test(timeout = 20000)
+	public void answersARangeFromTheOrigin() throws IOException {
+		Response response = get(proxy.proxy(url()), "bytes=1000-1999");
+		assertEquals(206, response.code);
+		assertEquals("bytes 1000-1999/"+LENGTH, response.contentRange);
+		assertArrayEquals(Arrays.copyOfRange(data, 1000, 2000), response.body);
+	}
+
+	@Test(timeout = 20000)
+	public void answersARangeWhenTheOriginSendsEverything() throws IOException {
+		honorRanges = false;
+		Response response = get(proxy.proxy(url()), "bytes=5000-5999");
+		assertEquals(206, response.code);
+		assertArrayEquals(Arrays.copyOfRange(data, 5000, 6000), response.body);
+
+		response = get(proxy.proxy(url()), null);
+		assertEquals(200, response.code);
+		assertArrayEquals(data, response.body);
+	}
+
+	@Test(timeout = 20000)
+	public void refusesARangePastTheEnd() throws IOException {
+		String local = proxy.proxy(url());
+		assertEquals(200, get(local, null).code);
+		Response response = get(local, "bytes="+LENGTH+"-");
+		assertEquals(416, response.code);
+		assertEquals("bytes */"+LENGTH, response.contentRange);
+	}
+
+	@Test(timeout = 20000)
+	public void sendsEverythingForAnInvertedRange() throws IOException {
+		Response response = get(proxy.proxy(url()), "bytes=500-100");
+		assertEquals(200, response.code);
+		assertArrayEquals(data, response.body);
+	}
+
+	@Test(timeout = 20000)
+	public void evictsTheOldestResourceThatIsNotBeingRead() throws Exception {
+		proxy.close();
+		File cache = folder.newFolder("small");
+		// Room for one track and a bit
+		proxy = new CachingProxy(cache, LENGTH+LENGTH/3);
+		proxy.start();
+
+		// Oldest, but still being read: the origin stops after a few bytes
+		final String busy = proxy.proxy(url()+"?busy");
+		FutureTask<Response> reading = new FutureTask<Response>(new Callable<Response>(){
+
+			public Response call() throws IOException {
+				return get(busy, null);
+			}
+
+		});
+		new Thread(reading).start();
+		stalled.await();
+
+		String old = proxy.proxy(url()+"?old");
+		assertArrayEquals(data, get(old, null).body);
+		assertArrayEquals(data, get(proxy.proxy(url()+"?new"), null).body);
+		File evicted = new File(cache, key(old)+".data");
+		while(evicted.exists()){
+			Thread.sleep(10);
+		}
+		assertFalse(new File(cache, key(old)+".meta").exists());
+		assertTrue(new File(cache, key(busy)+".data").exists());
+
+		release.countDown();
+		assertArrayEquals(data, reading.get().body);
+
+		int asked = requests.get();
+		assertArrayEquals(data, get(proxy.proxy(url()+"?old"), null).body);
+		assertTrue(requests.get() > asked);
+	}
+
+	@Test(timeout = 20000)
+	public void readsAgainFromDiskAfterARestart() throws IOException {
+		String local = proxy.proxy(url());
+		assertArrayEquals(data, get(local, null).body);
+		proxy.close();
+		origin.stop(0);
+		int asked = requests.get();
+
+		proxy = new CachingProxy(folder.getRoot().toPath().resolve("cache").toFile(), 64L*1024*1024);
+		proxy.start();
+		Response response = get(proxy.proxy(url()), "bytes=250000-250999");
+		assertEquals(206, response.code);
+		assertArrayEquals(Arrays.copyOfRange(data, 250000, 251000), response.body);
+		assertEquals(asked, requests.get());
+	}
+
+	/**
+	 * The cache key in a URL handed out by the proxy.
+	 */
+	private static String key(String local){
+		return local.split("/")[3];
+	}
+
+	private String url(){
+		return "http://127.0.0.1:"+origin.getAddress().getPort()+"/track.mp3";
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+		int start = 0;
+		int end = LENGTH-1;
+		if(range != null && honorRanges){
+			String[] bounds = range.substring("bytes=".length()).split("-", -1);
+			start = Integer.parseInt(bounds[0]);
+			if(!bounds[1].isEmpty()){
+				end = Math.min(end, Integer.parseInt(bounds[1]));
+			}
+			if(start >= LENGTH){
+				exchange.getResponseHeaders().set("Content-Range", "bytes */"+LENGTH);
+				exchange.sendResponseHeaders(416, -1);
+				exchange.close();
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Range", "bytes "+start+"-"+end+"/"+LENGTH);
+			exchange.sendResponseHeaders(206, end-start+1);
+		}
+		else{
+			exchange.sendResponseHeaders(200, LENGTH);
+		}
+		OutputStream out = exchange.getResponseBody();
+		try{
+			if("busy".equals(exchange.getRequestURI().getQuery())){
+				out.write(data, start, 1000);
+				out.flush();
+				stalled.countDown();
+				release.await();
+				start += 1000;
+			}
+			out.write(data, start, end-start+1);
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		catch(IOException e){
+			// The proxy hung up, as it does once it has what it wants
+		}
+		exchange.close();
+	}
+
+	private static Response get(String url, String range) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		if(range != null){
+			connection.setRequestProperty("Range", range);
+		}
+		try{
+			Response response = new Response();
+			response.code = connection.getResponseCode();
+			response.contentRange = connection.getHeaderField("Content-Range");
+			InputStream in = response.code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			if(in != null){
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = in.read(buffer)) >= 0){
+					body.write(buffer, 0, read);
+				}
+				in.close();
+			}
+			response.body = body.toByteArray();
+			return response;
+		}
+		finally{
+			connection.disconnect();
+		}
+	}
+
+	private static final class Response {
+		private int code;
+		private String contentRange;
+		private byte[] body;
+	}
+
+}
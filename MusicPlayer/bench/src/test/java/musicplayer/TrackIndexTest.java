@@ -0,0 +1,75 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.util.BitSet;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tracks found by name and folder, and by tags once they were read.
+ *
+ * @author DELL
+ */
+public class TrackIndexTest {
+
+	private TrackTable table;
+	private TrackIndex index;
+
+	@Before
+	public void setUp(){
+		table = new TrackTable();
+		table.add(new File("/music/Help", "01 Yesterday.mp3"));
+		table.add(new File("/music/Help", "02 Ticket.mp3"));
+		table.add(new File("/music/Misc", "track07.mp3"));
+		index = new TrackIndex(table);
+	}
+
+	@Test
+	public void findsNamesAndFoldersIgnoringCase(){
+		assertEquals(bits(0), index.search("YESTER"));
+		assertEquals(bits(0, 1), index.search("help"));
+	}
+
+	@Test
+	public void findsTagsOnceTheyAreAdded(){
+		assertTrue(index.search("beatles").isEmpty());
+		index.addTags(2, new TrackTags("Eleanor Rigby", "The Beatles", "Revolver", null, null, null, -1, 0));
+		assertEquals(bits(2), index.search("beatles"));
+		assertEquals(bits(2), index.search("rev"));
+		assertEquals(bits(2), index.search("eleanor"));
+	}
+
+	@Test
+	public void tagsAddedLaterAreNotNarrowedAway(){
+		assertEquals(bits(0, 1), index.search("he"));
+		index.addTags(2, new TrackTags("Here Comes the Sun", null, null, null, null, null, -1, 0));
+		assertEquals(bits(2), index.search("her"));
+		assertEquals(bits(2), index.search("here"));
+	}
+
+	@Test
+	public void tagsOfEarlierTracksAreInsertedInOrder(){
+		index.addTags(2, new TrackTags("Ride", null, null, null, null, null, -1, 0));
+		index.addTags(0, new TrackTags(null, null, "Ride Again", null, null, null, -1, 0));
+		// Intersecting "rid" and "ide" needs both lists ascending
+		assertEquals(bits(0, 2), index.search("ride"));
+		assertEquals(bits(0), index.search("ride again"));
+	}
+
+	private static BitSet bits(int... ids){
+		BitSet bits = new BitSet();
+		for(int id : ids){
+			bits.set(id);
+		}
+		return bits;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bulk removal by bits, appending only what is missing, and ids shared
+ * by every row of a path, which a filter shows each of.
+ *
+ * @author DELL
+ */
+public class TrackListTest {
+
+	private TrackList list;
+
+	@Before
+	public void setUp(){
+		list = new TrackList(new TrackTable());
+		for(int i = 0; i < 6; i++){
+			list.add(new File("/music/album", "track"+i+".mp3"));
+		}
+	}
+
+	@Test
+	public void removesMarkedRows(){
+		BitSet marked = new BitSet();
+		marked.set(1);
+		marked.set(3, 5);
+		assertTrue(list.removeMarked(marked));
+		assertEquals(Arrays.asList(new File("/music/album/track0.mp3"), new File("/music/album/track2.mp3"), new File("/music/album/track5.mp3")), list);
+	}
+
+	@Test
+	public void ignoresBitsPastTheLastRow(){
+		BitSet marked = new BitSet();
+		marked.set(50);
+		assertFalse(list.removeMarked(marked));
+		assertEquals(6, list.size());
+
+		marked.set(5);
+		assertTrue(list.removeMarked(marked));
+		assertEquals(5, list.size());
+		assertEquals(new File("/music/album/track4.mp3"), list.get(4));
+	}
+
+	@Test
+	public void addsOnlyAbsentPaths(){
+		File again = new File("/music/album/track3.mp3");
+		File other = new File("/music/other/track0.mp3");
+		assertTrue(list.addAbsent(Arrays.asList(again, other, other)));
+		assertEquals(7, list.size());
+		assertEquals(other, list.get(6));
+		assertFalse(list.addAbsent(Arrays.asList(again, other)));
+		assertEquals(7, list.size());
+	}
+
+	@Test
+	public void filterShowsEveryRowOfAMatchingTrack(){
+		list.add(new File("/music/album", "track2.mp3"));
+		list.add(new File("/music/album", "track2.mp3"));
+		BitSet ids = new BitSet();
+		ids.set(list.trackId(2));
+		ids.set(list.trackId(4));
+		TrackFilter filter = new TrackFilter(list, ids);
+		assertEquals(4, filter.size());
+		assertEquals(2, filter.sourceIndex(0));
+		assertEquals(4, filter.sourceIndex(1));
+		assertEquals(6, filter.sourceIndex(2));
+		assertEquals(7, filter.sourceIndex(3));
+	}
+
+	@Test
+	public void pathsAddedAgainKeepTheirId(){
+		int id = list.trackId(2);
+		list.remove(2);
+		list.add(new File("/music/album", "track2.mp3"));
+		list.add(new File("/music/other", "track2.mp3"));
+		assertEquals(id, list.trackId(5));
+		assertEquals(7, list.getTable().size());
+		assertEquals(new File("/music/other/track2.mp3"), list.get(6));
+	}
+
+	@Test
+	public void tableGrowsPastItsFirstSlots(){
+		TrackTable table = new TrackTable();
+		for(int i = 0; i < 5000; i++){
+			assertEquals(i, table.add(new File("/music/"+(i%7), i+".mp3")));
+		}
+		for(int i = 0; i < 5000; i++){
+			assertEquals(i, table.add(new File("/music/"+(i%7), i+".mp3")));
+		}
+		assertEquals(5000, table.size());
+	}
+
+}
@@ -27,10 +27,11 @@
  */
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URI;
 import java.net.URL;
 
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.property.ObjectProperty;
@@ -66,6 +67,7 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.RowConstraints;
+import javafx.scene.layout.StackPane;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.media.MediaPlayer.Status;
@@ -74,6 +76,20 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 
 import com.sun.javafx.runtime.VersionInfo;
+
+import musicplayer.AlbumArtCache;
+import musicplayer.CachingProxy;
+import musicplayer.FxQueue;
+import musicplayer.Histogram;
+import musicplayer.Metadata;
+import musicplayer.Metrics;
+import musicplayer.PlayerEngine;
+import musicplayer.PositionTicker;
+import musicplayer.SeekScheduler;
+import musicplayer.TimeFormat;
+import musicplayer.Waveform;
+import musicplayer.WaveformCache;
+import musicplayer.WaveformView;
 /**
  * @author dean
  */
@@ -94,6 +110,7 @@ import com.sun.javafx.runtime.VersionInfo;
   @Override
   public void start(Stage primaryStage) {
     System.out.println("JavaFX version: "+VersionInfo.getRuntimeVersion());
+    Metrics.start();
     songModel.setURL("http://traffic.libsyn.com/dickwall/JavaPosse373.mp3");
     metaDataView = new MetadataView(songModel);
     playerControlsView = new PlayerControlsView(songModel);
@@ -139,7 +156,7 @@ import com.sun.javafx.runtime.VersionInfo;
         
         if (url != null) {
           songModel.setURL(url);
-          songModel.getMediaPlayer().play();
+          songModel.play();
         }
         
         event.setDropCompleted(url != null);
@@ -219,7 +236,8 @@ class PlayerControlsView extends AbstractView {
   private ImageView playPauseIcon;
   
   private StatusListener statusListener;
-  private CurrentTimeListener currentTimeListener;
+  private PositionUpdater positionUpdater;
+  private SeekScheduler seeker;
   
   private Node controlPanel;
   private Label statusLabel;
@@ -227,6 +245,7 @@ class PlayerControlsView extends AbstractView {
   private Label totalDurationLabel;
   private Slider volumeSlider;
   private Slider positionSlider;
+  private WaveformView waveformView;
   
   public PlayerControlsView(SongModel songModel) {
     super(songModel);
@@ -234,7 +253,8 @@ class PlayerControlsView extends AbstractView {
     songModel.mediaPlayerProperty().addListener(new MediaPlayerListener());
     
     statusListener = new StatusListener();
-    currentTimeListener = new CurrentTimeListener();
+    positionUpdater = new PositionUpdater();
+    seeker = new SeekScheduler(new SongSeeker(), new SeekPreview());
     addListenersAndBindings(songModel.getMediaPlayer());
   }
 
@@ -245,10 +265,14 @@ class PlayerControlsView extends AbstractView {
     volumeSlider = createSlider("volumeSlider");
     statusLabel = createLabel("Buffering", "statusDisplay");
     positionSlider = createSlider("positionSlider");
+    waveformView = new WaveformView();
+    waveformView.setPrefHeight(28);
+    songModel.waveformProperty().addListener(new WaveformListener());
     totalDurationLabel = createLabel("00:00", "mediaText");
     currentTimeLabel = createLabel("00:00", "mediaText");
     
     positionSlider.valueChangingProperty().addListener(new PositionListener());
+    positionSlider.valueProperty().addListener(new ScrubListener());
     
     final ImageView volLow = new ImageView();
     volLow.setId("volumeLow");
@@ -283,7 +307,7 @@ class PlayerControlsView extends AbstractView {
     gp.add(controlPanel, 2, 0, 1, 2);
     gp.add(statusLabel, 3, 1);
     gp.add(currentTimeLabel, 1, 2);
-    gp.add(positionSlider, 2, 2);
+    gp.add(new StackPane(waveformView, positionSlider), 2, 2);
     gp.add(totalDurationLabel, 3, 2);
 
     return gp;
@@ -319,8 +343,7 @@ class PlayerControlsView extends AbstractView {
     seekEndButton.setOnAction(new EventHandler<ActionEvent>() {
       @Override
       public void handle(ActionEvent event) {
-        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-        final Duration totalDuration = mediaPlayer.getTotalDuration();
+        final Duration totalDuration = songModel.getTotalDuration();
         final Duration oneSecond = Duration.seconds(1);
         seekAndUpdatePosition(totalDuration.subtract(oneSecond));
       }
@@ -344,12 +367,7 @@ class PlayerControlsView extends AbstractView {
     playPauseButton.setOnAction(new EventHandler<ActionEvent>() {
       @Override
       public void handle(ActionEvent arg0) {
-        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-        if (mediaPlayer.getStatus() == MediaPlayer.Status.PLAYING) {
-          mediaPlayer.pause();
-        } else {
-          mediaPlayer.play();
-        }
+        songModel.togglePlay();
       }
     });
     return playPauseButton;
@@ -370,44 +388,27 @@ class PlayerControlsView extends AbstractView {
 
   private void addListenersAndBindings(final MediaPlayer mp) {
     mp.statusProperty().addListener(statusListener);
-    mp.currentTimeProperty().addListener(currentTimeListener);
     mp.totalDurationProperty().addListener(new TotalDurationListener());
     
-    mp.setOnEndOfMedia(new Runnable() {
-      @Override
-      public void run() {
-        songModel.getMediaPlayer().stop();
-      }
-    });
-    
     volumeSlider.valueProperty().bindBidirectional(mp.volumeProperty());
   }
 
   private void removeListenersAndBindings(MediaPlayer mp) {
     volumeSlider.valueProperty().unbind();
     mp.statusProperty().removeListener(statusListener);
-    mp.currentTimeProperty().removeListener(currentTimeListener);
+    positionUpdater.stop();
   }
 
   private void seekAndUpdatePosition(Duration duration) {
-    final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-
-    if (mediaPlayer.getStatus() == Status.STOPPED) {
-      mediaPlayer.pause();
-    }
-
-    mediaPlayer.seek(duration);
+    songModel.seek(duration);
     
-    if (mediaPlayer.getStatus() != Status.PLAYING) {
+    if (!songModel.isPlaying()) {
       updatePositionSlider(duration);
     }
   }
   
   private String formatDuration(Duration duration) {
-    double millis = duration.toMillis();
-    int seconds = (int) (millis / 1000) % 60;
-    int minutes = (int) (millis / (1000 * 60));
-    return String.format("%02d:%02d", minutes, seconds);
+    return TimeFormat.ms(duration.toSeconds());
   }
   
   private void updateStatus(Status newStatus) {
@@ -423,8 +424,11 @@ class PlayerControlsView extends AbstractView {
 
       if (newStatus == Status.PLAYING) {
         playPauseIcon.setImage(pauseImg);
+        positionUpdater.start();
       } else {
         playPauseIcon.setImage(playImg);
+        positionUpdater.stop();
+        positionUpdater.render();
       }
     }
   }
@@ -450,6 +454,7 @@ class PlayerControlsView extends AbstractView {
       if (oldValue != null) {
         removeListenersAndBindings(oldValue);
       }
+      seeker.cancel();
       addListenersAndBindings(newValue);
     }
   }
@@ -462,7 +467,7 @@ class PlayerControlsView extends AbstractView {
       File song = fc.showOpenDialog(viewNode.getScene().getWindow());
       if (song != null) {
         songModel.setURL(song.toURI().toString());
-        songModel.getMediaPlayer().play();
+        songModel.play();
       }
     }
   }
@@ -470,7 +475,7 @@ class PlayerControlsView extends AbstractView {
   private class StatusListener implements InvalidationListener {
     @Override
     public void invalidated(Observable observable) {
-      Platform.runLater(new Runnable() {
+      FxQueue.runLater(new Runnable() {
         @Override
         public void run() {
           updateStatus(songModel.getMediaPlayer().getStatus());
@@ -479,20 +484,43 @@ class PlayerControlsView extends AbstractView {
     }
   }
 
-private class CurrentTimeListener implements InvalidationListener {
-  @Override
-  public void invalidated(Observable observable) {
-    Platform.runLater(new Runnable() {
-      @Override
-      public void run() {
-        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-        final Duration currentTime = mediaPlayer.getCurrentTime();
-        currentTimeLabel.setText(formatDuration(currentTime));
-        updatePositionSlider(currentTime);
+  /**
+   * Updates the time label and the position slider once per frame at most
+   * while the song plays.
+   */
+  private class PositionUpdater extends PositionTicker {
+    @Override
+    protected MediaPlayer player() {
+      return songModel.getMediaPlayer();
+    }
+
+    @Override
+    protected void showTime(long seconds) {
+      if (!positionSlider.isValueChanging()) {
+        currentTimeLabel.setText(TimeFormat.ms(seconds));
       }
-    });
+    }
+
+    @Override
+    protected void showProgress(double fraction) {
+      if (!positionSlider.isValueChanging()) {
+        positionSlider.setValue(fraction);
+      }
+    }
+
+    @Override
+    protected double resolution() {
+      return 1 / Math.max(positionSlider.getWidth(), 1);
+    }
+  }
+
+  private class WaveformListener implements ChangeListener<Waveform> {
+    @Override
+    public void changed(ObservableValue<? extends Waveform> observable,
+                        Waveform oldValue, Waveform newValue) {
+      waveformView.setWaveform(newValue);
+    }
   }
-}
 
   private class TotalDurationListener implements InvalidationListener {
     @Override
@@ -508,25 +536,82 @@ private class CurrentTimeListener implements InvalidationListener {
     public void changed(ObservableValue<? extends Boolean> observable, 
                         Boolean oldValue, Boolean newValue) {
       if (oldValue && !newValue) {
-        double pos = positionSlider.getValue();
-        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-        final Duration seekTo = mediaPlayer.getTotalDuration().multiply(pos);
-        seekAndUpdatePosition(seekTo);
+        final Duration seekTo = sliderPosition();
+        if (seekTo != null) {
+          seeker.finish(seekTo);
+          if (!songModel.isPlaying()) {
+            updatePositionSlider(seekTo);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the position under the thumb while it is dragged; the
+   * {@link SeekScheduler} keeps the player to one seek at a time.
+   */
+  private class ScrubListener implements ChangeListener<Number> {
+    @Override
+    public void changed(ObservableValue<? extends Number> observable,
+                        Number oldValue, Number newValue) {
+      if (positionSlider.isValueChanging()) {
+        final Duration seekTo = sliderPosition();
+        if (seekTo != null) {
+          seeker.request(seekTo);
+        }
       }
     }
   }
+
+  private class SongSeeker implements SeekScheduler.Seekable {
+    @Override
+    public void seek(Duration position) {
+      songModel.seek(position);
+    }
+
+    @Override
+    public Duration getPosition() {
+      return songModel.getCurrentTime();
+    }
+  }
+
+  private class SeekPreview implements SeekScheduler.Listener {
+    @Override
+    public void preview(Duration position) {
+      currentTimeLabel.setText(formatDuration(position));
+    }
+  }
+
+  /**
+   * Where the slider's thumb is in the song, or null while the length of
+   * the song is not known.
+   */
+  private Duration sliderPosition() {
+    final Duration total = songModel.getTotalDuration();
+    if (total == null || total.isUnknown() || total.isIndefinite()) {
+      return null;
+    }
+    return total.multiply(positionSlider.getValue());
+  }
 }
 
 /**
  * @author dean
  */
- final class SongModel {
+ final class SongModel implements Metadata.Sink {
   private static final String DEFAULT_IMG_URL = 
           SongModel.class.getResource("resources/defaultAlbum.png").toString();
   
   private static final Image DEFAULT_ALBUM_COVER = 
           new Image(DEFAULT_IMG_URL.toString());
 
+  private static final AlbumArtCache ART_CACHE = new AlbumArtCache();
+
+  private static final WaveformCache WAVEFORMS = new WaveformCache();
+
+  private static final Histogram SEEK = Metrics.histogram("seek_seconds");
+
   private final StringProperty album = new SimpleStringProperty(this, "album");
   private final StringProperty artist = new SimpleStringProperty(this,"artist");
   private final StringProperty title = new SimpleStringProperty(this, "title");
@@ -535,9 +620,15 @@ private class CurrentTimeListener implements InvalidationListener {
   private final ObjectProperty<Image> albumCover = 
           new SimpleObjectProperty<Image>(this, "albumCover");
   
+  private final ReadOnlyObjectWrapper<Waveform> waveform = 
+          new ReadOnlyObjectWrapper<Waveform>(this, "waveform");
+  
   private final ReadOnlyObjectWrapper<MediaPlayer> mediaPlayer = 
           new ReadOnlyObjectWrapper<MediaPlayer>(this, "mediaPlayer");
 
+  private String url;
+  private boolean coverFromCache;
+
   public SongModel() {
     resetProperties();
   }
@@ -547,7 +638,22 @@ private class CurrentTimeListener implements InvalidationListener {
       mediaPlayer.get().stop();
     }
     
-    initializeMedia(url);
+    initializeMedia(proxied(url));
+  }
+
+  /**
+   * Remote tracks are played through the caching proxy, so playing them
+   * again or seeking back does not download them again.
+   */
+  private static String proxied(String url) {
+    if (url.startsWith("http://") || url.startsWith("https://")) {
+      try {
+        return CachingProxy.shared().proxy(url);
+      } catch (IOException e) {
+        System.out.println("Cannot start caching proxy: " + e.getMessage());
+      }
+    }
+    return url;
   }
 
   public String getAlbum() { return album.get(); }
@@ -570,11 +676,73 @@ private class CurrentTimeListener implements InvalidationListener {
   public void setAlbumCover(Image value) { albumCover.set(value); }
   public ObjectProperty<Image> albumCoverProperty() { return albumCover; }
 
+  public Waveform getWaveform() { return waveform.get(); }
+  public ReadOnlyObjectProperty<Waveform> waveformProperty() { 
+    return waveform.getReadOnlyProperty();
+  }
+
   public MediaPlayer getMediaPlayer() { return mediaPlayer.get(); }
   public ReadOnlyObjectProperty<MediaPlayer> mediaPlayerProperty() { 
     return mediaPlayer.getReadOnlyProperty();
   }
 
+  // Transport; views go through these rather than the player, which they
+  // only watch
+
+  public boolean isPlaying() {
+    MediaPlayer player = mediaPlayer.get();
+    return player != null && player.getStatus() == Status.PLAYING;
+  }
+
+  public void play() {
+    if (mediaPlayer.get() != null) {
+      mediaPlayer.get().play();
+    }
+  }
+
+  public void togglePlay() {
+    MediaPlayer player = mediaPlayer.get();
+    if (player == null) {
+      return;
+    }
+    if (player.getStatus() == Status.PLAYING) {
+      player.pause();
+    } else {
+      player.play();
+    }
+  }
+
+  /**
+   * Moves to {@code position}. A stopped song is paused first, or the
+   * player would go back to the start when played.
+   */
+  public void seek(Duration position) {
+    MediaPlayer player = mediaPlayer.get();
+    if (player == null) {
+      return;
+    }
+    if (player.getStatus() == Status.STOPPED) {
+      player.pause();
+    }
+    if (Metrics.ENABLED) {
+      long start = System.nanoTime();
+      player.seek(position);
+      SEEK.since(start);
+    } else {
+      player.seek(position);
+    }
+  }
+
+  public Duration getCurrentTime() {
+    MediaPlayer player = mediaPlayer.get();
+    return player != null ? player.getCurrentTime() : Duration.UNKNOWN;
+  }
+
+  public Duration getTotalDuration() {
+    MediaPlayer player = mediaPlayer.get();
+    return player != null ? player.getTotalDuration() : Duration.UNKNOWN;
+  }
+
   private void resetProperties() {
     setArtist("");
     setAlbum("");
@@ -582,12 +750,18 @@ private class CurrentTimeListener implements InvalidationListener {
     setYear("");
     
     setAlbumCover(DEFAULT_ALBUM_COVER);
+    waveform.set(null);
   }
 
   private void initializeMedia(String url) {
     resetProperties();
+    this.url = url;
+    coverFromCache = false;
+    loadCover(url);
+    loadWaveform(url);
     
     try {
+      final long created = Metrics.ENABLED ? System.nanoTime() : 0;
       final Media media = new Media(url);
       media.getMetadata().addListener(new MapChangeListener<String, Object>() {
         @Override
@@ -599,6 +773,16 @@ private class CurrentTimeListener implements InvalidationListener {
       });
 
       mediaPlayer.setValue(new MediaPlayer(media));
+      if (Metrics.ENABLED) {
+        // Time to READY, and errors counted as well as printed
+        PlayerEngine.watch(mediaPlayer.get(), created);
+      }
+      mediaPlayer.get().setOnEndOfMedia(new Runnable() {
+        @Override
+        public void run() {
+          mediaPlayer.get().stop();
+        }
+      });
       mediaPlayer.get().setOnError(new Runnable() {
         @Override
         public void run() {
@@ -614,16 +798,54 @@ private class CurrentTimeListener implements InvalidationListener {
   }
 
   private void handleMetadata(String key, Object value) {
-    if (key.equals("album")) {
-      setAlbum(value.toString());
-    } else if (key.equals("artist")) {
-      setArtist(value.toString());
-    } if (key.equals("title")) {
-      setTitle(value.toString());
-    } if (key.equals("year")) {
-      setYear(value.toString());
-    } if (key.equals("image")) {
-      setAlbumCover((Image)value);
+    if (Metadata.IMAGE.equals(key)) {
+      // The cache has the cover already scaled down; the one from the
+      // Media is only used, scaled down, for tracks the cache cannot read
+      if (!coverFromCache) {
+        setAlbumCover(ART_CACHE.thumbnail((Image) value));
+      }
+      return;
+    }
+    Metadata.dispatch(key, value, this);
+  }
+
+  private void loadCover(final String url) {
+    if (!url.startsWith("file:")) {
+      return;
+    }
+    try {
+      ART_CACHE.load(new File(new URI(url)), new AlbumArtCache.Listener() {
+        @Override
+        public void loaded(File track, Image cover) {
+          if (url.equals(SongModel.this.url)) {
+            coverFromCache = true;
+            setAlbumCover(cover);
+          }
+        }
+      });
+    } catch (Exception e) {
+      System.out.println("Cannot load cover: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Decodes local tracks for the seek bar, or takes them from the cache.
+   */
+  private void loadWaveform(final String url) {
+    if (!url.startsWith("file:")) {
+      return;
+    }
+    try {
+      WAVEFORMS.load(new File(new URI(url)), new WaveformCache.Listener() {
+        @Override
+        public void loaded(File track, Waveform peaks) {
+          if (url.equals(SongModel.this.url)) {
+            waveform.set(peaks);
+          }
+        }
+      });
+    } catch (Exception e) {
+      System.out.println("Cannot load waveform: " + e.getMessage());
     }
   }
 }
@@ -0,0 +1,235 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javax.imageio.ImageIO;
+
+/**
+ * Album covers scaled down to the size they are shown at, so a full
+ * resolution cover is decoded once per album instead of once per track and
+ * never kept on the heap.
+ *
+ * Thumbnails are keyed by the SHA-1 of the encoded cover, which is the same
+ * for every track of an album. The most recent ones stay in memory; all of
+ * them are written as JPEG files to the {@code covers} folder of
+ * {@link AppData}, which is trimmed to the newest {@link #MAX_FILES}.
+ *
+ * Covers are read and decoded on a background thread.
+ *
+ * @author DELL
+ */
+public class AlbumArtCache {
+
+	public static final int SIZE = 240;
+
+	public static final int MEMORY_ENTRIES = 64;
+	public static final int MAX_FILES = 2000;
+
+	public interface Listener {
+
+		/**
+		 * Called on the FX thread with the thumbnail of the track's cover,
+		 * only if it has one.
+		 */
+		void loaded(File track, Image cover);
+	}
+
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "album-art");
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	});
+
+	private final File dir;
+	private final int size;
+
+	private final Map<String, Image> memory = new LinkedHashMap<String, Image>(MEMORY_ENTRIES, 0.75f, true){
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+			return size() > MEMORY_ENTRIES;
+		}
+
+	};
+
+	private int files = -1;
+
+	public AlbumArtCache(){
+		this(AppData.file("covers"), SIZE);
+	}
+
+	public AlbumArtCache(File dir, int size){
+		this.dir  = dir;
+		this.size = size;
+	}
+
+	/**
+	 * Reads the cover of {@code track} in the background and hands its
+	 * thumbnail to {@code listener}.
+	 */
+	public void load(final File track, final Listener listener){
+		EXECUTOR.execute(new Runnable(){
+
+			public void run() {
+				byte[] encoded;
+				try{
+					encoded = TagReader.read(track).readImage();
+				}
+				catch(IOException e){
+					System.out.println("Cannot read tags of "+track+": "+e.getMessage());
+					return;
+				}
+				if(encoded == null){
+					return;
+				}
+				final Image cover = get(encoded);
+				if(cover != null){
+					FxQueue.runLater(new Runnable(){
+
+						public void run() {
+							listener.loaded(track, cover);
+						}
+
+					});
+				}
+			}
+
+		});
+	}
+
+	/**
+	 * The thumbnail of an encoded cover: from memory, from disk, or decoded
+	 * and stored. Null if the bytes are not an image.
+	 */
+	public Image get(byte[] encoded){
+		String key = Digests.sha1(encoded);
+		synchronized(memory){
+			Image cached = memory.get(key);
+			if(cached != null){
+				return cached;
+			}
+		}
+		File file = new File(dir, key+".jpg");
+		Image image = null;
+		if(file.isFile()){
+			image = new Image(file.toURI().toString());
+			if(image.isError()){
+				image = null;
+			}
+			else{
+				// Keeps recently used thumbnails out of the next trim
+				file.setLastModified(System.currentTimeMillis());
+			}
+		}
+		if(image == null){
+			// Decoded straight at the thumbnail size; the full size never exists
+			image = new Image(new ByteArrayInputStream(encoded), size, size, true, true);
+			if(image.isError()){
+				return null;
+			}
+			store(file, image);
+		}
+		synchronized(memory){
+			memory.put(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * An already decoded cover scaled down to the thumbnail size, for covers
+	 * that only come from the {@code Media}. These are not cached.
+	 */
+	public Image thumbnail(Image full){
+		if(full == null || (full.getWidth() <= size && full.getHeight() <= size)){
+			return full;
+		}
+		double scale = Math.min(size/full.getWidth(), size/full.getHeight());
+		int width = Math.max(1, (int) Math.round(full.getWidth()*scale));
+		int height = Math.max(1, (int) Math.round(full.getHeight()*scale));
+		BufferedImage source = SwingFXUtils.fromFXImage(full, null);
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(source, 0, 0, width, height, null);
+		g.dispose();
+		return SwingFXUtils.toFXImage(scaled, null);
+	}
+
+	private void store(File file, Image image){
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			System.out.println("Cannot create cover folder: "+dir);
+			return;
+		}
+		// JPEG has no alpha, so draw onto an opaque image first
+		BufferedImage argb = SwingFXUtils.fromFXImage(image, null);
+		BufferedImage rgb = new BufferedImage(argb.getWidth(), argb.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = rgb.createGraphics();
+		g.drawImage(argb, 0, 0, null);
+		g.dispose();
+		try{
+			File temp = new File(dir, file.getName()+".tmp");
+			if(ImageIO.write(rgb, "jpg", temp) && temp.renameTo(file)){
+				trim();
+			}
+			else{
+				temp.delete();
+			}
+		}
+		catch(IOException e){
+			System.out.println("Cannot store cover "+file+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes the oldest thumbnails once there are more than
+	 * {@link #MAX_FILES}. The folder is only listed when it may be over.
+	 */
+	private synchronized void trim(){
+		if(files >= 0 && ++files <= MAX_FILES){
+			return;
+		}
+		File[] stored = dir.listFiles();
+		if(stored == null){
+			return;
+		}
+		files = stored.length;
+		if(files <= MAX_FILES){
+			return;
+		}
+		Arrays.sort(stored, new Comparator<File>(){
+
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+
+		});
+		for(int i = 0; i < stored.length-MAX_FILES; i++){
+			if(stored[i].delete()){
+				files--;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+
+/**
+ * Location of the files the player keeps between sessions.
+ *
+ * @author DELL
+ */
+public final class AppData {
+
+	private AppData(){
+	}
+
+	/**
+	 * The per-user data folder, {@code ~/.musicplayer} unless the
+	 * {@code musicplayer.home} system property says otherwise.
+	 */
+	public static File dir(){
+		String home = System.getProperty("musicplayer.home");
+		File dir = home != null ? new File(home) : new File(System.getProperty("user.home"), ".musicplayer");
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			System.out.println("Cannot create data folder: "+dir);
+		}
+		return dir;
+	}
+
+	public static File file(String name){
+		return new File(dir(), name);
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.Arrays;
+
+/**
+ * File extensions the player knows how to open.
+ *
+ * @author DELL
+ */
+public final class AudioFiles {
+
+	private static final String[] EXTENSIONS = {
+		"mp3", "aac", "aif", "aiff", "mp4", "m4a", "m4v", "wav"
+	};
+
+	// Every extension packed into an int, one lower case char per byte
+	private static final int[] KEYS = new int[EXTENSIONS.length];
+
+	static{
+		for(int i = 0; i < EXTENSIONS.length; i++){
+			KEYS[i] = key(EXTENSIONS[i], 0);
+		}
+		Arrays.sort(KEYS);
+	}
+
+	private AudioFiles(){
+	}
+
+	/**
+	 * Case-insensitive extension check, a single lookup per name and no
+	 * garbage.
+	 */
+	public static boolean isAudio(String name){
+		int dot = name.lastIndexOf('.');
+		int length = name.length()-dot-1;
+		if(dot < 0 || length < 1 || length > 4){
+			return false;
+		}
+		int key = key(name, dot+1);
+		return key != 0 && Arrays.binarySearch(KEYS, key) >= 0;
+	}
+
+	/**
+	 * Packs the chars from {@code start} to the end of {@code text}, in lower
+	 * case, into an int. Returns 0 for anything but ASCII letters and digits.
+	 */
+	private static int key(String text, int start){
+		int key = 0;
+		for(int i = start; i < text.length(); i++){
+			char c = text.charAt(i);
+			if(c >= 'A' && c <= 'Z'){
+				c += 'a'-'A';
+			}
+			else if(!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9')){
+				return 0;
+			}
+			key = key << 8 | c;
+		}
+		return key;
+	}
+
+}
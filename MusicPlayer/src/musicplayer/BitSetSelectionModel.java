@@ -0,0 +1,468 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.FocusModel;
+import javafx.scene.control.ListView;
+import javafx.scene.control.MultipleSelectionModel;
+import javafx.scene.control.SelectionMode;
+
+/**
+ * Multiple selection for a {@link ListView} kept in a {@link BitSet}, one bit
+ * per row, instead of a list of boxed indices. Selecting or clearing any
+ * number of rows is a bit operation followed by a single change event.
+ *
+ * The selected indices and items are views over the bits. Selecting or
+ * clearing one row reports just that row; anything bigger reports the whole
+ * old selection as replaced by the new one.
+ *
+ * @author DELL
+ */
+public class BitSetSelectionModel<T> extends MultipleSelectionModel<T> {
+
+	private final ObjectProperty<FocusModel<T>> focusModel;
+	private final BitSet bits = new BitSet();
+
+	private final SelectedIndices selectedIndices = new SelectedIndices();
+	private final SelectedItems selectedItems = new SelectedItems();
+
+	// Set bits in ascending order, rebuilt lazily after a change
+	private int[] indices = new int[0];
+	private boolean indicesValid = true;
+
+	private ObservableList<T> items;
+
+	private final ListChangeListener<T> itemsListener = new ListChangeListener<T>(){
+
+		public void onChanged(Change<? extends T> change) {
+			itemsChanged(change);
+		}
+
+	};
+
+	public BitSetSelectionModel(ListView<T> listView){
+		this(listView.itemsProperty(), listView.focusModelProperty());
+	}
+
+	/**
+	 * Selection over the list in {@code items}, moving the focus of
+	 * {@code focusModel}; what the ListView has, without needing one.
+	 */
+	BitSetSelectionModel(ObjectProperty<ObservableList<T>> items, ObjectProperty<FocusModel<T>> focusModel){
+		this.focusModel = focusModel;
+		setSelectionMode(SelectionMode.MULTIPLE);
+		items.addListener(new ChangeListener<ObservableList<T>>(){
+
+			public void changed(ObservableValue<? extends ObservableList<T>> observable, ObservableList<T> oldItems, ObservableList<T> newItems) {
+				setItems(newItems);
+			}
+
+		});
+		setItems(items.get());
+	}
+
+	/**
+	 * The selected rows, one bit each. Do not modify.
+	 */
+	public BitSet getSelectedBits(){
+		return bits;
+	}
+
+	@Override
+	public ObservableList<Integer> getSelectedIndices() {
+		return selectedIndices;
+	}
+
+	@Override
+	public ObservableList<T> getSelectedItems() {
+		return selectedItems;
+	}
+
+	@Override
+	public void selectIndices(int index, int... others) {
+		int[] old = indices();
+		int last = -1;
+		if(index >= 0 && index < itemCount()){
+			bits.set(index);
+			last = index;
+		}
+		for(int other : others){
+			if(other >= 0 && other < itemCount()){
+				bits.set(other);
+				last = other;
+			}
+		}
+		if(last >= 0){
+			changed(old, last);
+		}
+	}
+
+	/**
+	 * Selects from {@code start} to just before {@code end}, either way:
+	 * upwards it is {@code end+1} to {@code start}, as a shift-click above
+	 * the anchor asks for.
+	 */
+	@Override
+	public void selectRange(int start, int end) {
+		boolean down = start <= end;
+		int from = Math.max(down ? start : end+1, 0);
+		int to = Math.min(down ? end : start+1, itemCount());
+		if(from >= to){
+			return;
+		}
+		int[] old = indices();
+		bits.set(from, to);
+		changed(old, down ? to-1 : from);
+	}
+
+	@Override
+	public void selectAll() {
+		if(itemCount() == 0){
+			return;
+		}
+		int[] old = indices();
+		bits.set(0, itemCount());
+		changed(old, itemCount()-1);
+	}
+
+	@Override
+	public void selectFirst() {
+		if(itemCount() > 0){
+			clearAndSelect(0);
+		}
+	}
+
+	@Override
+	public void selectLast() {
+		if(itemCount() > 0){
+			clearAndSelect(itemCount()-1);
+		}
+	}
+
+	@Override
+	public void clearAndSelect(int index) {
+		if(index < 0 || index >= itemCount()){
+			clearSelection();
+			return;
+		}
+		int[] old = indices();
+		bits.clear();
+		bits.set(index);
+		changed(old, index);
+	}
+
+	@Override
+	public void select(int index) {
+		if(index < 0 || index >= itemCount()){
+			return;
+		}
+		if(bits.get(index)){
+			selected(index);
+			return;
+		}
+		bits.set(index);
+		indicesValid = false;
+		int rank = rank(index);
+		selected(index);
+		selectedIndices.fireAdded(rank);
+		selectedItems.fireAdded(rank);
+	}
+
+	@Override
+	public void select(T item) {
+		if(items == null){
+			return;
+		}
+		int index = items.indexOf(item);
+		if(index >= 0){
+			select(index);
+		}
+	}
+
+	@Override
+	public void clearSelection(int index) {
+		if(index < 0 || index >= itemCount() || !bits.get(index)){
+			return;
+		}
+		int rank = rank(index);
+		bits.clear(index);
+		indicesValid = false;
+		selected(bits.isEmpty() ? -1 : bits.previousSetBit(itemCount()));
+		selectedIndices.fireRemoved(rank, index);
+		selectedItems.fireRemoved(rank, items.get(index));
+	}
+
+	@Override
+	public void clearSelection() {
+		if(bits.isEmpty()){
+			return;
+		}
+		int[] old = indices();
+		bits.clear();
+		changed(old, -1);
+	}
+
+	@Override
+	public boolean isSelected(int index) {
+		return index >= 0 && bits.get(index);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return bits.isEmpty();
+	}
+
+	@Override
+	public void selectPrevious() {
+		int focused = focusedIndex();
+		if(focused > 0){
+			clearAndSelect(focused-1);
+		}
+	}
+
+	@Override
+	public void selectNext() {
+		int focused = focusedIndex();
+		if(focused < itemCount()-1){
+			clearAndSelect(focused+1);
+		}
+	}
+
+	private int focusedIndex(){
+		return focusModel.get() != null ? focusModel.get().getFocusedIndex() : -1;
+	}
+
+	private int itemCount(){
+		return items == null ? 0 : items.size();
+	}
+
+	private void setItems(ObservableList<T> newItems){
+		if(items != null){
+			items.removeListener(itemsListener);
+		}
+		items = newItems;
+		if(items != null){
+			items.addListener(itemsListener);
+		}
+		clearSelection();
+	}
+
+	/**
+	 * Keeps the bits on the same rows when rows are added or removed above
+	 * them. Removed rows lose their selection. The sub-changes come in order,
+	 * so the new bits are built in one pass however many ranges went.
+	 */
+	private void itemsChanged(ListChangeListener.Change<? extends T> change){
+		if(bits.isEmpty()){
+			return;
+		}
+		int[] old = indices();
+		// The items that were selected, found where the change left them,
+		// since the list no longer holds them at their old rows
+		List<T> oldItems = new ArrayList<T>(old.length);
+		BitSet moved = new BitSet();
+		int read = 0;
+		int write = 0;
+		while(change.next()){
+			if(change.wasPermutated()){
+				for(int i = oldItems.size(); i < old.length; i++){
+					int row = old[i] >= change.getFrom() && old[i] < change.getTo() ? change.getPermutation(old[i]) : old[i];
+					oldItems.add(items.get(row));
+				}
+				bits.clear();
+				changed(old, oldItems, -1);
+				return;
+			}
+			int keep = change.getFrom()-write;
+			int removed = change.getRemovedSize();
+			for(int i = oldItems.size(); i < old.length && old[i] < read+keep+removed; i++){
+				oldItems.add(old[i] < read+keep ? items.get(write+old[i]-read) : change.getRemoved().get(old[i]-read-keep));
+			}
+			copy(moved, read, read+keep, write);
+			read  += keep+removed;
+			write += keep+change.getAddedSize();
+		}
+		for(int i = oldItems.size(); i < old.length; i++){
+			int row = write+old[i]-read;
+			oldItems.add(row < itemCount() ? items.get(row) : null);
+		}
+		copy(moved, read, Math.max(bits.length(), read), write);
+		bits.clear();
+		bits.or(moved);
+		changed(old, oldItems, bits.isEmpty() ? -1 : bits.previousSetBit(itemCount()));
+	}
+
+	private void copy(BitSet to, int from, int end, int at){
+		for(int i = bits.nextSetBit(from); i >= 0 && i < end; i = bits.nextSetBit(i+1)){
+			to.set(at+i-from);
+		}
+	}
+
+	/**
+	 * Reports a change to any number of bits as the old selection replaced
+	 * by the new one.
+	 */
+	private void changed(int[] old, int last){
+		changed(old, null, last);
+	}
+
+	/**
+	 * Like {@link #changed(int[], int)}, with the items that were selected
+	 * when the list itself changed; null if the rows still hold them.
+	 */
+	private void changed(int[] old, List<T> oldItems, int last){
+		indicesValid = false;
+		selected(last);
+		selectedIndices.fire(old);
+		selectedItems.fire(old, oldItems);
+	}
+
+	private void selected(int last){
+		setSelectedIndex(last);
+		setSelectedItem(last >= 0 && last < itemCount() ? items.get(last) : null);
+		if(last >= 0){
+			if(focusModel.get() != null){
+				focusModel.get().focus(last);
+			}
+		}
+	}
+
+	/**
+	 * Position of {@code index} among the selected indices.
+	 */
+	private int rank(int index){
+		return bits.get(0, index).cardinality();
+	}
+
+	private int[] indices(){
+		if(!indicesValid){
+			int[] result = new int[bits.cardinality()];
+			int at = 0;
+			for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1)){
+				result[at++] = i;
+			}
+			indices      = result;
+			indicesValid = true;
+		}
+		return indices;
+	}
+
+	private static List<Integer> boxed(final int[] values){
+		return new AbstractList<Integer>(){
+
+			@Override
+			public Integer get(int index) {
+				return values[index];
+			}
+
+			@Override
+			public int size() {
+				return values.length;
+			}
+
+		};
+	}
+
+	private class SelectedIndices extends ObservableListBase<Integer> {
+
+		@Override
+		public Integer get(int index) {
+			return indices()[index];
+		}
+
+		@Override
+		public int size() {
+			return indices().length;
+		}
+
+		void fire(int[] old){
+			beginChange();
+			if(old.length > 0){
+				nextRemove(0, boxed(old));
+			}
+			if(size() > 0){
+				nextAdd(0, size());
+			}
+			endChange();
+		}
+
+		void fireAdded(int rank){
+			beginChange();
+			nextAdd(rank, rank+1);
+			endChange();
+		}
+
+		void fireRemoved(int rank, int index){
+			beginChange();
+			nextRemove(rank, Integer.valueOf(index));
+			endChange();
+		}
+	}
+
+	private class SelectedItems extends ObservableListBase<T> {
+
+		@Override
+		public T get(int index) {
+			return items.get(indices()[index]);
+		}
+
+		@Override
+		public int size() {
+			return items == null ? 0 : indices().length;
+		}
+
+		void fire(final int[] old, List<T> oldItems){
+			beginChange();
+			if(oldItems != null){
+				if(!oldItems.isEmpty()){
+					nextRemove(0, oldItems);
+				}
+			}
+			else if(old.length > 0){
+				nextRemove(0, new AbstractList<T>(){
+
+					@Override
+					public T get(int index) {
+						return old[index] < itemCount() ? items.get(old[index]) : null;
+					}
+
+					@Override
+					public int size() {
+						return old.length;
+					}
+
+				});
+			}
+			if(size() > 0){
+				nextAdd(0, size());
+			}
+			endChange();
+		}
+
+		void fireAdded(int rank){
+			beginChange();
+			nextAdd(rank, rank+1);
+			endChange();
+		}
+
+		void fireRemoved(int rank, T item){
+			beginChange();
+			nextRemove(rank, item);
+			endChange();
+		}
+	}
+
+}
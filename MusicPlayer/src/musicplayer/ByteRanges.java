@@ -0,0 +1,143 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A set of byte positions kept as sorted, disjoint {@code [start, end)}
+ * intervals: the parts of a remote file that are on disk.
+ *
+ * Not thread safe.
+ *
+ * @author DELL
+ */
+public final class ByteRanges {
+
+	private long[] starts = new long[8];
+	private long[] ends = new long[8];
+	private int count;
+
+	/**
+	 * Adds {@code [start, end)}, merging it with the intervals it touches.
+	 */
+	public void add(long start, long end){
+		if(start >= end){
+			return;
+		}
+		// First interval that ends at or after start, and first that starts after end
+		int from = 0;
+		while(from < count && ends[from] < start){
+			from++;
+		}
+		int to = from;
+		while(to < count && starts[to] <= end){
+			to++;
+		}
+		if(from < to){
+			start = Math.min(start, starts[from]);
+			end   = Math.max(end, ends[to-1]);
+		}
+		int removed = to-from;
+		if(removed == 0){
+			if(count == starts.length){
+				starts = Arrays.copyOf(starts, count*2);
+				ends   = Arrays.copyOf(ends, count*2);
+			}
+			System.arraycopy(starts, from, starts, from+1, count-from);
+			System.arraycopy(ends, from, ends, from+1, count-from);
+			count++;
+		}
+		else if(removed > 1){
+			System.arraycopy(starts, to, starts, from+1, count-to);
+			System.arraycopy(ends, to, ends, from+1, count-to);
+			count -= removed-1;
+		}
+		starts[from] = start;
+		ends[from]   = end;
+	}
+
+	public boolean contains(long position){
+		return end(position) > position;
+	}
+
+	/**
+	 * The end of the interval holding {@code position}, or
+	 * {@code position} itself if it is not held: either way the first
+	 * position from there on that is not held.
+	 */
+	public long end(long position){
+		int at = find(position);
+		return at >= 0 ? ends[at] : position;
+	}
+
+	/**
+	 * The start of the first interval after {@code position}, or
+	 * {@code Long.MAX_VALUE} if there is none.
+	 */
+	public long nextStart(long position){
+		for(int i = 0; i < count; i++){
+			if(starts[i] > position){
+				return starts[i];
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Number of bytes held.
+	 */
+	public long total(){
+		long total = 0;
+		for(int i = 0; i < count; i++){
+			total += ends[i]-starts[i];
+		}
+		return total;
+	}
+
+	public void clear(){
+		count = 0;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(count);
+		for(int i = 0; i < count; i++){
+			out.writeLong(starts[i]);
+			out.writeLong(ends[i]);
+		}
+	}
+
+	public void read(DataInput in) throws IOException {
+		clear();
+		int n = in.readInt();
+		for(int i = 0; i < n; i++){
+			long start = in.readLong();
+			add(start, in.readLong());
+		}
+	}
+
+	private int find(long position){
+		int low = 0;
+		int high = count-1;
+		while(low <= high){
+			int mid = (low+high) >>> 1;
+			if(ends[mid] <= position){
+				low = mid+1;
+			}
+			else if(starts[mid] > position){
+				high = mid-1;
+			}
+			else{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+}
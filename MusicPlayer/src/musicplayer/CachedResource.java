@@ -0,0 +1,427 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * One remote file as kept by the {@link CachingProxy}: a sparse data file
+ * holding the bytes fetched so far, and the {@link ByteRanges} saying which
+ * ones those are.
+ *
+ * A single filler fetches missing bytes from the origin, in order, from the
+ * position readers last asked for up to {@link #PREFETCH} bytes past it.
+ * Readers only ever read the data file, waiting for the filler when the
+ * bytes are not there yet. When a reader jumps outside what the filler is
+ * fetching, the filler drops its connection and starts again from there.
+ *
+ * @author DELL
+ */
+public final class CachedResource {
+
+	public static final long PREFETCH = 8L*1024*1024;
+
+	private static final int CHUNK = 64*1024;
+
+	// A reader this far ahead of the filler is reached by reading on
+	private static final long SKIP = 512*1024;
+
+	private static final long TIMEOUT = 30000;
+
+	private final String key;
+	private final URL origin;
+	private final File data;
+	private final File meta;
+	private final Executor executor;
+
+	private final ByteRanges ranges = new ByteRanges();
+	private FileChannel channel;
+	private long length = -1;
+	private String contentType;
+	private long lastUsed;
+
+	private int readers;
+	private boolean filling;
+	private long fillFrom;
+	private long wanted;
+	private long jump = -1;
+	private boolean rangesIgnored;
+	private IOException failure;
+
+	private volatile Runnable onFilled;
+
+	CachedResource(String key, URL origin, File dir, Executor executor){
+		this.key      = key;
+		this.origin   = origin;
+		this.data     = new File(dir, key+".data");
+		this.meta     = new File(dir, key+".meta");
+		this.executor = executor;
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	public String getKey(){
+		return key;
+	}
+
+	public URL getOrigin(){
+		return origin;
+	}
+
+	public synchronized long getLastUsed(){
+		return lastUsed;
+	}
+
+	public synchronized long cachedBytes(){
+		return ranges.total();
+	}
+
+	public synchronized boolean isBusy(){
+		return readers > 0 || filling;
+	}
+
+	public synchronized String getContentType(){
+		return contentType;
+	}
+
+	synchronized void opened(){
+		readers++;
+		lastUsed = System.currentTimeMillis();
+	}
+
+	synchronized void closed(){
+		readers--;
+	}
+
+	/**
+	 * Runs {@code task} on the filler's thread whenever it stops after
+	 * adding bytes to the data file.
+	 */
+	void setOnFilled(Runnable task){
+		onFilled = task;
+	}
+
+	/**
+	 * The size of the file. If it is not known yet the origin is asked,
+	 * fetching from {@code position} on. -1 if the origin does not say.
+	 */
+	public synchronized long length(long position) throws IOException {
+		if(length < 0){
+			await(position);
+		}
+		return length;
+	}
+
+	/**
+	 * Waits until {@code position} is on disk and says how many bytes from
+	 * there on are; 0 at the end of the file. Keeps the filler going
+	 * {@link #PREFETCH} bytes ahead of {@code position}.
+	 */
+	public synchronized long await(long position) throws IOException {
+		lastUsed = System.currentTimeMillis();
+		wanted = position+PREFETCH;
+		long deadline = lastUsed+TIMEOUT;
+		while(true){
+			if(length >= 0 && position >= length){
+				return 0;
+			}
+			long end = ranges.end(position);
+			if(end > position){
+				fillFrom = position;
+				if(!filling && missing() >= 0){
+					startFilling();
+				}
+				return end-position;
+			}
+			if(failure != null){
+				IOException cause = failure;
+				failure = null;
+				throw cause;
+			}
+			fillFrom = position;
+			jump = position;
+			if(!filling){
+				startFilling();
+			}
+			long left = deadline-System.currentTimeMillis();
+			if(left <= 0){
+				throw new IOException("Timed out waiting for "+origin);
+			}
+			try{
+				wait(left);
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			}
+		}
+	}
+
+	/**
+	 * Reads cached bytes at {@code position} into {@code buffer}.
+	 */
+	public int read(long position, ByteBuffer buffer) throws IOException {
+		return channel().read(buffer, position);
+	}
+
+	/**
+	 * The first byte from {@code fillFrom} up to {@code wanted} that is not
+	 * on disk, or -1 if there is none.
+	 */
+	private long missing(){
+		long position = ranges.end(fillFrom);
+		if(position >= wanted || (length >= 0 && position >= length)){
+			return -1;
+		}
+		return position;
+	}
+
+	private void startFilling(){
+		filling = true;
+		executor.execute(new Runnable(){
+
+			public void run() {
+				fill();
+			}
+
+		});
+	}
+
+	private void fill(){
+		long before = cachedBytes();
+		try{
+			while(true){
+				long start;
+				long stop;
+				synchronized(this){
+					jump  = -1;
+					start = missing();
+					if(start < 0){
+						filling = false;
+						save();
+						break;
+					}
+					stop = ranges.nextStart(start);
+				}
+				fetch(start, stop);
+			}
+		}
+		catch(IOException e){
+			System.out.println("Cannot fetch "+origin+": "+e.getMessage());
+			synchronized(this){
+				failure = e;
+				filling = false;
+				save();
+				notifyAll();
+			}
+		}
+		Runnable task = onFilled;
+		if(task != null && cachedBytes() > before){
+			task.run();
+		}
+	}
+
+	/**
+	 * Streams {@code [start, stop)} from the origin into the data file, until
+	 * it ends, the prefetch is far enough ahead, or a reader jumps away.
+	 */
+	private void fetch(long start, long stop) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) origin.openConnection();
+		connection.setConnectTimeout(10000);
+		connection.setReadTimeout(20000);
+		if(start > 0 || stop != Long.MAX_VALUE){
+			connection.setRequestProperty("Range", "bytes="+start+"-"+(stop != Long.MAX_VALUE ? String.valueOf(stop-1) : ""));
+		}
+		try{
+			int code = connection.getResponseCode();
+			long position;
+			if(code == HttpURLConnection.HTTP_PARTIAL){
+				position = contentRangeStart(connection.getHeaderField("Content-Range"));
+				long total = contentRangeTotal(connection.getHeaderField("Content-Range"));
+				synchronized(this){
+					if(total >= 0){
+						length = total;
+					}
+				}
+			}
+			else if(code == HttpURLConnection.HTTP_OK){
+				// The origin ignored the range: take it all from the start
+				position = 0;
+				long total = connection.getContentLengthLong();
+				synchronized(this){
+					if(total >= 0){
+						length = total;
+					}
+					rangesIgnored = start > 0;
+				}
+			}
+			else if(code == 416){
+				synchronized(this){
+					length = start;
+					notifyAll();
+				}
+				return;
+			}
+			else{
+				throw new IOException("HTTP "+code);
+			}
+			synchronized(this){
+				contentType = connection.getContentType();
+			}
+			InputStream in = connection.getInputStream();
+			try{
+				byte[] bytes = new byte[CHUNK];
+				while(true){
+					int count = in.read(bytes);
+					if(count < 0){
+						synchronized(this){
+							if(length < 0 && code == HttpURLConnection.HTTP_OK){
+								length = position;
+							}
+							notifyAll();
+						}
+						return;
+					}
+					ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+					long at = position;
+					while(buffer.hasRemaining()){
+						at += channel().write(buffer, at);
+					}
+					synchronized(this){
+						ranges.add(position, position+count);
+						position += count;
+						notifyAll();
+						if(position >= wanted && jump < 0){
+							return;
+						}
+						if(jump >= 0 && !rangesIgnored && !ranges.contains(jump) && (jump < position || jump > position+SKIP)){
+							return;
+						}
+					}
+				}
+			}
+			finally{
+				in.close();
+			}
+		}
+		finally{
+			connection.disconnect();
+		}
+	}
+
+	private static long contentRangeStart(String header) throws IOException {
+		// bytes 100-199/1000
+		if(header == null || !header.startsWith("bytes ")){
+			throw new IOException("Bad Content-Range: "+header);
+		}
+		int dash = header.indexOf('-');
+		return Long.parseLong(header.substring(6, dash).trim());
+	}
+
+	private static long contentRangeTotal(String header){
+		int slash = header.indexOf('/');
+		String total = header.substring(slash+1).trim();
+		return total.equals("*") ? -1 : Long.parseLong(total);
+	}
+
+	private synchronized FileChannel channel() throws IOException {
+		if(channel == null){
+			channel = new RandomAccessFile(data, "rw").getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * Writes down which bytes are on disk, so they are used again after a
+	 * restart.
+	 */
+	synchronized void save(){
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(meta)));
+			try{
+				out.writeUTF(origin.toString());
+				out.writeLong(length);
+				out.writeUTF(contentType != null ? contentType : "");
+				out.writeLong(lastUsed);
+				ranges.write(out);
+			}
+			finally{
+				out.close();
+			}
+		}
+		catch(IOException e){
+			System.out.println("Cannot save "+meta+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * The resource described by {@code meta}, or null if it cannot be
+	 * read.
+	 */
+	static CachedResource load(File meta, Executor executor){
+		String name = meta.getName();
+		String key = name.substring(0, name.length()-".meta".length());
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+			try{
+				CachedResource resource = new CachedResource(key, new URL(in.readUTF()), meta.getParentFile(), executor);
+				resource.length      = in.readLong();
+				String type          = in.readUTF();
+				resource.contentType = type.isEmpty() ? null : type;
+				resource.lastUsed    = in.readLong();
+				resource.ranges.read(in);
+				if(resource.data.length() < resource.ranges.total()){
+					// Data file lost or cut short; start over
+					resource.ranges.clear();
+				}
+				return resource;
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException e){
+			System.out.println("Cannot load "+meta+": "+e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Closes and deletes the files of this resource.
+	 */
+	synchronized void delete(){
+		close();
+		ranges.clear();
+		data.delete();
+		meta.delete();
+	}
+
+	synchronized void close(){
+		if(channel != null){
+			try{
+				channel.close();
+			}
+			catch(IOException e){
+				System.out.println("Cannot close "+data+": "+e.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+}
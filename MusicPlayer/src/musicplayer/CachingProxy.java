@@ -0,0 +1,410 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP proxy on the loopback interface that keeps what it fetches. Remote
+ * tracks are played through it: {@link #proxy(String)} turns an http URL
+ * into one on this proxy, and the player's range requests are answered from
+ * the on-disk {@link CachedResource}, which fetches missing bytes from the
+ * origin and prefetches ahead of the play head. Playing a track again, or
+ * seeking within what was fetched, never goes to the network.
+ *
+ * The cache lives in the {@code http-cache} folder of {@link AppData}. When
+ * it holds more than its limit, whole resources are evicted, least recently
+ * used first. The size is only looked at when a filler has added bytes,
+ * not on every request. The limit is read from the
+ * {@code musicplayer.httpcache} system property, in megabytes, and
+ * defaults to 512.
+ *
+ * @author DELL
+ */
+public class CachingProxy {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final Charset UTF8  = Charset.forName("UTF-8");
+
+	private static final int BUFFER = 64*1024;
+
+	private static CachingProxy shared;
+
+	private final File dir;
+	private final long maxBytes;
+
+	private final Map<String, CachedResource> resources = new HashMap<String, CachedResource>();
+
+	private final ExecutorService pool;
+	private ServerSocket server;
+
+	private final Runnable evictor = new Runnable(){
+
+		public void run() {
+			evict();
+		}
+
+	};
+
+	public CachingProxy(File dir, long maxBytes){
+		this.dir      = dir;
+		this.maxBytes = maxBytes;
+		final AtomicInteger count = new AtomicInteger();
+		this.pool = Executors.newCachedThreadPool(new ThreadFactory(){
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "http-proxy-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+	}
+
+	/**
+	 * The proxy shared by the whole player, started on first use.
+	 */
+	public static synchronized CachingProxy shared() throws IOException {
+		if(shared == null){
+			long megabytes = Long.parseLong(System.getProperty("musicplayer.httpcache", "512"));
+			CachingProxy proxy = new CachingProxy(AppData.file("http-cache"), megabytes*1024*1024);
+			proxy.start();
+			shared = proxy;
+		}
+		return shared;
+	}
+
+	/**
+	 * Loads what earlier sessions cached and starts listening on a free
+	 * loopback port.
+	 */
+	public synchronized void start() throws IOException {
+		if(server != null){
+			return;
+		}
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Cannot create cache folder: "+dir);
+		}
+		File[] metas = dir.listFiles();
+		if(metas != null){
+			for(File meta : metas){
+				if(meta.getName().endsWith(".meta")){
+					CachedResource resource = CachedResource.load(meta, pool);
+					if(resource != null){
+						resource.setOnFilled(evictor);
+						resources.put(resource.getKey(), resource);
+					}
+				}
+			}
+		}
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final ServerSocket listening = server;
+		Thread acceptor = new Thread(new Runnable(){
+
+			public void run() {
+				accept(listening);
+			}
+
+		}, "http-proxy");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public synchronized int getPort(){
+		return server != null ? server.getLocalPort() : -1;
+	}
+
+	/**
+	 * The address on this proxy that serves {@code url}. URLs that are not
+	 * http or https are returned as they are.
+	 */
+	public String proxy(String url){
+		if(!url.startsWith("http://") && !url.startsWith("https://")){
+			return url;
+		}
+		URL origin;
+		try{
+			origin = new URL(url);
+		}
+		catch(MalformedURLException e){
+			return url;
+		}
+		String key = Digests.sha1(url.getBytes(UTF8));
+		synchronized(this){
+			if(!resources.containsKey(key)){
+				CachedResource resource = new CachedResource(key, origin, dir, pool);
+				resource.setOnFilled(evictor);
+				resources.put(key, resource);
+			}
+		}
+		// The file name is kept so the player can tell the format
+		String path = origin.getPath();
+		String name = path.substring(path.lastIndexOf('/')+1);
+		return "http://127.0.0.1:"+getPort()+"/"+key+"/"+name;
+	}
+
+	public synchronized void close(){
+		try{
+			if(server != null){
+				server.close();
+			}
+		}
+		catch(IOException e){
+			System.out.println("Cannot close proxy: "+e.getMessage());
+		}
+		server = null;
+		for(CachedResource resource : resources.values()){
+			resource.save();
+			resource.close();
+		}
+		pool.shutdownNow();
+	}
+
+	private void accept(ServerSocket listening){
+		while(!listening.isClosed()){
+			try{
+				final Socket socket = listening.accept();
+				pool.execute(new Runnable(){
+
+					public void run() {
+						serve(socket);
+					}
+
+				});
+			}
+			catch(IOException e){
+				if(!listening.isClosed()){
+					System.out.println("Proxy accept failed: "+e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Answers one request and closes the connection.
+	 */
+	private void serve(Socket socket){
+		CachedResource resource = null;
+		try{
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 8192);
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER);
+			List<String> request = readHead(in);
+			if(request.isEmpty()){
+				return;
+			}
+			String[] line = request.get(0).split(" ");
+			if(line.length < 2 || !(line[0].equals("GET") || line[0].equals("HEAD"))){
+				respond(out, "405 Method Not Allowed", null);
+				return;
+			}
+			String path = line[1];
+			int slash = path.indexOf('/', 1);
+			String key = path.substring(1, slash > 0 ? slash : path.length());
+			synchronized(this){
+				resource = resources.get(key);
+			}
+			if(resource == null){
+				respond(out, "404 Not Found", null);
+				return;
+			}
+			resource.opened();
+			long[] range = range(request);
+			long start = range != null ? range[0] : 0;
+			long length = resource.length(start);
+			long end = range != null && range[1] >= 0 ? range[1] : length-1;
+			if(length >= 0){
+				end = Math.min(end, length-1);
+			}
+			if(length >= 0 && start >= length){
+				respond(out, "416 Range Not Satisfiable", "Content-Range: bytes */"+length+"\r\n");
+				return;
+			}
+
+			StringBuilder head = new StringBuilder();
+			head.append("HTTP/1.1 ").append(range != null ? "206 Partial Content" : "200 OK").append("\r\n");
+			head.append("Accept-Ranges: bytes\r\n");
+			if(resource.getContentType() != null){
+				head.append("Content-Type: ").append(resource.getContentType()).append("\r\n");
+			}
+			if(length >= 0){
+				head.append("Content-Length: ").append(end-start+1).append("\r\n");
+			}
+			if(range != null && length >= 0){
+				head.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(length).append("\r\n");
+			}
+			head.append("Connection: close\r\n\r\n");
+			out.write(head.toString().getBytes(ASCII));
+			if(line[0].equals("HEAD")){
+				out.flush();
+				return;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+			long position = start;
+			while(length < 0 || position <= end){
+				long available = resource.await(position);
+				if(available == 0){
+					break;
+				}
+				buffer.clear();
+				if(length >= 0){
+					available = Math.min(available, end-position+1);
+				}
+				buffer.limit((int) Math.min(available, buffer.capacity()));
+				int read = resource.read(position, buffer);
+				if(read <= 0){
+					break;
+				}
+				out.write(buffer.array(), 0, read);
+				position += read;
+			}
+			out.flush();
+		}
+		catch(IOException e){
+			// The player closes connections it no longer needs, as on a seek
+		}
+		finally{
+			if(resource != null){
+				resource.closed();
+			}
+			try{
+				socket.close();
+			}
+			catch(IOException e){
+			}
+		}
+	}
+
+	/**
+	 * Drops whole resources, least recently used first, until the cache is
+	 * within its limit. Resources being read or filled are kept.
+	 */
+	private void evict(){
+		List<CachedResource> all;
+		synchronized(this){
+			all = new ArrayList<CachedResource>(resources.values());
+		}
+		long total = 0;
+		for(CachedResource resource : all){
+			total += resource.cachedBytes();
+		}
+		if(total <= maxBytes){
+			return;
+		}
+		Collections.sort(all, new Comparator<CachedResource>(){
+
+			public int compare(CachedResource a, CachedResource b) {
+				return Long.compare(a.getLastUsed(), b.getLastUsed());
+			}
+
+		});
+		for(CachedResource resource : all){
+			if(total <= maxBytes){
+				break;
+			}
+			if(resource.isBusy()){
+				continue;
+			}
+			total -= resource.cachedBytes();
+			resource.delete();
+			synchronized(this){
+				resources.remove(resource.getKey());
+			}
+		}
+	}
+
+	private static void respond(OutputStream out, String status, String headers) throws IOException {
+		String head = "HTTP/1.1 "+status+"\r\n"+(headers != null ? headers : "")+"Content-Length: 0\r\nConnection: close\r\n\r\n";
+		out.write(head.getBytes(ASCII));
+		out.flush();
+	}
+
+	/**
+	 * The request line and headers, up to the blank line.
+	 */
+	private static List<String> readHead(InputStream in) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		StringBuilder line = new StringBuilder();
+		int c;
+		while((c = in.read()) >= 0){
+			if(c == '\n'){
+				int length = line.length();
+				if(length > 0 && line.charAt(length-1) == '\r'){
+					line.setLength(length-1);
+				}
+				if(line.length() == 0){
+					break;
+				}
+				lines.add(line.toString());
+				line.setLength(0);
+			}
+			else if(line.length() < 8192){
+				line.append((char) c);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * The first range of a {@code Range: bytes=a-b} header as
+	 * {@code {a, b}}, with b -1 when open ended; null without one.
+	 */
+	private static long[] range(List<String> request){
+		for(int i = 1; i < request.size(); i++){
+			String header = request.get(i);
+			if(header.regionMatches(true, 0, "Range:", 0, 6)){
+				String value = header.substring(6).trim();
+				if(!value.startsWith("bytes=")){
+					return null;
+				}
+				String first = value.substring(6).split(",")[0].trim();
+				int dash = first.indexOf('-');
+				if(dash <= 0){
+					// Suffix ranges are not asked for by the player
+					return null;
+				}
+				try{
+					long start = Long.parseLong(first.substring(0, dash).trim());
+					String last = first.substring(dash+1).trim();
+					long end = last.isEmpty() ? -1 : Long.parseLong(last);
+					if(end >= 0 && end < start){
+						// Not a valid range, so the whole file is sent
+						return null;
+					}
+					return new long[]{ start, end };
+				}
+				catch(NumberFormatException e){
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+}
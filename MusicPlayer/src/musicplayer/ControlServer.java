@@ -0,0 +1,1031 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.util.Duration;
+
+/**
+ * Remote control for playback sessions, for wall panels and scripts, on the
+ * loopback interface. One thread serves every connection with a selector.
+ *
+ * Commands are HTTP requests, GET or POST, whose path is the command and
+ * whose first query parameter its argument:
+ *
+ * <pre>
+ * /status
+ * /play  /pause  /toggle  /stop  /next  /back  /mute  /unmute
+ * /seek?ms=90000  /volume?value=40  /shuffle?value=on  /enqueue?path=/music/a.mp3
+ * </pre>
+ *
+ * and are answered with the status of the session as JSON. {@code /ws}
+ * upgrades to a WebSocket that takes the same commands as text frames,
+ * {@code "seek 90000"}, and is sent the status whenever it changes. With
+ * several sessions, paths start with {@code /zones/<name>}; without, the
+ * first session is meant. {@code /metrics} answers with the {@link Metrics}
+ * in the Prometheus text format, without waiting for the FX thread when it
+ * can, so that a stalled FX thread can still be looked at.
+ *
+ * Browsers may only send commands from pages on this machine: requests
+ * with an {@code Origin} of another host are refused, and so are requests
+ * with a {@code Host} other than a loopback name, which is what a page
+ * whose own name was rebound to 127.0.0.1 sends.
+ *
+ * Commands are handed to the FX thread in batches, one {@code runLater}
+ * for all that arrived meanwhile. Status pushes are coalesced: events from
+ * a session are folded into one push per pulse, the position is looked at
+ * every {@link #POSITION_PERIOD}, and a push is only made when the status
+ * changed. Each push is encoded once and the same bytes go to every
+ * subscriber; a subscriber that falls {@link #MAX_BACKLOG} bytes behind is
+ * dropped.
+ *
+ * @author DELL
+ */
+public class ControlServer {
+
+	/**
+	 * Adds to a queue what {@code /enqueue} names.
+	 */
+	public interface Queuer {
+
+		/**
+		 * Adds the file, folder or playlist {@code path} to the queue of
+		 * {@code session}. Called on the FX thread.
+		 */
+		void enqueue(PlaybackSession session, File path);
+	}
+
+	private static final Charset UTF8  = Charset.forName("UTF-8");
+	private static final Charset LATIN = Charset.forName("ISO-8859-1");
+
+	private static final String JSON = "application/json; charset=utf-8";
+	private static final String TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	private static final int MAX_REQUEST = 16*1024;
+	private static final int MAX_FRAME   = 64*1024;
+	private static final int MAX_BACKLOG = 1024*1024;
+
+	private static final Duration POSITION_PERIOD = Duration.millis(250);
+
+	private static final Histogram COMMANDS = Metrics.histogram("control_command_seconds");
+
+	private final Queuer queuer;
+
+	// FX thread only
+	private final Map<String, Target> targets = new LinkedHashMap<String, Target>();
+	private final Timeline positions;
+	private boolean pushScheduled;
+	private long commandCount;
+	private long commandNanos;
+
+	// Handed from the selector thread to the FX thread, and back
+	private final ConcurrentLinkedQueue<Command> commands = new ConcurrentLinkedQueue<Command>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger subscriberCount = new AtomicInteger();
+
+	// Selector thread only
+	private final Map<String, List<Connection>> subscribers = new HashMap<String, List<Connection>>();
+
+	private Selector selector;
+	private ServerSocketChannel server;
+
+	public ControlServer(Queuer queuer){
+		this.queuer = queuer;
+		positions = new Timeline(new KeyFrame(POSITION_PERIOD, new EventHandler<ActionEvent>(){
+
+			public void handle(ActionEvent event) {
+				push();
+			}
+
+		}));
+		positions.setCycleCount(Animation.INDEFINITE);
+	}
+
+	/**
+	 * Makes {@code session} controllable as {@code name}. Called on the FX
+	 * thread.
+	 */
+	public void addSession(String name, PlaybackSession session){
+		Target target = new Target(name, session);
+		targets.put(name, target);
+		session.addListener(target);
+	}
+
+	/**
+	 * Stops controlling the session {@code name} and closes its
+	 * subscribers. Called on the FX thread.
+	 */
+	public void removeSession(final String name){
+		Target target = targets.remove(name);
+		if(target == null){
+			return;
+		}
+		target.session.removeListener(target);
+		onSelector(new Runnable(){
+
+			public void run() {
+				List<Connection> list = subscribers.get(name);
+				if(list != null){
+					for(Connection connection : new ArrayList<Connection>(list)){
+						send(connection, closeFrame(1001, "Zone removed"), true);
+					}
+				}
+			}
+
+		});
+		if(selector != null){
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Starts listening on loopback {@code port}, or on a free port if it is
+	 * 0. Called on the FX thread.
+	 */
+	public void start(int port) throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		Thread thread = new Thread(new Runnable(){
+
+			public void run() {
+				serve();
+			}
+
+		}, "control-server");
+		thread.setDaemon(true);
+		thread.start();
+		positions.play();
+	}
+
+	public int getPort(){
+		return server != null ? server.socket().getLocalPort() : -1;
+	}
+
+	/**
+	 * Commands run since the start. Read on the FX thread.
+	 */
+	public long getCommandCount(){
+		return commandCount;
+	}
+
+	/**
+	 * Mean time from a command being read to it having run, waiting for
+	 * the FX thread included, in nanoseconds. Read on the FX thread.
+	 */
+	public long getMeanCommandLatency(){
+		return commandCount > 0 ? commandNanos/commandCount : 0;
+	}
+
+	/**
+	 * Closes every connection and the socket. Called on the FX thread.
+	 */
+	public void close(){
+		positions.stop();
+		for(Target target : targets.values()){
+			target.session.removeListener(target);
+		}
+		targets.clear();
+		if(selector == null){
+			return;
+		}
+		onSelector(new Runnable(){
+
+			public void run() {
+				for(SelectionKey key : selector.keys()){
+					try{
+						key.channel().close();
+					}
+					catch(IOException e){
+						// Closing anyway
+					}
+				}
+				try{
+					selector.close();
+				}
+				catch(IOException e){
+					System.out.println("Cannot close control server: "+e.getMessage());
+				}
+			}
+
+		});
+		selector.wakeup();
+	}
+
+	// FX thread
+
+	/**
+	 * Runs every command that came in since the last batch.
+	 */
+	private void drain(){
+		draining.set(false);
+		Command command;
+		while((command = commands.poll()) != null){
+			execute(command);
+			long nanos = System.nanoTime()-command.received;
+			commandCount++;
+			commandNanos += nanos;
+			COMMANDS.record(nanos);
+		}
+		selector.wakeup();
+	}
+
+	private void execute(final Command command){
+		if(command.verb.equals("metrics")){
+			reply(command, 200, Metrics.scrape());
+			return;
+		}
+		Target target = command.zone != null ? targets.get(command.zone) : first();
+		if(target == null){
+			if(command.verb.equals("subscribe")){
+				post(command.connection, closeFrame(1008, "No such zone"), true);
+			}
+			else{
+				reply(command, 404, error("No zone: "+(command.zone != null ? command.zone : "")));
+			}
+			return;
+		}
+		PlaybackSession session = target.session;
+		String verb = command.verb;
+		String argument = command.argument;
+		try{
+			if(verb.equals("subscribe") && command.websocket){
+				subscribe(command.connection, target);
+				return;
+			}
+			else if(verb.equals("status")){
+				// Answered below
+			}
+			else if(verb.equals("play")){
+				session.play();
+			}
+			else if(verb.equals("pause")){
+				session.pause();
+			}
+			else if(verb.equals("toggle")){
+				session.toggle();
+			}
+			else if(verb.equals("stop")){
+				session.stop();
+			}
+			else if(verb.equals("next")){
+				session.next();
+			}
+			else if(verb.equals("back")){
+				session.previous();
+			}
+			else if(verb.equals("mute") || verb.equals("unmute")){
+				session.setMuted(verb.equals("mute"));
+			}
+			else if(verb.equals("seek") && argument != null){
+				session.seek(Duration.millis(Long.parseLong(argument)));
+			}
+			else if(verb.equals("volume") && argument != null){
+				session.setVolume(Integer.parseInt(argument)/100.0);
+			}
+			else if(verb.equals("shuffle") && argument != null){
+				session.setShuffled(argument.equals("on") || argument.equals("true"));
+			}
+			else if(verb.equals("enqueue") && argument != null && queuer != null){
+				queuer.enqueue(session, new File(argument));
+			}
+			else{
+				reply(command, 400, error("Unknown command: "+verb));
+				return;
+			}
+		}
+		catch(NumberFormatException e){
+			reply(command, 400, error("Bad argument: "+argument));
+			return;
+		}
+		reply(command, 200, status(target));
+	}
+
+	private void reply(final Command command, int code, String body){
+		if(command.websocket){
+			post(command.connection, textFrame(body), false);
+			return;
+		}
+		final ByteBuffer bytes = response(code, command.verb.equals("metrics") ? TEXT : JSON, body, command.keepAlive);
+		onSelector(new Runnable(){
+
+			public void run() {
+				command.connection.pending--;
+				send(command.connection, bytes, !command.keepAlive);
+			}
+
+		});
+	}
+
+	private void subscribe(final Connection connection, final Target target){
+		final ByteBuffer first = textFrame(status(target));
+		onSelector(new Runnable(){
+
+			public void run() {
+				if(!connection.channel.isOpen()){
+					return;
+				}
+				if(connection.zone != null){
+					// Subscribed on upgrade already; asked again, it only gets the status
+					send(connection, first, false);
+					return;
+				}
+				connection.zone = target.name;
+				List<Connection> list = subscribers.get(target.name);
+				if(list == null){
+					list = new ArrayList<Connection>();
+					subscribers.put(target.name, list);
+				}
+				list.add(connection);
+				subscriberCount.incrementAndGet();
+				send(connection, first, false);
+			}
+
+		});
+	}
+
+	/**
+	 * Sends the status of every session that changed to its subscribers.
+	 */
+	private void push(){
+		pushScheduled = false;
+		if(subscriberCount.get() == 0){
+			return;
+		}
+		boolean sent = false;
+		for(final Target target : targets.values()){
+			String status = status(target);
+			if(status.equals(target.lastStatus)){
+				continue;
+			}
+			target.lastStatus = status;
+			final ByteBuffer frame = textFrame(status);
+			onSelector(new Runnable(){
+
+				public void run() {
+					List<Connection> list = subscribers.get(target.name);
+					if(list == null){
+						return;
+					}
+					for(Connection connection : new ArrayList<Connection>(list)){
+						send(connection, frame.duplicate(), false);
+					}
+				}
+
+			});
+			sent = true;
+		}
+		if(sent){
+			selector.wakeup();
+		}
+	}
+
+	private void schedulePush(){
+		if(pushScheduled){
+			return;
+		}
+		pushScheduled = true;
+		FxQueue.runLater(new Runnable(){
+
+			public void run() {
+				push();
+			}
+
+		});
+	}
+
+	private Target first(){
+		return targets.isEmpty() ? null : targets.values().iterator().next();
+	}
+
+	private static String status(Target target){
+		PlaybackSession session = target.session;
+		TrackList queue = session.getQueue();
+		int index = session.getIndex();
+		Duration length = session.getLength();
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"zone\":");
+		quote(json, target.name);
+		json.append(",\"state\":\"").append(session.getState()).append('"');
+		json.append(",\"index\":").append(index);
+		json.append(",\"count\":").append(queue.size());
+		json.append(",\"track\":");
+		if(index >= 0 && index < queue.size()){
+			quote(json, queue.displayName(index));
+		}
+		else{
+			json.append("null");
+		}
+		json.append(",\"position\":").append((long) session.getPosition().toMillis());
+		json.append(",\"length\":").append(length.isUnknown() || length.isIndefinite() ? -1 : (long) length.toMillis());
+		json.append(",\"volume\":").append(Math.round(session.getVolume()*100));
+		json.append(",\"muted\":").append(session.isMuted());
+		json.append(",\"shuffle\":").append(session.isShuffled());
+		return json.append('}').toString();
+	}
+
+	private static String error(String message){
+		StringBuilder json = new StringBuilder("{\"error\":");
+		quote(json, message);
+		return json.append('}').toString();
+	}
+
+	private static void quote(StringBuilder json, String text){
+		json.append('"');
+		for(int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			if(c == '"' || c == '\\'){
+				json.append('\\').append(c);
+			}
+			else if(c < 0x20){
+				json.append(String.format("\\u%04x", (int) c));
+			}
+			else{
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Sends {@code bytes} to {@code connection} from any thread. The
+	 * selector is woken by the caller, once for a batch.
+	 */
+	private void post(final Connection connection, final ByteBuffer bytes, final boolean close){
+		onSelector(new Runnable(){
+
+			public void run() {
+				send(connection, bytes, close);
+			}
+
+		});
+	}
+
+	private void onSelector(Runnable task){
+		selectorTasks.add(task);
+	}
+
+	// Selector thread
+
+	private void serve(){
+		try{
+			while(selector.isOpen()){
+				selector.select();
+				Runnable task;
+				while((task = selectorTasks.poll()) != null){
+					task.run();
+				}
+				if(!selector.isOpen()){
+					break;
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid()){
+						continue;
+					}
+					if(key.isAcceptable()){
+						accept();
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					try{
+						if(key.isReadable()){
+							read(connection);
+						}
+						if(key.isValid() && key.isWritable()){
+							flush(connection);
+						}
+					}
+					catch(IOException e){
+						close(connection);
+					}
+				}
+			}
+		}
+		catch(IOException | ClosedSelectorException e){
+			if(selector.isOpen()){
+				System.out.println("Control server stopped: "+e.getMessage());
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while((channel = server.accept()) != null){
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+	}
+
+	private void read(Connection connection) throws IOException {
+		if(connection.channel.read(connection.in) < 0){
+			close(connection);
+			return;
+		}
+		connection.in.flip();
+		boolean more = true;
+		while(more && connection.key.isValid()){
+			more = connection.websocket ? readFrame(connection) : readRequest(connection);
+		}
+		connection.in.compact();
+		if(!connection.in.hasRemaining() && connection.key.isValid()){
+			int limit = connection.websocket ? MAX_FRAME+14 : MAX_REQUEST;
+			if(connection.in.capacity() >= limit){
+				if(connection.websocket){
+					send(connection, closeFrame(1009, "Message too big"), true);
+				}
+				else{
+					send(connection, response(413, error("Request too big"), false), true);
+				}
+				return;
+			}
+			ByteBuffer bigger = ByteBuffer.allocate(Math.min(connection.in.capacity()*2, limit));
+			connection.in.flip();
+			bigger.put(connection.in);
+			connection.in = bigger;
+		}
+	}
+
+	/**
+	 * Takes one HTTP request from the input if it is all there. Returns
+	 * false when more bytes are needed.
+	 */
+	private boolean readRequest(Connection connection){
+		ByteBuffer in = connection.in;
+		int end = headerEnd(in);
+		if(end < 0){
+			return false;
+		}
+		String[] lines = new String(in.array(), in.position(), end-in.position(), LATIN).split("\r\n");
+		Map<String, String> headers = new HashMap<String, String>();
+		for(int i = 1; i < lines.length; i++){
+			int colon = lines[i].indexOf(':');
+			if(colon > 0){
+				headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon+1).trim());
+			}
+		}
+		int body = 0;
+		try{
+			body = headers.containsKey("content-length") ? Integer.parseInt(headers.get("content-length")) : 0;
+		}
+		catch(NumberFormatException e){
+			body = -1;
+		}
+		if(body < 0 || body > MAX_REQUEST){
+			send(connection, response(413, error("Request too big"), false), true);
+			return false;
+		}
+		if(in.limit()-(end+4) < body){
+			return false;
+		}
+		in.position(end+4+body);
+
+		String[] request = lines[0].split(" ");
+		boolean keepAlive = request.length == 3 && request[2].equals("HTTP/1.1") && !"close".equalsIgnoreCase(headers.get("connection"));
+		if(request.length != 3 || !(request[0].equals("GET") || request[0].equals("POST"))){
+			send(connection, response(400, error("Bad request"), false), true);
+			return false;
+		}
+		String origin = headers.get("origin");
+		if(origin != null && !isLocalOrigin(origin)){
+			send(connection, response(403, error("Forbidden origin"), false), true);
+			return false;
+		}
+		String host = headers.get("host");
+		if(host != null && !isLocalHost(host)){
+			send(connection, response(403, error("Forbidden host"), false), true);
+			return false;
+		}
+
+		String target = request[1];
+		int question = target.indexOf('?');
+		String path = question >= 0 ? target.substring(0, question) : target;
+		String argument = question >= 0 ? firstValue(target.substring(question+1)) : null;
+		String zone = null;
+		if(path.startsWith("/zones/")){
+			int slash = path.indexOf('/', 7);
+			zone = decode(slash >= 0 ? path.substring(7, slash) : path.substring(7));
+			path = slash >= 0 ? path.substring(slash) : "/";
+		}
+		if(path.equals("/ws")){
+			String key = headers.get("sec-websocket-key");
+			if(key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))){
+				send(connection, response(400, error("WebSocket upgrade expected"), false), true);
+				return false;
+			}
+			String accept = Digests.sha1Base64((key+WEBSOCKET_GUID).getBytes(LATIN));
+			send(connection, ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\n"
+					+"Upgrade: websocket\r\nConnection: Upgrade\r\n"
+					+"Sec-WebSocket-Accept: "+accept+"\r\n\r\n").getBytes(LATIN)), false);
+			connection.websocket = true;
+			connection.requested = zone;
+			enqueue(new Command(connection, zone, "subscribe", null, true, false));
+			return true;
+		}
+		if(path.equals("/metrics") && connection.pending == 0){
+			// Nothing to answer before it; read here in case the FX thread is stuck
+			send(connection, response(200, TEXT, Metrics.scrape(), keepAlive), !keepAlive);
+			return keepAlive;
+		}
+		// Unknown paths are answered in turn with the commands before them
+		enqueue(new Command(connection, zone, path.substring(1), argument, false, keepAlive));
+		return keepAlive;
+	}
+
+	/**
+	 * Takes one WebSocket frame from the input if it is all there.
+	 * Returns false when more bytes are needed.
+	 */
+	private boolean readFrame(Connection connection){
+		ByteBuffer in = connection.in;
+		int start = in.position();
+		if(in.remaining() < 2){
+			return false;
+		}
+		int first = in.get(start) & 0xff;
+		int second = in.get(start+1) & 0xff;
+		boolean fin = (first & 0x80) != 0;
+		int opcode = first & 0x0f;
+		if((second & 0x80) == 0){
+			send(connection, closeFrame(1002, "Frames must be masked"), true);
+			return false;
+		}
+		long length = second & 0x7f;
+		int header = 2;
+		if(length == 126){
+			if(in.remaining() < 4){
+				return false;
+			}
+			length = in.getShort(start+2) & 0xffff;
+			header = 4;
+		}
+		else if(length == 127){
+			if(in.remaining() < 10){
+				return false;
+			}
+			length = in.getLong(start+2);
+			header = 10;
+		}
+		if(length < 0 || length > MAX_FRAME){
+			send(connection, closeFrame(1009, "Message too big"), true);
+			return false;
+		}
+		if(in.remaining() < header+4+length){
+			return false;
+		}
+		byte[] payload = new byte[(int) length];
+		int mask = start+header;
+		for(int i = 0; i < payload.length; i++){
+			payload[i] = (byte) (in.get(mask+4+i) ^ in.get(mask+(i & 3)));
+		}
+		in.position(mask+4+payload.length);
+
+		switch(opcode){
+		case 1:
+			if(!fin){
+				send(connection, closeFrame(1009, "Fragmented messages are not supported"), true);
+				return false;
+			}
+			String text = new String(payload, UTF8).trim();
+			int space = text.indexOf(' ');
+			String verb = space >= 0 ? text.substring(0, space) : text;
+			String argument = space >= 0 ? text.substring(space+1).trim() : null;
+			enqueue(new Command(connection, connection.requested, verb, argument, true, true));
+			return true;
+		case 8:
+			send(connection, frame(8, payload.length >= 2 ? new byte[]{payload[0], payload[1]} : new byte[0]), true);
+			return false;
+		case 9:
+			send(connection, frame(10, payload), false);
+			return true;
+		case 10:
+			return true;
+		default:
+			send(connection, closeFrame(1003, "Only text frames are accepted"), true);
+			return false;
+		}
+	}
+
+	private void enqueue(Command command){
+		if(!command.websocket){
+			command.connection.pending++;
+		}
+		commands.add(command);
+		if(draining.compareAndSet(false, true)){
+			FxQueue.runLater(new Runnable(){
+
+				public void run() {
+					drain();
+				}
+
+			});
+		}
+	}
+
+	/**
+	 * Queues {@code bytes} on {@code connection} and writes what the socket
+	 * takes now. With {@code close}, the connection is closed once written.
+	 */
+	private void send(Connection connection, ByteBuffer bytes, boolean close){
+		if(!connection.channel.isOpen()){
+			return;
+		}
+		connection.out.add(bytes);
+		connection.queued += bytes.remaining();
+		connection.closeAfterWrite |= close;
+		if(connection.queued > MAX_BACKLOG){
+			System.out.println("Dropping slow control client");
+			close(connection);
+			return;
+		}
+		try{
+			flush(connection);
+		}
+		catch(IOException e){
+			close(connection);
+		}
+	}
+
+	private void flush(Connection connection) throws IOException {
+		while(!connection.out.isEmpty()){
+			ByteBuffer head = connection.out.peek();
+			int written = connection.channel.write(head);
+			connection.queued -= written;
+			if(head.hasRemaining()){
+				connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			connection.out.poll();
+		}
+		if(connection.closeAfterWrite){
+			close(connection);
+			return;
+		}
+		connection.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void close(Connection connection){
+		if(connection.key != null){
+			connection.key.cancel();
+		}
+		try{
+			connection.channel.close();
+		}
+		catch(IOException e){
+			// Gone anyway
+		}
+		if(connection.zone != null){
+			List<Connection> list = subscribers.get(connection.zone);
+			if(list != null && list.remove(connection)){
+				subscriberCount.decrementAndGet();
+			}
+		}
+	}
+
+	// Encoding
+
+	private static int headerEnd(ByteBuffer in){
+		for(int i = in.position(); i+3 < in.limit(); i++){
+			if(in.get(i) == '\r' && in.get(i+1) == '\n' && in.get(i+2) == '\r' && in.get(i+3) == '\n'){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Whether {@code origin} is a page on this machine, a file included.
+	 * The host is compared whole, so http://localhost.example.com is not.
+	 */
+	private static boolean isLocalOrigin(String origin){
+		if(origin.equals("null")){
+			return true;
+		}
+		try{
+			URI uri = new URI(origin);
+			String scheme = uri.getScheme();
+			return ("http".equals(scheme) || "https".equals(scheme)) && isLoopback(uri.getHost());
+		}
+		catch(URISyntaxException e){
+			return false;
+		}
+	}
+
+	/**
+	 * Whether a {@code Host} header, with or without its port, names the
+	 * loopback interface.
+	 */
+	private static boolean isLocalHost(String host){
+		try{
+			return isLoopback(new URI("http://"+host+"/").getHost());
+		}
+		catch(URISyntaxException e){
+			return false;
+		}
+	}
+
+	private static boolean isLoopback(String host){
+		return host != null && (host.equalsIgnoreCase("localhost") || host.equals("127.0.0.1") || host.equals("[::1]"));
+	}
+
+	private static String firstValue(String query){
+		int amp = query.indexOf('&');
+		String pair = amp >= 0 ? query.substring(0, amp) : query;
+		int equals = pair.indexOf('=');
+		return decode(equals >= 0 ? pair.substring(equals+1) : pair);
+	}
+
+	private static String decode(String text){
+		try{
+			return URLDecoder.decode(text, "UTF-8");
+		}
+		catch(UnsupportedEncodingException | IllegalArgumentException e){
+			return text;
+		}
+	}
+
+	private static ByteBuffer response(int code, String body, boolean keepAlive){
+		return response(code, JSON, body, keepAlive);
+	}
+
+	private static ByteBuffer response(int code, String type, String body, boolean keepAlive){
+		byte[] bytes = body.getBytes(UTF8);
+		String head = "HTTP/1.1 "+code+" "+reason(code)+"\r\n"
+				+"Content-Type: "+type+"\r\n"
+				+"Content-Length: "+bytes.length+"\r\n"
+				+"Cache-Control: no-store\r\n"
+				+(keepAlive ? "" : "Connection: close\r\n")
+				+"\r\n";
+		byte[] headBytes = head.getBytes(LATIN);
+		ByteBuffer buffer = ByteBuffer.allocate(headBytes.length+bytes.length);
+		buffer.put(headBytes).put(bytes).flip();
+		return buffer;
+	}
+
+	private static String reason(int code){
+		switch(code){
+		case 200:
+			return "OK";
+		case 400:
+			return "Bad Request";
+		case 403:
+			return "Forbidden";
+		case 404:
+			return "Not Found";
+		case 413:
+			return "Payload Too Large";
+		default:
+			return "Error";
+		}
+	}
+
+	private static ByteBuffer textFrame(String text){
+		return frame(1, text.getBytes(UTF8));
+	}
+
+	private static ByteBuffer closeFrame(int code, String reason){
+		byte[] text = reason.getBytes(UTF8);
+		byte[] payload = new byte[2+text.length];
+		payload[0] = (byte) (code >> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(text, 0, payload, 2, text.length);
+		return frame(8, payload);
+	}
+
+	private static ByteBuffer frame(int opcode, byte[] payload){
+		int header = payload.length < 126 ? 2 : payload.length < 65536 ? 4 : 10;
+		ByteBuffer buffer = ByteBuffer.allocate(header+payload.length);
+		buffer.put((byte) (0x80 | opcode));
+		if(header == 2){
+			buffer.put((byte) payload.length);
+		}
+		else if(header == 4){
+			buffer.put((byte) 126).putShort((short) payload.length);
+		}
+		else{
+			buffer.put((byte) 127).putLong(payload.length);
+		}
+		buffer.put(payload).flip();
+		return buffer;
+	}
+
+	/**
+	 * A session under control, and what was last pushed about it.
+	 */
+	private final class Target implements PlaybackSession.Listener {
+
+		private final String name;
+		private final PlaybackSession session;
+		private String lastStatus;
+
+		private Target(String name, PlaybackSession session){
+			this.name    = name;
+			this.session = session;
+		}
+
+		public void trackLoaded(int index, File file) {
+			schedulePush();
+		}
+
+		public void ready(int index, Duration length) {
+			schedulePush();
+		}
+
+		public void stateChanged(PlaybackSession.State state) {
+			schedulePush();
+		}
+
+		public void volumeChanged(double volume, boolean muted) {
+			schedulePush();
+		}
+
+		public void queueFinished() {
+			schedulePush();
+		}
+	}
+
+	private static final class Command {
+
+		private final Connection connection;
+		private final String zone;
+		private final String verb;
+		private final String argument;
+		private final boolean websocket;
+		private final boolean keepAlive;
+		private final long received = System.nanoTime();
+
+		private Command(Connection connection, String zone, String verb, String argument, boolean websocket, boolean keepAlive){
+			this.connection = connection;
+			this.zone       = zone;
+			this.verb       = verb;
+			this.argument   = argument;
+			this.websocket  = websocket;
+			this.keepAlive  = keepAlive;
+		}
+	}
+
+	/**
+	 * One client. Touched only on the selector thread.
+	 */
+	private static final class Connection {
+
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+		private int queued;
+		// HTTP requests handed to the FX thread and not answered yet
+		private int pending;
+		private boolean closeAfterWrite;
+		private boolean websocket;
+		// The session named in its path, and the one it is subscribed to
+		private String requested;
+		private String zone;
+
+		private Connection(SocketChannel channel){
+			this.channel = channel;
+		}
+	}
+
+}
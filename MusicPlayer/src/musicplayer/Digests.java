@@ -0,0 +1,51 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Content hashes used as cache keys.
+ *
+ * @author DELL
+ */
+public final class Digests {
+
+	private Digests(){
+	}
+
+	/**
+	 * The SHA-1 of {@code bytes} as 40 lower case hex digits.
+	 */
+	public static String sha1(byte[] bytes){
+		byte[] digest = sha1Digest(bytes);
+		char[] hex = new char[digest.length*2];
+		for(int i = 0; i < digest.length; i++){
+			hex[2*i]   = Character.forDigit((digest[i] >> 4) & 0xf, 16);
+			hex[2*i+1] = Character.forDigit(digest[i] & 0xf, 16);
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * The SHA-1 of {@code bytes} in Base64, as WebSocket handshakes use it.
+	 */
+	public static String sha1Base64(byte[] bytes){
+		return Base64.getEncoder().encodeToString(sha1Digest(bytes));
+	}
+
+	private static byte[] sha1Digest(byte[] bytes){
+		try{
+			return MessageDigest.getInstance("SHA-1").digest(bytes);
+		}
+		catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,327 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Finds the length of a track from its container headers, without a
+ * {@code MediaPlayer}:
+ *
+ * - MP3: the frame count of a Xing, Info or VBRI header, or else the size
+ *   of the audio over the bit rate of the first frame;
+ * - WAV: the data chunk over the byte rate of the fmt chunk;
+ * - AIFF: the frame count and sample rate of the COMM chunk;
+ * - MP4 and M4A: the duration and time scale of moov/mvhd.
+ *
+ * The file is memory mapped, so only the pages holding the headers are
+ * ever read from disk, however big the track is. The mapping is released
+ * before returning, so the track is not kept open.
+ *
+ * @author DELL
+ */
+public final class DurationProber {
+
+	/** Returned when the length cannot be told from the headers. */
+	public static final long UNKNOWN = -1;
+
+	// How far past the ID3 tag the first MP3 frame is looked for
+	private static final int MP3_SEARCH = 64*1024;
+
+	private static final int[][] BITRATES = {
+		// MPEG 1, layers I, II, III
+		{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+		{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+		// MPEG 2 and 2.5, layer I, then layers II and III
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+		{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 }
+	};
+
+	private static final int[] SAMPLE_RATES = { 44100, 48000, 32000 };
+
+	private DurationProber(){
+	}
+
+	/**
+	 * The length of {@code file} in milliseconds, or {@link #UNKNOWN}.
+	 */
+	public static long probe(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		MappedByteBuffer data = null;
+		try{
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if(size < 12){
+				return UNKNOWN;
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+			if(is(data, 0, "RIFF") && is(data, 8, "WAVE")){
+				return wav(data);
+			}
+			if(is(data, 0, "FORM") && (is(data, 8, "AIFF") || is(data, 8, "AIFC"))){
+				return aiff(data);
+			}
+			if(is(data, 4, "ftyp")){
+				return mp4(data, 0, data.limit());
+			}
+			return mp3(data);
+		}
+		finally{
+			in.close();
+			MappedBuffers.release(data);
+		}
+	}
+
+	// MP3
+
+	private static long mp3(MappedByteBuffer data){
+		int limit = data.limit();
+		int start = 0;
+		if(is(data, 0, "ID3") && limit >= 10){
+			start = 10+syncsafe(data, 6);
+			if((data.get(5) & 0x10) != 0){
+				// Footer
+				start += 10;
+			}
+		}
+		int end = limit;
+		if(end-128 >= start && is(data, end-128, "TAG")){
+			end -= 128;
+		}
+
+		int search = (int) Math.min(end-4L, (long) start+MP3_SEARCH);
+		for(int at = start; at < search; at++){
+			if((data.get(at) & 0xff) != 0xff || (data.get(at+1) & 0xe0) != 0xe0){
+				continue;
+			}
+			int header = data.getInt(at);
+			int frameLength = frameLength(header);
+			if(frameLength <= 0){
+				continue;
+			}
+			// A real frame is followed by another one, unless it is the last
+			int next = at+frameLength;
+			if(next+4 <= end && frameLength(data.getInt(next)) <= 0){
+				continue;
+			}
+			return mp3Length(data, at, end, header);
+		}
+		return UNKNOWN;
+	}
+
+	private static long mp3Length(MappedByteBuffer data, int at, int end, int header){
+		int version = header >>> 19 & 3;
+		int layer = header >>> 17 & 3;
+		boolean mono = (header >>> 6 & 3) == 3;
+		int rate = sampleRate(header);
+		int samples = samplesPerFrame(version, layer);
+
+		// Xing (VBR) or Info (CBR) header, right after the side information
+		int side = version == 3 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+		int xing = at+4+side;
+		if(xing+12 <= end && (is(data, xing, "Xing") || is(data, xing, "Info"))){
+			int flags = data.getInt(xing+4);
+			if((flags & 1) != 0){
+				long frames = data.getInt(xing+8) & 0xffffffffL;
+				return frames*samples*1000/rate;
+			}
+		}
+
+		// VBRI header, always 32 bytes after the frame header
+		int vbri = at+4+32;
+		if(vbri+18 <= end && is(data, vbri, "VBRI")){
+			long frames = data.getInt(vbri+14) & 0xffffffffL;
+			return frames*samples*1000/rate;
+		}
+
+		// Constant bit rate
+		long bitrate = bitrate(header)*1000L;
+		return (end-at)*8L*1000/bitrate;
+	}
+
+	/**
+	 * Length in bytes of the frame {@code header} starts, or 0 if it is not
+	 * a valid MPEG audio frame header.
+	 */
+	private static int frameLength(int header){
+		if((header & 0xffe00000) != 0xffe00000){
+			return 0;
+		}
+		int version = header >>> 19 & 3;
+		int layer = header >>> 17 & 3;
+		int bitrateIndex = header >>> 12 & 15;
+		int rateIndex = header >>> 10 & 3;
+		if(version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3){
+			return 0;
+		}
+		int bitrate = bitrate(header)*1000;
+		int rate = sampleRate(header);
+		int padding = header >>> 9 & 1;
+		if(layer == 3){
+			// Layer I slots are four bytes
+			return (12*bitrate/rate+padding)*4;
+		}
+		return samplesPerFrame(version, layer)/8*bitrate/rate+padding;
+	}
+
+	private static int bitrate(int header){
+		int version = header >>> 19 & 3;
+		int layer = header >>> 17 & 3;
+		int row = version == 3 ? 3-layer : (layer == 3 ? 3 : 4);
+		return BITRATES[row][header >>> 12 & 15];
+	}
+
+	private static int sampleRate(int header){
+		int version = header >>> 19 & 3;
+		int rate = SAMPLE_RATES[header >>> 10 & 3];
+		return version == 3 ? rate : version == 2 ? rate/2 : rate/4;
+	}
+
+	private static int samplesPerFrame(int version, int layer){
+		if(layer == 3){
+			return 384;
+		}
+		return layer == 1 && version != 3 ? 576 : 1152;
+	}
+
+	// WAV
+
+	private static long wav(MappedByteBuffer data){
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		int limit = data.limit();
+		long byteRate = 0;
+		long dataSize = -1;
+		long position = 12;
+		while(position+8 <= limit && (byteRate == 0 || dataSize < 0)){
+			int at = (int) position;
+			long size = data.getInt(at+4) & 0xffffffffL;
+			if(is(data, at, "fmt ") && at+20 <= limit){
+				byteRate = data.getInt(at+16) & 0xffffffffL;
+			}
+			else if(is(data, at, "data")){
+				// Streams written without knowing their size leave it at 0 or -1
+				long left = limit-(at+8L);
+				dataSize = size == 0 || size == 0xffffffffL || size > left ? left : size;
+			}
+			position += 8+size+(size & 1);
+		}
+		if(byteRate == 0 || dataSize < 0){
+			return UNKNOWN;
+		}
+		return dataSize*1000/byteRate;
+	}
+
+	// AIFF
+
+	private static long aiff(MappedByteBuffer data){
+		int limit = data.limit();
+		long position = 12;
+		while(position+8 <= limit){
+			int at = (int) position;
+			long size = data.getInt(at+4) & 0xffffffffL;
+			if(is(data, at, "COMM") && at+8+18 <= limit){
+				long frames = data.getInt(at+10) & 0xffffffffL;
+				double rate = extended(data, at+16);
+				if(rate <= 0){
+					return UNKNOWN;
+				}
+				return (long) (frames*1000/rate);
+			}
+			position += 8+size+(size & 1);
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * The 80-bit IEEE extended float AIFF stores the sample rate as.
+	 */
+	private static double extended(MappedByteBuffer data, int at){
+		int exponent = (data.getShort(at) & 0x7fff)-16383;
+		long mantissa = data.getLong(at+2);
+		return (mantissa >>> 32)*Math.pow(2, exponent-31)+(mantissa & 0xffffffffL)*Math.pow(2, exponent-63);
+	}
+
+	// MP4
+
+	/**
+	 * Walks the atoms between {@code from} and {@code to} down to
+	 * moov/mvhd.
+	 */
+	private static long mp4(MappedByteBuffer data, int from, int to){
+		long position = from;
+		while(position+8 <= to){
+			int at = (int) position;
+			long size = data.getInt(at) & 0xffffffffL;
+			int headerSize = 8;
+			if(size == 1 && at+16 <= to){
+				size = data.getLong(at+8);
+				headerSize = 16;
+			}
+			else if(size == 0){
+				size = to-position;
+			}
+			if(size < headerSize || position+size > to){
+				return UNKNOWN;
+			}
+			int body = at+headerSize;
+			if(is(data, at+4, "moov")){
+				return mp4(data, body, (int) (position+size));
+			}
+			if(is(data, at+4, "mvhd") && body+32 <= to){
+				return mvhd(data, body);
+			}
+			position += size;
+		}
+		return UNKNOWN;
+	}
+
+	private static long mvhd(MappedByteBuffer data, int body){
+		// Version and flags, creation and modification times, then the scale
+		long scale;
+		long duration;
+		if(data.get(body) == 1){
+			scale    = data.getInt(body+20) & 0xffffffffL;
+			duration = data.getLong(body+24);
+		}
+		else{
+			scale    = data.getInt(body+12) & 0xffffffffL;
+			duration = data.getInt(body+16) & 0xffffffffL;
+			if(duration == 0xffffffffL){
+				return UNKNOWN;
+			}
+		}
+		if(scale == 0 || duration < 0){
+			return UNKNOWN;
+		}
+		return duration*1000/scale;
+	}
+
+	// Helpers
+
+	private static boolean is(MappedByteBuffer data, int at, String id){
+		if(at < 0 || at+id.length() > data.limit()){
+			return false;
+		}
+		for(int i = 0; i < id.length(); i++){
+			if(data.get(at+i) != id.charAt(i)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int syncsafe(MappedByteBuffer data, int offset){
+		return (data.get(offset) & 0x7f) << 21 | (data.get(offset+1) & 0x7f) << 14
+				| (data.get(offset+2) & 0x7f) << 7 | data.get(offset+3) & 0x7f;
+	}
+
+}
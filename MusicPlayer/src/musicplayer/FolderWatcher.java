@@ -0,0 +1,245 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an eye on imported folders with a {@link WatchService}. Events are
+ * collected until the folders have been quiet for {@link #QUIET_PERIOD}
+ * milliseconds; by then repeated events on the same path have collapsed
+ * into one, and the listener gets a single list of added files and a single
+ * list of removed paths. Writes count as events too, so a track still being
+ * copied in is only reported once it has been left alone, and a track
+ * changed in place is reported as added for the index to look at again.
+ *
+ * A removed path may be a folder, in which case everything under it is gone.
+ *
+ * @author DELL
+ */
+public class FolderWatcher {
+
+	public static final long QUIET_PERIOD = 500;
+
+	public interface Listener {
+
+		void changed(List<File> added, List<File> removed);
+
+		/** Events were lost; the folder has to be scanned again. */
+		void overflow(File root);
+	}
+
+	private final Listener listener;
+	private final WatchService service;
+	private final Map<WatchKey, Path> keys = new ConcurrentHashMap<WatchKey, Path>();
+	private final Map<WatchKey, File> rootOf = new ConcurrentHashMap<WatchKey, File>();
+
+	// Last event seen per path; a created path stays created when written to
+	private final Map<Path, WatchEvent.Kind<?>> pending = new LinkedHashMap<Path, WatchEvent.Kind<?>>();
+
+	private final Thread thread;
+
+	public FolderWatcher(Listener listener) throws IOException {
+		this.listener = listener;
+		this.service  = FileSystems.getDefault().newWatchService();
+		this.thread   = new Thread(new Runnable(){
+
+			public void run() {
+				processEvents();
+			}
+
+		}, "folder-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts watching a folder and all of its subfolders. Registering a big
+	 * tree walks it, so this is best called off the FX thread.
+	 */
+	public void watch(File root){
+		try{
+			register(root.getAbsoluteFile().toPath(), root.getAbsoluteFile());
+		}
+		catch(IOException e){
+			System.out.println("Cannot watch folder: "+root+" ("+e.getMessage()+")");
+		}
+	}
+
+	public void close(){
+		try{
+			service.close();
+		}
+		catch(IOException e){
+			System.out.println("Cannot close folder watcher: "+e.getMessage());
+		}
+	}
+
+	private void register(Path start, final File root) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>(){
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(service,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				keys.put(key, dir);
+				rootOf.put(key, root);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+	}
+
+	private void processEvents(){
+		long deadline = 0;
+		try{
+			while(true){
+				WatchKey key;
+				if(pending.isEmpty()){
+					key = service.take();
+				}
+				else{
+					long wait = deadline - System.currentTimeMillis();
+					key = wait > 0 ? service.poll(wait, TimeUnit.MILLISECONDS) : null;
+				}
+
+				if(key == null){
+					deliver();
+					continue;
+				}
+
+				Path dir = keys.get(key);
+				for(WatchEvent<?> event : key.pollEvents()){
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+						File root = rootOf.get(key);
+						if(root != null){
+							listener.overflow(root);
+						}
+						continue;
+					}
+					if(dir == null){
+						continue;
+					}
+					Path path = dir.resolve((Path) event.context());
+					WatchEvent.Kind<?> kind = event.kind();
+					WatchEvent.Kind<?> before = pending.remove(path);
+					if(kind == StandardWatchEventKinds.ENTRY_MODIFY && before == StandardWatchEventKinds.ENTRY_CREATE){
+						kind = before;
+					}
+					pending.put(path, kind);
+				}
+				deadline = System.currentTimeMillis()+QUIET_PERIOD;
+
+				if(!key.reset()){
+					keys.remove(key);
+					rootOf.remove(key);
+				}
+			}
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		catch(ClosedWatchServiceException e){
+			// Closed on shutdown
+		}
+	}
+
+	private void deliver(){
+		List<File> added   = new ArrayList<File>();
+		List<File> removed = new ArrayList<File>();
+		for(Map.Entry<Path, WatchEvent.Kind<?>> change : pending.entrySet()){
+			Path path = change.getKey();
+			WatchEvent.Kind<?> kind = change.getValue();
+			if(kind == StandardWatchEventKinds.ENTRY_DELETE || !Files.exists(path)){
+				removed.add(path.toFile());
+			}
+			else if(Files.isDirectory(path)){
+				// A folder is written to whenever its entries change; those come on their own
+				if(kind == StandardWatchEventKinds.ENTRY_CREATE){
+					collectNewFolder(path, added);
+				}
+			}
+			else if(AudioFiles.isAudio(path.getFileName().toString()) && !isHidden(path)){
+				added.add(path.toFile());
+			}
+		}
+		pending.clear();
+		if(!added.isEmpty() || !removed.isEmpty()){
+			listener.changed(added, removed);
+		}
+	}
+
+	/**
+	 * A folder that was created or moved in: watch it too and report the
+	 * audio files it already holds.
+	 */
+	private void collectNewFolder(Path folder, final List<File> added){
+		File root = null;
+		for(Map.Entry<WatchKey, Path> key : keys.entrySet()){
+			if(folder.startsWith(key.getValue())){
+				root = rootOf.get(key.getKey());
+				break;
+			}
+		}
+		try{
+			register(folder, root != null ? root : folder.toFile());
+			Files.walkFileTree(folder, new SimpleFileVisitor<Path>(){
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if(attrs.isRegularFile() && AudioFiles.isAudio(file.getFileName().toString()) && !isHidden(file)){
+						added.add(file.toFile());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+
+			});
+		}
+		catch(IOException e){
+			System.out.println("Cannot watch folder: "+folder+" ("+e.getMessage()+")");
+		}
+	}
+
+	private static boolean isHidden(Path path){
+		try{
+			return Files.isHidden(path);
+		}
+		catch(IOException e){
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.application.Platform;
+
+/**
+ * {@code Platform.runLater} with a count of the tasks waiting for the FX
+ * thread and of how long they waited, when the {@link Metrics} are on. The
+ * player's own code posts to the FX thread through it.
+ *
+ * @author DELL
+ */
+public final class FxQueue {
+
+	private static final AtomicLong DEPTH = new AtomicLong();
+	private static final AtomicLong DEEPEST = new AtomicLong();
+	private static final Histogram WAIT = Metrics.histogram("fx_runlater_wait_seconds");
+
+	static{
+		Metrics.gauge("fx_runlater_queue_depth", new Metrics.Gauge(){
+
+			public long value() {
+				return DEPTH.get();
+			}
+
+		});
+		Metrics.gauge("fx_runlater_queue_depth_max", new Metrics.Gauge(){
+
+			public long value() {
+				return DEEPEST.get();
+			}
+
+		});
+	}
+
+	private FxQueue(){
+	}
+
+	public static void runLater(final Runnable task){
+		if(!Metrics.ENABLED){
+			Platform.runLater(task);
+			return;
+		}
+		final long posted = System.nanoTime();
+		long depth = DEPTH.incrementAndGet();
+		long deepest;
+		while(depth > (deepest = DEEPEST.get()) && !DEEPEST.compareAndSet(deepest, depth)){
+			// Lost to another thread; look again
+		}
+		Platform.runLater(new Runnable(){
+
+			public void run() {
+				DEPTH.decrementAndGet();
+				WAIT.since(posted);
+				task.run();
+			}
+
+		});
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.application.Platform;
+
+/**
+ * Notices when the FX thread stops answering. Every {@link #PERIOD} ms a
+ * probe is posted to it and the time it takes to run is recorded; when a
+ * probe has waited longer than {@code musicplayer.stallMillis}, 250 ms by
+ * default, the stall is counted and what the FX thread is doing is printed,
+ * once per stall.
+ *
+ * Started by {@link Metrics#start()}.
+ *
+ * @author DELL
+ */
+final class FxWatchdog implements Runnable {
+
+	private static final long PERIOD = 100;
+
+	private static final Histogram DELAY = Metrics.histogram("fx_probe_delay_seconds");
+	private static final AtomicLong STALLS = Metrics.counter("fx_stalls_total");
+
+	private final long stallNanos = Long.getLong("musicplayer.stallMillis", 250)*1000000;
+
+	// When the probe on its way was posted, or 0 once it ran
+	private final AtomicLong posted = new AtomicLong();
+
+	private Thread fxThread;
+
+	private FxWatchdog(){
+	}
+
+	static void start(){
+		final FxWatchdog watchdog = new FxWatchdog();
+		Platform.runLater(new Runnable(){
+
+			public void run() {
+				watchdog.fxThread = Thread.currentThread();
+				Thread thread = new Thread(watchdog, "fx-watchdog");
+				thread.setDaemon(true);
+				thread.start();
+			}
+
+		});
+	}
+
+	public void run() {
+		boolean reported = false;
+		while(true){
+			try{
+				Thread.sleep(PERIOD);
+			}
+			catch(InterruptedException e){
+				return;
+			}
+			long since = posted.get();
+			if(since != 0){
+				// Still waiting for the last probe
+				long waited = System.nanoTime()-since;
+				if(waited > stallNanos && !reported){
+					reported = true;
+					STALLS.incrementAndGet();
+					report(waited);
+				}
+				continue;
+			}
+			reported = false;
+			final long now = System.nanoTime();
+			posted.set(now);
+			Platform.runLater(new Runnable(){
+
+				public void run() {
+					posted.set(0);
+					DELAY.since(now);
+				}
+
+			});
+		}
+	}
+
+	private void report(long waited){
+		StringBuilder text = new StringBuilder("FX thread stalled for "+waited/1000000+" ms, at:");
+		for(StackTraceElement frame : fxThread.getStackTrace()){
+			text.append("\n\tat ").append(frame);
+		}
+		System.out.println(text);
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+/**
+ * Plays tracks with no window, for kiosks and for measuring playback on its
+ * own. Takes audio files, folders, which are searched like the player's,
+ * and M3U playlists, and plays them in order:
+ *
+ * <pre>java musicplayer.HeadlessPlayer [--shuffle] [--loop] [--volume=0.8] file|folder|list...</pre>
+ *
+ * Exits when the queue has played, unless {@code --loop} is given.
+ *
+ * @author DELL
+ */
+public class HeadlessPlayer extends Application {
+
+	private PlaybackSession session;
+	private boolean loop;
+	private final AtomicInteger searching = new AtomicInteger();
+
+	public static void main(String[] args) {
+		launch(args);
+	}
+
+	@Override
+	public void start(Stage stage) throws Exception {
+		// The stage is never shown; the toolkit stays up until exit
+		Platform.setImplicitExit(false);
+		Metrics.start();
+
+		session = new PlaybackSession(new TrackList(new TrackTable()));
+		session.addListener(new PlaybackSession.Listener(){
+
+			public void trackLoaded(int index, File file) {
+				System.out.println("Track "+(index+1)+"/"+session.getQueue().size()+": "+file);
+			}
+
+			public void ready(int index, Duration length) {
+				System.out.println("Length: "+TimeFormat.hms(length.toSeconds()));
+			}
+
+			public void stateChanged(PlaybackSession.State state) {
+				System.out.println("State: "+state);
+			}
+
+			public void volumeChanged(double volume, boolean muted) {
+				System.out.println("Volume: "+(int) Math.round(volume*100)+"%"+(muted ? " (mute)" : ""));
+			}
+
+			public void queueFinished() {
+				if(loop){
+					session.play();
+				}
+				else{
+					Platform.exit();
+				}
+			}
+
+		});
+
+		for(String option : getParameters().getNamed().keySet()){
+			if(!option.equals("volume")){
+				System.out.println("Unknown option: --"+option);
+			}
+		}
+		String volume = getParameters().getNamed().get("volume");
+		if(volume != null){
+			try{
+				session.setVolume(Double.parseDouble(volume));
+			}
+			catch(NumberFormatException e){
+				System.out.println("Bad volume: "+volume);
+			}
+		}
+		for(String arg : getParameters().getUnnamed()){
+			if(arg.equals("--shuffle")){
+				session.setShuffled(true);
+			}
+			else if(arg.equals("--loop")){
+				loop = true;
+			}
+			else if(arg.startsWith("--")){
+				System.out.println("Unknown option: "+arg);
+			}
+			else{
+				add(new File(arg));
+			}
+		}
+		startIfIdle();
+	}
+
+	@Override
+	public void stop() throws Exception {
+		session.close();
+	}
+
+	private void add(File file){
+		if(file.isDirectory()){
+			search(file);
+		}
+		else if(M3uPlaylist.isPlaylist(file)){
+			try{
+				session.getQueue().addAll(M3uPlaylist.read(file));
+			}
+			catch(IOException e){
+				System.out.println("Cannot read playlist "+file+": "+e.getMessage());
+			}
+		}
+		else if(file.isFile()){
+			session.getQueue().add(file);
+		}
+		else{
+			System.out.println("Not found: "+file);
+		}
+	}
+
+	private void search(final File folder){
+		searching.incrementAndGet();
+		new LibraryScanner(folder, new LibraryScanner.Listener(){
+
+			public void filesFound(final List<File> batch) {
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						session.getQueue().addAll(batch);
+						startIfIdle();
+					}
+
+				});
+			}
+
+			public void filesRemoved(List<File> removed) {
+			}
+
+			public void progress(int directories, int scanned, int matched) {
+			}
+
+			public void finished(boolean cancelled) {
+				searching.decrementAndGet();
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						startIfIdle();
+					}
+
+				});
+			}
+
+		}).start();
+	}
+
+	/**
+	 * Starts the first track once there is one, and gives up when there is
+	 * none and nothing is still being searched.
+	 */
+	private void startIfIdle(){
+		if(session.getPlayer() != null){
+			return;
+		}
+		TrackList queue = session.getQueue();
+		for(int i = 0; i < queue.size(); i++){
+			if(session.playAt(i)){
+				return;
+			}
+		}
+		if(searching.get() == 0){
+			System.out.println("Nothing to play");
+			Platform.exit();
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in buckets that double in width, from under a
+ * microsecond to half a minute and more. Recording is a few atomic adds and
+ * takes no lock, so it can be done from any thread, the FX thread included;
+ * percentiles are read back to within a factor of two.
+ *
+ * @author DELL
+ */
+public final class Histogram {
+
+	/** Bucket {@code i} holds durations under 2^i microseconds; the last one everything above. */
+	public static final int BUCKETS = 26;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos){
+		if(nanos < 0){
+			return;
+		}
+		long micros = nanos/1000;
+		int bucket = micros == 0 ? 0 : Math.min(64-Long.numberOfLeadingZeros(micros), BUCKETS-1);
+		counts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		long seen;
+		while(nanos > (seen = max.get()) && !max.compareAndSet(seen, nanos)){
+			// Lost to another thread; look again
+		}
+	}
+
+	/**
+	 * Records the time since {@code start}, a {@code System.nanoTime()}.
+	 */
+	public void since(long start){
+		record(System.nanoTime()-start);
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	/** Sum of everything recorded, in nanoseconds. */
+	public long getSum(){
+		return sum.get();
+	}
+
+	/** Longest duration recorded, in nanoseconds. */
+	public long getMax(){
+		return max.get();
+	}
+
+	/**
+	 * Recordings in bucket {@code i}, whose durations are under
+	 * {@link #upperBound(int)}.
+	 */
+	public long getBucket(int i){
+		return counts.get(i);
+	}
+
+	/**
+	 * The duration, in nanoseconds, that a fraction {@code p} of the
+	 * recordings did not exceed, rounded up to a bucket bound.
+	 */
+	public long percentile(double p){
+		long total = count.get();
+		if(total == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(p*total);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += counts.get(i);
+			if(seen >= rank){
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * The bound, in nanoseconds, under which the durations of bucket
+	 * {@code i} are; unbounded for the last one.
+	 */
+	public static long upperBound(int i){
+		return i < BUCKETS-1 ? (1L << i)*1000 : Long.MAX_VALUE;
+	}
+
+}
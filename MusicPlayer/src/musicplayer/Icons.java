@@ -0,0 +1,40 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javafx.scene.image.Image;
+
+/**
+ * The icons bundled next to this class, decoded once per size they are drawn
+ * at and shared by every button that shows them.
+ *
+ * @author DELL
+ */
+public final class Icons {
+
+	private static final Map<String, Image> CACHE = new ConcurrentHashMap<String, Image>();
+
+	private Icons(){
+	}
+
+	public static Image get(String name, double size){
+		String key = name+"@"+size;
+		Image image = CACHE.get(key);
+		if(image == null){
+			URL url = Icons.class.getResource(name);
+			if(url == null){
+				throw new IllegalArgumentException("Missing icon: "+name);
+			}
+			image = new Image(url.toExternalForm(), size, size, true, true, true);
+			CACHE.put(key, image);
+		}
+		return image;
+	}
+
+}
@@ -0,0 +1,462 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk index of every track found in the imported folders, keyed by
+ * absolute path. For each track it keeps the size, the modification time and
+ * any attribute probed from the file, so a new scan of a known folder only
+ * has to deal with the tracks that changed.
+ *
+ * The file is an append-only log of records. Loading replays the log into
+ * memory; it is rewritten without the dead records once they outnumber the
+ * live ones.
+ *
+ * @author DELL
+ */
+public class LibraryIndex {
+
+	/** Value returned for attributes that were never probed. */
+	public static final long UNKNOWN = Long.MIN_VALUE;
+
+	/** Length of the track in milliseconds, from {@link DurationProber}. */
+	public static final int ATTR_DURATION = 0;
+
+	/**
+	 * Integrated loudness in hundredths of LUFS, from {@link LoudnessMeter},
+	 * or {@code Integer.MIN_VALUE+1} for a track it could not measure.
+	 */
+	public static final int ATTR_LOUDNESS = 1;
+
+	public enum Change { NEW, CHANGED, UNCHANGED }
+
+	private static final int MAGIC   = 0x4d504958;
+	private static final int VERSION = 1;
+
+	private static final byte PUT         = 1;
+	private static final byte REMOVE      = 2;
+	private static final byte ROOT        = 3;
+	private static final byte REMOVE_ROOT = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final class Entry {
+
+		private final String path;
+		private long size;
+		private long modified;
+		private long[] attributes;
+
+		private Entry(String path, long size, long modified){
+			this.path     = path;
+			this.size     = size;
+			this.modified = modified;
+		}
+
+		public String getPath(){
+			return path;
+		}
+
+		public long getSize(){
+			return size;
+		}
+
+		public long getModified(){
+			return modified;
+		}
+
+		public long getAttribute(int key){
+			if(attributes == null || key >= attributes.length){
+				return UNKNOWN;
+			}
+			return attributes[key];
+		}
+
+		private void setAttribute(int key, long value){
+			if(attributes == null){
+				attributes = new long[key+1];
+				Arrays.fill(attributes, UNKNOWN);
+			}
+			else if(key >= attributes.length){
+				int length = attributes.length;
+				attributes = Arrays.copyOf(attributes, key+1);
+				Arrays.fill(attributes, length, key+1, UNKNOWN);
+			}
+			attributes[key] = value;
+		}
+	}
+
+	private final File file;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Set<String> roots = new LinkedHashSet<String>();
+
+	private int records;
+	private DataOutputStream out;
+
+	public LibraryIndex(File file){
+		this.file = file;
+	}
+
+	/**
+	 * Replays the log into memory. A record cut short by a crash, or one
+	 * with a length that cannot be right, is dropped together with
+	 * everything after it.
+	 */
+	public synchronized void load() throws IOException {
+		entries.clear();
+		roots.clear();
+		records = 0;
+		if(!file.isFile()){
+			return;
+		}
+
+		ByteBuffer buffer;
+		FileInputStream in = new FileInputStream(file);
+		try{
+			FileChannel channel = in.getChannel();
+			buffer = ByteBuffer.allocate((int) channel.size());
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0){
+			}
+			buffer.flip();
+		}
+		finally{
+			in.close();
+		}
+
+		if(buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION){
+			System.out.println("Ignoring unreadable library index: "+file);
+			rewrite();
+			return;
+		}
+
+		byte[] name = new byte[256];
+		int good = buffer.position();
+		try{
+			while(buffer.hasRemaining()){
+				byte type = buffer.get();
+				int length = buffer.getInt();
+				if(length < 0 || length > buffer.remaining()){
+					// Checked before allocating, a bad length could ask for gigabytes
+					throw new IndexOutOfBoundsException("Record length "+length);
+				}
+				if(length > name.length){
+					name = new byte[Math.max(length, name.length*2)];
+				}
+				buffer.get(name, 0, length);
+				String path = new String(name, 0, length, UTF8);
+				switch(type){
+				case PUT:
+					Entry entry = new Entry(path, buffer.getLong(), buffer.getLong());
+					int count = buffer.get();
+					for(int i = 0; i < count; i++){
+						entry.setAttribute(buffer.get(), buffer.getLong());
+					}
+					entries.put(path, entry);
+					break;
+				case REMOVE:
+					entries.remove(path);
+					break;
+				case ROOT:
+					roots.add(path);
+					break;
+				case REMOVE_ROOT:
+					roots.remove(path);
+					break;
+				default:
+					throw new IndexOutOfBoundsException("Unknown record type "+type);
+				}
+				records++;
+				good = buffer.position();
+			}
+		}
+		catch(BufferUnderflowException e){
+			System.out.println("Library index truncated at byte "+good);
+			truncate(good);
+		}
+		catch(IndexOutOfBoundsException | NegativeArraySizeException e){
+			System.out.println("Library index corrupt at byte "+good+", dropping the rest");
+			truncate(good);
+		}
+
+		if(records > 1024 && records > 2*(entries.size()+roots.size())){
+			rewrite();
+		}
+	}
+
+	public synchronized int size(){
+		return entries.size();
+	}
+
+	public synchronized Entry get(File track){
+		return entries.get(track.getAbsolutePath());
+	}
+
+	/**
+	 * Records the current size and modification time of a track. Nothing is
+	 * written when both are unchanged.
+	 */
+	public synchronized Change refresh(File track, long size, long modified){
+		String path = track.getAbsolutePath();
+		Entry entry = entries.get(path);
+		if(entry != null && entry.size == size && entry.modified == modified){
+			return Change.UNCHANGED;
+		}
+		Change change = entry == null ? Change.NEW : Change.CHANGED;
+		entry = new Entry(path, size, modified);
+		entries.put(path, entry);
+		append(PUT, entry);
+		return change;
+	}
+
+	public synchronized long getAttribute(File track, int key){
+		Entry entry = entries.get(track.getAbsolutePath());
+		return entry == null ? UNKNOWN : entry.getAttribute(key);
+	}
+
+	/**
+	 * Stores a probed value for a track that is already in the index.
+	 */
+	public synchronized void setAttribute(File track, int key, long value){
+		Entry entry = entries.get(track.getAbsolutePath());
+		if(entry == null || entry.getAttribute(key) == value){
+			return;
+		}
+		entry.setAttribute(key, value);
+		append(PUT, entry);
+	}
+
+	public synchronized void remove(File track){
+		String path = track.getAbsolutePath();
+		if(entries.remove(path) != null){
+			append(REMOVE, path);
+		}
+	}
+
+	public synchronized boolean hasRoot(File root){
+		return roots.contains(root.getAbsolutePath());
+	}
+
+	public synchronized void addRoot(File root){
+		if(roots.add(root.getAbsolutePath())){
+			append(ROOT, root.getAbsolutePath());
+		}
+	}
+
+	public synchronized void removeRoot(File root){
+		if(roots.remove(root.getAbsolutePath())){
+			append(REMOVE_ROOT, root.getAbsolutePath());
+		}
+	}
+
+	public synchronized List<File> getRoots(){
+		List<File> result = new ArrayList<File>(roots.size());
+		for(String root : roots){
+			result.add(new File(root));
+		}
+		return result;
+	}
+
+	/**
+	 * Every indexed track inside the given folder, sorted by path.
+	 */
+	public synchronized List<File> filesUnder(File root){
+		String prefix = prefixOf(root);
+		List<String> paths = new ArrayList<String>();
+		for(String path : entries.keySet()){
+			if(path.startsWith(prefix)){
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);
+		List<File> result = new ArrayList<File>(paths.size());
+		for(String path : paths){
+			result.add(new File(path));
+		}
+		return result;
+	}
+
+	/**
+	 * Drops the tracks inside {@code root} that a scan did not see and
+	 * returns them. Tracks inside the {@code unread} folders, which the scan
+	 * could not list, are kept.
+	 */
+	public synchronized List<File> removeMissing(File root, Set<String> seen, Collection<File> unread){
+		String prefix = prefixOf(root);
+		List<String> skipped = new ArrayList<String>(unread.size());
+		for(File folder : unread){
+			skipped.add(prefixOf(folder));
+		}
+		List<File> removed = new ArrayList<File>();
+		Iterator<String> it = entries.keySet().iterator();
+		while(it.hasNext()){
+			String path = it.next();
+			if(path.startsWith(prefix) && !seen.contains(path) && !startsWithAny(path, skipped)){
+				it.remove();
+				append(REMOVE, path);
+				removed.add(new File(path));
+			}
+		}
+		return removed;
+	}
+
+	public synchronized void flush(){
+		if(out != null){
+			try{
+				out.flush();
+			}
+			catch(IOException e){
+				System.out.println("Cannot write library index: "+e.getMessage());
+			}
+		}
+	}
+
+	public synchronized void close(){
+		if(out != null){
+			try{
+				out.close();
+			}
+			catch(IOException e){
+				System.out.println("Cannot write library index: "+e.getMessage());
+			}
+			out = null;
+		}
+	}
+
+	private static boolean startsWithAny(String path, List<String> prefixes){
+		for(String prefix : prefixes){
+			if(path.startsWith(prefix)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String prefixOf(File root){
+		String prefix = root.getAbsolutePath();
+		return prefix.endsWith(File.separator) ? prefix : prefix+File.separator;
+	}
+
+	private void append(byte type, String path){
+		try{
+			writeRecord(output(), type, path);
+			records++;
+		}
+		catch(IOException e){
+			System.out.println("Cannot write library index: "+e.getMessage());
+		}
+	}
+
+	private void append(byte type, Entry entry){
+		try{
+			writeRecord(output(), type, entry);
+			records++;
+		}
+		catch(IOException e){
+			System.out.println("Cannot write library index: "+e.getMessage());
+		}
+	}
+
+	private DataOutputStream output() throws IOException {
+		if(out == null){
+			boolean fresh = !file.isFile() || file.length() == 0;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+			if(fresh){
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+			}
+		}
+		return out;
+	}
+
+	private static void writeRecord(DataOutputStream out, byte type, String path) throws IOException {
+		byte[] name = path.getBytes(UTF8);
+		out.writeByte(type);
+		out.writeInt(name.length);
+		out.write(name);
+	}
+
+	private static void writeRecord(DataOutputStream out, byte type, Entry entry) throws IOException {
+		writeRecord(out, type, entry.path);
+		out.writeLong(entry.size);
+		out.writeLong(entry.modified);
+		int count = 0;
+		if(entry.attributes != null){
+			for(long value : entry.attributes){
+				if(value != UNKNOWN){
+					count++;
+				}
+			}
+		}
+		out.writeByte(count);
+		for(int key = 0; count > 0 && key < entry.attributes.length; key++){
+			if(entry.attributes[key] != UNKNOWN){
+				out.writeByte(key);
+				out.writeLong(entry.attributes[key]);
+			}
+		}
+	}
+
+	/**
+	 * Drops everything from byte {@code length} on.
+	 */
+	private void truncate(int length) throws IOException {
+		FileOutputStream truncate = new FileOutputStream(file, true);
+		try{
+			truncate.getChannel().truncate(length);
+		}
+		finally{
+			truncate.close();
+		}
+	}
+
+	/**
+	 * Writes the live entries to a new file and swaps it in.
+	 */
+	private void rewrite() throws IOException {
+		close();
+		File temp = new File(file.getPath()+".tmp");
+		DataOutputStream compact = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try{
+			compact.writeInt(MAGIC);
+			compact.writeInt(VERSION);
+			for(String root : roots){
+				writeRecord(compact, ROOT, root);
+			}
+			for(Entry entry : entries.values()){
+				writeRecord(compact, PUT, entry);
+			}
+		}
+		finally{
+			compact.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		records = roots.size()+entries.size();
+	}
+
+}
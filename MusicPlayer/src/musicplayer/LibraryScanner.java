@@ -0,0 +1,267 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a folder tree looking for audio files on a fork-join pool, away from
+ * the FX thread. Every directory is its own task, so big trees are listed by
+ * all cores at once. Directories are identified by their file key, which
+ * keeps symbolic link loops from being walked twice.
+ *
+ * Results are handed to the {@link Listener} in batches of
+ * {@link #BATCH_SIZE} files. Callbacks run on the scanner threads.
+ *
+ * With a {@link LibraryIndex} the scan is incremental: every track is
+ * recorded in the index, and when the folder was already imported only the
+ * new tracks are reported, followed by the ones that disappeared from disk.
+ * Tracks under a folder that could not be read are kept, since the scan
+ * cannot tell whether they are gone.
+ *
+ * @author DELL
+ */
+public class LibraryScanner {
+
+	public static final int BATCH_SIZE = 512;
+
+	private static final long PROGRESS_INTERVAL = 250000000L;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	public interface Listener {
+
+		void filesFound(List<File> batch);
+
+		void filesRemoved(List<File> removed);
+
+		void progress(int directories, int files, int matched);
+
+		void finished(boolean cancelled);
+	}
+
+	private final File root;
+	private final Listener listener;
+
+	private LibraryIndex index;
+	private boolean known;
+	private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final List<File> unread = Collections.synchronizedList(new ArrayList<File>());
+
+	private final Set<Object> visited = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+	private final AtomicInteger directories = new AtomicInteger();
+	private final AtomicInteger scanned = new AtomicInteger();
+	private final AtomicInteger matched = new AtomicInteger();
+
+	private final Object lock = new Object();
+	private List<File> pending = new ArrayList<File>(BATCH_SIZE);
+	private long lastProgress;
+
+	private volatile boolean cancelled;
+	private volatile boolean finished;
+
+	public LibraryScanner(File root, Listener listener){
+		this.root     = root.getAbsoluteFile();
+		this.listener = listener;
+	}
+
+	/**
+	 * Keeps the given index up to date while scanning. Must be called
+	 * before {@link #start()}.
+	 */
+	public void setIndex(LibraryIndex index){
+		this.index = index;
+	}
+
+	public void start(){
+		known = index != null && index.hasRoot(root);
+		POOL.execute(new RecursiveAction(){
+
+			@Override
+			protected void compute() {
+				try{
+					new DirectoryTask(root.toPath()).invoke();
+				}
+				finally{
+					flush();
+					if(index != null && !cancelled){
+						List<File> removed = index.removeMissing(root, seen, unread);
+						index.addRoot(root);
+						index.flush();
+						if(!removed.isEmpty()){
+							listener.filesRemoved(removed);
+						}
+					}
+					finished = true;
+					listener.progress(directories.get(), scanned.get(), matched.get());
+					listener.finished(cancelled);
+				}
+			}
+
+		});
+	}
+
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public boolean isFinished(){
+		return finished;
+	}
+
+	public File getRoot(){
+		return root;
+	}
+
+	private void publish(List<File> found){
+		List<File> batch = null;
+		synchronized(lock){
+			pending.addAll(found);
+			if(pending.size() >= BATCH_SIZE){
+				batch   = pending;
+				pending = new ArrayList<File>(BATCH_SIZE);
+			}
+		}
+		if(batch != null && !cancelled){
+			listener.filesFound(batch);
+		}
+	}
+
+	private void flush(){
+		List<File> batch;
+		synchronized(lock){
+			batch   = pending;
+			pending = new ArrayList<File>(BATCH_SIZE);
+		}
+		if(!batch.isEmpty() && !cancelled){
+			listener.filesFound(batch);
+		}
+	}
+
+	private void reportProgress(){
+		long now = System.nanoTime();
+		synchronized(lock){
+			if(now - lastProgress < PROGRESS_INTERVAL){
+				return;
+			}
+			lastProgress = now;
+		}
+		listener.progress(directories.get(), scanned.get(), matched.get());
+	}
+
+	/**
+	 * Returns something that identifies the directory on disk no matter
+	 * which link it was reached through.
+	 */
+	private static Object directoryKey(Path dir, BasicFileAttributes attrs) throws IOException{
+		Object key = attrs.fileKey();
+		return key != null ? key : dir.toRealPath();
+	}
+
+	private static boolean isHidden(Path path, BasicFileAttributes attrs){
+		if(path.getFileName().toString().startsWith(".")){
+			return true;
+		}
+		return attrs instanceof DosFileAttributes && ((DosFileAttributes) attrs).isHidden();
+	}
+
+	private class DirectoryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+
+		DirectoryTask(Path dir){
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			if(cancelled){
+				return;
+			}
+			List<File> found = new ArrayList<File>();
+			List<DirectoryTask> children = new ArrayList<DirectoryTask>();
+			try{
+				BasicFileAttributes dirAttrs = Files.readAttributes(dir, BasicFileAttributes.class);
+				if(!visited.add(directoryKey(dir, dirAttrs))){
+					return;
+				}
+				directories.incrementAndGet();
+				DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+				try{
+					for(Path entry : stream){
+						if(cancelled){
+							return;
+						}
+						scanned.incrementAndGet();
+						BasicFileAttributes attrs;
+						try{
+							attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+						}
+						catch(IOException e){
+							// Broken link or entry removed while listing
+							continue;
+						}
+						if(isHidden(entry, attrs)){
+							continue;
+						}
+						if(attrs.isDirectory()){
+							children.add(new DirectoryTask(entry));
+						}
+						else if(attrs.isRegularFile() && AudioFiles.isAudio(entry.getFileName().toString())){
+							File track = entry.toFile();
+							if(index != null){
+								seen.add(track.getPath());
+								LibraryIndex.Change change = index.refresh(track, attrs.size(), attrs.lastModifiedTime().toMillis());
+								if(known && change != LibraryIndex.Change.NEW){
+									continue;
+								}
+							}
+							found.add(track);
+						}
+					}
+				}
+				finally{
+					stream.close();
+				}
+			}
+			catch(IOException | DirectoryIteratorException e){
+				System.out.println("Cannot read folder: "+dir+" ("+e.getMessage()+")");
+				unread.add(dir.toFile());
+				return;
+			}
+
+			if(!found.isEmpty()){
+				Collections.sort(found);
+				matched.addAndGet(found.size());
+				publish(found);
+			}
+			reportProgress();
+			invokeAll(children);
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Integrated loudness of a track as ITU-R BS.1770 defines it, in LUFS: the
+ * samples go through the K-weighting filter, their mean square is taken over
+ * blocks of 400 ms that overlap by 300 ms, and the blocks quieter than
+ * -70 LUFS, then those 10 LU under the mean of the rest, are left out.
+ *
+ * The track is read once, a buffer at a time, keeping only one energy per
+ * 100 ms; an hour of audio takes under 300 KB.
+ *
+ * @author DELL
+ */
+public final class LoudnessMeter {
+
+	private static final double ABSOLUTE_GATE = -70;
+	private static final double RELATIVE_GATE = -10;
+
+	private LoudnessMeter(){
+	}
+
+	/**
+	 * The integrated loudness of {@code file}, or NaN if it cannot be
+	 * decoded or is silent.
+	 */
+	public static double measure(File file) throws IOException {
+		AudioInputStream in = PcmDecoder.open(file);
+		if(in == null){
+			return Double.NaN;
+		}
+		try{
+			return measure(in);
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * The integrated loudness of 16 bit little endian PCM, read to the end.
+	 */
+	static double measure(AudioInputStream in) throws IOException {
+		AudioFormat format = in.getFormat();
+		int channels = format.getChannels();
+		double rate = format.getSampleRate();
+		double[] weights = weights(channels);
+		double[] filter = coefficients(rate);
+		double b0 = filter[0], b1 = filter[1], b2 = filter[2], a1 = filter[3], a2 = filter[4];
+		double c0 = filter[5], c1 = filter[6], c2 = filter[7], d1 = filter[8], d2 = filter[9];
+
+		// Per channel, the two states of each of the two biquads
+		double[] state = new double[channels*4];
+
+		int step = (int) Math.round(rate/10);
+		double[] steps = new double[600];
+		int count = 0;
+		int inStep = 0;
+		double energy = 0;
+
+		int frameSize = channels*2;
+		byte[] buffer = new byte[frameSize*4096];
+		int read;
+		while((read = in.read(buffer, 0, buffer.length)) > 0){
+			for(int i = 0; i+frameSize <= read; i += frameSize){
+				for(int c = 0; c < channels; c++){
+					int at = i+2*c;
+					double x = (short) ((buffer[at] & 0xff) | (buffer[at+1] << 8))/32768.0;
+					// High shelf, then high pass; transposed direct form II
+					int s = 4*c;
+					double y = b0*x+state[s];
+					state[s]   = b1*x-a1*y+state[s+1];
+					state[s+1] = b2*x-a2*y;
+					double z = c0*y+state[s+2];
+					state[s+2] = c1*y-d1*z+state[s+3];
+					state[s+3] = c2*y-d2*z;
+					energy += weights[c]*z*z;
+				}
+				if(++inStep == step){
+					if(count == steps.length){
+						steps = Arrays.copyOf(steps, count*2);
+					}
+					steps[count++] = energy;
+					energy = 0;
+					inStep = 0;
+				}
+			}
+		}
+		return gate(steps, count, step);
+	}
+
+	/**
+	 * Joins the 100 ms energies into 400 ms blocks and gates them.
+	 */
+	private static double gate(double[] steps, int count, int step){
+		int blocks = count-3;
+		if(blocks < 1){
+			return Double.NaN;
+		}
+		double[] power = new double[blocks];
+		double absolute = power(ABSOLUTE_GATE);
+		double sum = 0;
+		int kept = 0;
+		for(int j = 0; j < blocks; j++){
+			power[j] = (steps[j]+steps[j+1]+steps[j+2]+steps[j+3])/(4.0*step);
+			if(power[j] > absolute){
+				sum += power[j];
+				kept++;
+			}
+		}
+		if(kept == 0){
+			return Double.NaN;
+		}
+		double relative = power(loudness(sum/kept)+RELATIVE_GATE);
+		sum  = 0;
+		kept = 0;
+		for(int j = 0; j < blocks; j++){
+			if(power[j] > absolute && power[j] > relative){
+				sum += power[j];
+				kept++;
+			}
+		}
+		return kept > 0 ? loudness(sum/kept) : Double.NaN;
+	}
+
+	private static double loudness(double power){
+		return -0.691+10*Math.log10(power);
+	}
+
+	private static double power(double loudness){
+		return Math.pow(10, (loudness+0.691)/10);
+	}
+
+	/**
+	 * Channel weights: 1.41 for the surrounds and none for the LFE of 5.1,
+	 * in the WAV order, and 1 for every channel of anything else.
+	 */
+	private static double[] weights(int channels){
+		double[] weights = new double[channels];
+		Arrays.fill(weights, 1);
+		if(channels == 6){
+			weights[3] = 0;
+			weights[4] = 1.41;
+			weights[5] = 1.41;
+		}
+		return weights;
+	}
+
+	/**
+	 * The two biquads of the K-weighting filter for {@code rate}, as
+	 * b0, b1, b2, a1, a2 each. BS.1770 lists them for 48 kHz; these are
+	 * derived from the same analog filters, so they match it at 48 kHz and
+	 * hold at other rates.
+	 */
+	private static double[] coefficients(double rate){
+		double f0 = 1681.974450955533;
+		double gain = 3.999843853973347;
+		double q = 0.7071752369554196;
+		double k = Math.tan(Math.PI*f0/rate);
+		double vh = Math.pow(10, gain/20);
+		double vb = Math.pow(vh, 0.4996667741545416);
+		double a0 = 1+k/q+k*k;
+		double[] filter = new double[10];
+		filter[0] = (vh+vb*k/q+k*k)/a0;
+		filter[1] = 2*(k*k-vh)/a0;
+		filter[2] = (vh-vb*k/q+k*k)/a0;
+		filter[3] = 2*(k*k-1)/a0;
+		filter[4] = (1-k/q+k*k)/a0;
+
+		f0 = 38.13547087602444;
+		q = 0.5003270373238773;
+		k = Math.tan(Math.PI*f0/rate);
+		a0 = 1+k/q+k*k;
+		filter[5] = 1;
+		filter[6] = -2;
+		filter[7] = 1;
+		filter[8] = 2*(k*k-1)/a0;
+		filter[9] = (1-k/q+k*k)/a0;
+		return filter;
+	}
+
+}
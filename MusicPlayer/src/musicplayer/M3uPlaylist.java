@@ -0,0 +1,122 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes M3U playlists, one line at a time so that a long one is
+ * never held in memory as text.
+ *
+ * {@code .m3u8} files are UTF-8; plain {@code .m3u} files use the system
+ * encoding, as the players that write them do. Entries may be absolute
+ * paths, paths relative to the playlist's folder or {@code file:} URLs;
+ * other URLs and files that are not audio are skipped. Playlists are
+ * written with {@code #EXTINF} lines and absolute paths.
+ *
+ * @author DELL
+ */
+public final class M3uPlaylist {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private M3uPlaylist(){
+	}
+
+	public static boolean isPlaylist(File file){
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".m3u") || name.endsWith(".m3u8");
+	}
+
+	/**
+	 * The tracks listed in {@code playlist}, in order.
+	 */
+	public static List<File> read(File playlist) throws IOException {
+		File base = playlist.getAbsoluteFile().getParentFile();
+		List<File> files = new ArrayList<File>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(playlist), charset(playlist)), 1 << 16);
+		try{
+			String line;
+			boolean first = true;
+			while((line = in.readLine()) != null){
+				if(first && line.startsWith("\uFEFF")){
+					line = line.substring(1);
+				}
+				first = false;
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")){
+					continue;
+				}
+				File file = entry(base, line);
+				if(file != null && AudioFiles.isAudio(file.getName())){
+					files.add(file);
+				}
+			}
+		}
+		finally{
+			in.close();
+		}
+		return files;
+	}
+
+	/**
+	 * Writes the tracks {@code ids} of {@code table} to {@code playlist}, with
+	 * their lengths when {@code durations} knows them.
+	 */
+	public static void write(File playlist, TrackTable table, int[] ids, TrackDurations durations) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(playlist), charset(playlist)), 1 << 16);
+		try{
+			out.write("#EXTM3U\r\n");
+			for(int id : ids){
+				int millis = durations != null ? durations.get(id) : TrackDurations.UNKNOWN;
+				out.write("#EXTINF:");
+				out.write(String.valueOf(millis >= 0 ? millis/1000 : -1));
+				out.write(',');
+				out.write(table.name(id));
+				out.write("\r\n");
+				out.write(table.file(id).getAbsolutePath());
+				out.write("\r\n");
+			}
+		}
+		finally{
+			out.close();
+		}
+	}
+
+	private static File entry(File base, String line){
+		if(line.regionMatches(true, 0, "file:", 0, 5)){
+			try{
+				return new File(new URI(line));
+			}
+			catch(URISyntaxException | IllegalArgumentException e){
+				return null;
+			}
+		}
+		if(line.indexOf("://") > 0){
+			return null;
+		}
+		File file = new File(line);
+		return file.isAbsolute() || base == null ? file : new File(base, line);
+	}
+
+	private static Charset charset(File playlist){
+		return playlist.getName().toLowerCase().endsWith(".m3u8") ? UTF8 : Charset.defaultCharset();
+	}
+
+}
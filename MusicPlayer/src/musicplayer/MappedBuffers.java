@@ -0,0 +1,44 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Helpers for memory mapped files.
+ *
+ * @author DELL
+ */
+public final class MappedBuffers {
+
+	private MappedBuffers(){
+	}
+
+	/**
+	 * Unmaps {@code buffer} now instead of when it is collected, so that the
+	 * file is not held open meanwhile; Windows does not let a mapped file be
+	 * deleted or replaced. Does nothing where the JDK does not allow it, or
+	 * when {@code buffer} is null. The buffer must not be used afterwards.
+	 */
+	public static void release(MappedByteBuffer buffer){
+		if(buffer == null){
+			return;
+		}
+		try{
+			Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object clean = cleaner.invoke(buffer);
+			if(clean != null){
+				clean.getClass().getMethod("clean").invoke(clean);
+			}
+		}
+		catch(Exception e){
+			// Left to the garbage collector
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import javafx.scene.image.Image;
+
+/**
+ * The metadata keys the player shows, as reported by
+ * {@code Media.getMetadata()}, and the single place that routes them to the
+ * fields that hold them.
+ *
+ * @author DELL
+ */
+public final class Metadata {
+
+	public static final String ALBUM  = "album";
+	public static final String ARTIST = "artist";
+	public static final String TITLE  = "title";
+	public static final String YEAR   = "year";
+	public static final String IMAGE  = "image";
+
+	public interface Sink {
+
+		void setAlbum(String value);
+
+		void setArtist(String value);
+
+		void setTitle(String value);
+
+		void setYear(String value);
+
+		void setAlbumCover(Image value);
+	}
+
+	private Metadata(){
+	}
+
+	/**
+	 * Hands one metadata entry to the matching setter. Unknown keys are
+	 * ignored.
+	 */
+	public static void dispatch(String key, Object value, Sink sink){
+		switch(key){
+		case ALBUM:
+			sink.setAlbum(value.toString());
+			break;
+		case ARTIST:
+			sink.setArtist(value.toString());
+			break;
+		case TITLE:
+			sink.setTitle(value.toString());
+			break;
+		case YEAR:
+			sink.setYear(value.toString());
+			break;
+		case IMAGE:
+			sink.setAlbumCover((Image) value);
+			break;
+		default:
+			break;
+		}
+	}
+
+}
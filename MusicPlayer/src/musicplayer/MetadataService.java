@@ -0,0 +1,161 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads track tags in the background with {@link TagReader} and keeps the
+ * most recently used ones in memory.
+ *
+ * Requests are made from the FX thread, for the rows the user can see.
+ * When the rows change, {@link #cancelPending()} drops what was asked for
+ * before and not yet read, so a fast scroll does not leave a long queue of
+ * rows that went by. Listeners are called on the FX thread.
+ *
+ * @author DELL
+ */
+public class MetadataService {
+
+	public static final int CACHE_SIZE = 4096;
+
+	public interface Listener {
+
+		void loaded(File file, TrackTags tags);
+	}
+
+	private final ExecutorService pool;
+
+	private final Map<String, TrackTags> cache = new LinkedHashMap<String, TrackTags>(CACHE_SIZE, 0.75f, true){
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, TrackTags> eldest) {
+			return size() > CACHE_SIZE;
+		}
+
+	};
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	// Paths asked for and not yet read; FX thread only
+	private final Set<String> queued = new HashSet<String>();
+
+	private volatile int generation;
+
+	public MetadataService(){
+		this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()/2)));
+	}
+
+	public MetadataService(int threads){
+		final AtomicInteger count = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "metadata-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+
+		});
+	}
+
+	public void addListener(Listener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * The tags of {@code file} if they were read already, otherwise null.
+	 */
+	public TrackTags cached(File file){
+		synchronized(cache){
+			return cache.get(file.getPath());
+		}
+	}
+
+	/**
+	 * Reads the tags of {@code file} in the background unless they are
+	 * cached or already on their way.
+	 */
+	public void request(final File file){
+		final String path = file.getPath();
+		if(cached(file) != null || !queued.add(path)){
+			return;
+		}
+		final int requested = generation;
+		pool.execute(new Runnable(){
+
+			public void run() {
+				if(requested != generation){
+					return;
+				}
+				final TrackTags tags = load(file);
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						queued.remove(path);
+						for(Listener listener : listeners){
+							listener.loaded(file, tags);
+						}
+					}
+
+				});
+			}
+
+		});
+	}
+
+	/**
+	 * Forgets every request not started yet. Their rows can be asked for
+	 * again.
+	 */
+	public void cancelPending(){
+		generation++;
+		queued.clear();
+	}
+
+	/**
+	 * The tags of {@code file}, read on the calling thread if they are not
+	 * cached.
+	 */
+	public TrackTags load(File file){
+		TrackTags tags = cached(file);
+		if(tags != null){
+			return tags;
+		}
+		try{
+			tags = TagReader.read(file);
+		}
+		catch(IOException e){
+			System.out.println("Cannot read tags of "+file+": "+e.getMessage());
+			tags = TrackTags.NONE;
+		}
+		synchronized(cache){
+			cache.put(file.getPath(), tags);
+		}
+		return tags;
+	}
+
+	public void close(){
+		pool.shutdownNow();
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Where the player's timings and counts are kept: histograms of durations,
+ * counters and gauges, by name. They are read over JMX, as
+ * {@code musicplayer:type=Metrics}, and as text from the control server's
+ * {@code /metrics}, in the Prometheus format.
+ *
+ * Off unless {@code musicplayer.metrics} is true. Measuring code looks at
+ * {@link #ENABLED} before it reads a clock; as a constant, the JIT drops
+ * the measuring altogether when it is false.
+ *
+ * @author DELL
+ */
+public final class Metrics {
+
+	public static final boolean ENABLED = Boolean.getBoolean("musicplayer.metrics");
+
+	private static final String PREFIX = "musicplayer_";
+
+	/**
+	 * A value read when the metrics are.
+	 */
+	public interface Gauge {
+		long value();
+	}
+
+	private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<String, Histogram>();
+	private static final ConcurrentMap<String, AtomicLong> COUNTERS = new ConcurrentSkipListMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, Gauge> GAUGES = new ConcurrentSkipListMap<String, Gauge>();
+
+	private static boolean started;
+
+	private Metrics(){
+	}
+
+	/**
+	 * The histogram called {@code name}, created empty on first use. Names
+	 * of durations end in {@code _seconds}.
+	 */
+	public static Histogram histogram(String name){
+		Histogram histogram = HISTOGRAMS.get(name);
+		if(histogram == null){
+			HISTOGRAMS.putIfAbsent(name, new Histogram());
+			histogram = HISTOGRAMS.get(name);
+		}
+		return histogram;
+	}
+
+	/**
+	 * The counter called {@code name}, created at 0 on first use. Names end
+	 * in {@code _total}.
+	 */
+	public static AtomicLong counter(String name){
+		AtomicLong counter = COUNTERS.get(name);
+		if(counter == null){
+			COUNTERS.putIfAbsent(name, new AtomicLong());
+			counter = COUNTERS.get(name);
+		}
+		return counter;
+	}
+
+	public static void gauge(String name, Gauge gauge){
+		GAUGES.put(name, gauge);
+	}
+
+	/**
+	 * Registers the JMX bean and starts the FX stall watchdog, when the
+	 * metrics are on. Called once the FX toolkit runs; later calls do
+	 * nothing.
+	 */
+	public static synchronized void start(){
+		if(!ENABLED || started){
+			return;
+		}
+		started = true;
+		try{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMXBean(){
+
+				public Map<String, Double> getValues() {
+					return values();
+				}
+
+				public String getText() {
+					return scrape();
+				}
+
+			}, new ObjectName("musicplayer:type=Metrics"));
+		}
+		catch(JMException e){
+			System.out.println("Metrics not registered with JMX: "+e.getMessage());
+		}
+		FxWatchdog.start();
+	}
+
+	/**
+	 * Every metric as flat values: counters and gauges as they are,
+	 * histograms as a count and milliseconds.
+	 */
+	public static Map<String, Double> values(){
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for(Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()){
+			values.put(entry.getKey(), (double) entry.getValue().get());
+		}
+		for(Map.Entry<String, Gauge> entry : GAUGES.entrySet()){
+			values.put(entry.getKey(), (double) entry.getValue().value());
+		}
+		for(Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()){
+			String name = entry.getKey();
+			Histogram histogram = entry.getValue();
+			long count = histogram.getCount();
+			values.put(name+"_count", (double) count);
+			values.put(name+"_mean_ms", count > 0 ? histogram.getSum()/1e6/count : 0);
+			values.put(name+"_p50_ms", histogram.percentile(0.5)/1e6);
+			values.put(name+"_p90_ms", histogram.percentile(0.9)/1e6);
+			values.put(name+"_p99_ms", histogram.percentile(0.99)/1e6);
+			values.put(name+"_max_ms", histogram.getMax()/1e6);
+		}
+		return values;
+	}
+
+	/**
+	 * Every metric in the Prometheus text format.
+	 */
+	public static String scrape(){
+		StringBuilder text = new StringBuilder(4096);
+		for(Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()){
+			String name = PREFIX+entry.getKey();
+			text.append("# TYPE ").append(name).append(" counter\n");
+			text.append(name).append(' ').append(entry.getValue().get()).append('\n');
+		}
+		for(Map.Entry<String, Gauge> entry : GAUGES.entrySet()){
+			String name = PREFIX+entry.getKey();
+			text.append("# TYPE ").append(name).append(" gauge\n");
+			text.append(name).append(' ').append(entry.getValue().value()).append('\n');
+		}
+		for(Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()){
+			String name = PREFIX+entry.getKey();
+			Histogram histogram = entry.getValue();
+			text.append("# TYPE ").append(name).append(" histogram\n");
+			long cumulative = 0;
+			for(int i = 0; i < Histogram.BUCKETS-1; i++){
+				cumulative += histogram.getBucket(i);
+				text.append(name).append("_bucket{le=\"").append(Histogram.upperBound(i)/1e9).append("\"} ").append(cumulative).append('\n');
+			}
+			// Read last, so that +Inf is never below the buckets above
+			long count = histogram.getCount();
+			text.append(name).append("_bucket{le=\"+Inf\"} ").append(Math.max(count, cumulative)).append('\n');
+			text.append(name).append("_sum ").append(histogram.getSum()/1e9).append('\n');
+			text.append(name).append("_count ").append(Math.max(count, cumulative)).append('\n');
+		}
+		return text.toString();
+	}
+
+}
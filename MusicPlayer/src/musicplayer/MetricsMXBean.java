@@ -0,0 +1,27 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.Map;
+
+/**
+ * The {@link Metrics} as JMX sees them, under {@code musicplayer:type=Metrics}.
+ *
+ * @author DELL
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Every counter and gauge by name, and for every histogram its count and
+	 * its mean, 50th, 90th and 99th percentile and maximum in milliseconds.
+	 */
+	Map<String, Double> getValues();
+
+	/**
+	 * The same in the text format of {@link Metrics#scrape()}.
+	 */
+	String getText();
+}
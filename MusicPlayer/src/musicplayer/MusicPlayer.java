@@ -6,23 +6,31 @@
 package musicplayer;
 
 import java.io.File;
-import java.nio.file.Files;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
 import javafx.animation.TranslateTransition;
 import javafx.application.Application;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.collections.ListChangeListener;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.ListView;
-import javafx.scene.control.SelectionMode;
+import javafx.scene.control.MenuItem;
 import javafx.scene.control.Slider;
+import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.image.Image;
@@ -33,9 +41,7 @@ import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
-import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
-import javafx.scene.media.MediaPlayer.Status;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.scene.shape.Rectangle;
@@ -68,29 +74,63 @@ public class MusicPlayer extends Application {
 	private ToggleButton randomButton;
 	private ToggleButton muteButton;
 	
+	private ImageView playIcon;
+	private ImageView muteIcon;
+	
 	private Slider timeSlider;
 	private Slider volumeSlider;
 	
 	private Text totalTimeText;
 	private Text currentTimeText;
 	
-	private MediaPlayer player;
-	private Media media;
+	private PlaybackSession session;
 	
 	private Text titleText;
 	
 	private Stage primaryStage;
 	
+	private StackPane rootPane;
+	
 	private ListView<File> listView;
-	private ObservableList<File> files;
-	private int fileIndex;
+	private BitSetSelectionModel<File> selection;
+	private RowMetadataLoader rowLoader;
+	private TrackSearch search;
+	private final MetadataService metadata = new MetadataService();
+	private TrackList files;
+	private TrackDurations durations;
+	
+	// Null when loudness normalization is off
+	private TrackLoudness loudness;
 	private VBox listBox;
+	private Text playlistTimeText;
+	private final PauseTransition playlistTimeDelay = new PauseTransition(Duration.millis(250));
+	private final PlaylistStore playlistStore = new PlaylistStore(AppData.file("playlist.bin"));
+	private boolean playlistRestored;
+	
+	private LibraryIndex library;
+	
+	private FolderWatcher watcher;
+	
+	private ControlServer control;
+	
+	private PositionTicker ticker;
+	
+	private SeekScheduler seeker;
+	
+	private WaveformView waveformView;
+	
+	private final WaveformCache waveforms = new WaveformCache();
 	
-	private double volume;
+	// The track whose waveform is wanted behind the time slider
+	private File waveformTrack;
 	
-	private boolean isRandom;
+	// Whether the track played when the time slider was taken
+	private boolean scrubbedPlaying;
 	
-	private ArrayList<Integer> playedFiles;
+	private List<LibraryScanner> scanners = new CopyOnWriteArrayList<LibraryScanner>();
+	
+	// Created when the class is loaded, before the FX toolkit starts
+	private static final StartupTimer STARTUP = new StartupTimer();
 	
 	public static void main(String[] args) {
 		launch(args);
@@ -98,18 +138,68 @@ public class MusicPlayer extends Application {
 
 	@Override
 	public void start(Stage stage) throws Exception {
+		STARTUP.mark("toolkit");
+		Metrics.start();
 
 		StackPane root = new StackPane();
+		rootPane = root;
 	
 		initControls();
-		fileIndex = 0;
-		player    = null;
-		media     = null;
-		volume    = 0.5;
+		setControlEvents();
+		STARTUP.mark("controls");
+		
+		library = new LibraryIndex(AppData.file("library.idx"));
+		Thread loader = new Thread(new Runnable(){
+
+			public void run() {
+				try{
+					long start = System.nanoTime();
+					library.load();
+					if(Metrics.ENABLED){
+						System.out.println("Library index: "+library.size()+" tracks loaded in "+(System.nanoTime()-start)/1000000+" ms");
+					}
+				}
+				catch(IOException e){
+					System.out.println("Cannot read library index: "+e.getMessage());
+				}
+			}
+
+		}, "library-index");
+		loader.setDaemon(true);
+		loader.start();
+		initPlaylist();
+		setPlayerEvents();
+		startControl();
+		
+		if(Boolean.parseBoolean(System.getProperty("musicplayer.watch", "true"))){
+			try{
+				watcher = new FolderWatcher(new FolderWatcher.Listener(){
+
+					public void changed(List<File> added, List<File> removed) {
+						folderChanged(added, removed);
+					}
+
+					public void overflow(final File root) {
+						FxQueue.runLater(new Runnable(){
+
+							public void run() {
+								rescan(root);
+							}
+
+						});
+					}
+
+				});
+			}
+			catch(IOException e){
+				System.out.println("Folder watching disabled: "+e.getMessage());
+			}
+		}
 		
 		playListButton.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
+				showPlayListBox();
 				TranslateTransition tt = new TranslateTransition(Duration.millis(1000),listBox);
 				listBox.setTranslateX(-500);
 			    tt.setByX(4);
@@ -133,9 +223,8 @@ public class MusicPlayer extends Application {
 				File selectedFile = chooser.showOpenDialog(primaryStage);
 				 if (selectedFile != null) {
 					 files.add(selectedFile);
-					 if(player == null){
-						 media = new Media(files.get(files.size()-1).toURI().toString());
-						 loadMediaPlayer(media);
+					 if(session.getPlayer() == null){
+						 session.load(files.size()-1);
 					 }
 				 }
 			}
@@ -151,18 +240,14 @@ public class MusicPlayer extends Application {
 				File selectedFolder = chooser.showDialog(primaryStage);
 				 if (selectedFolder != null) {
 					 searchAudio(selectedFolder);
-					 if(player == null){
-						 media = new Media(files.get(0).toURI().toString());
-						 loadMediaPlayer(media);
-					 }
 				 }
 			}
 			
 		});
 		
-		ImageView view    = new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\background 2.png"));
+		// Decoded in the background; the window shows without it meanwhile
+		ImageView view    = new ImageView(new Image(MusicPlayer.class.getResource("background 2.png").toExternalForm(), true));
 		VBox controlBox   = getControlBox();
-		listBox           = getPlayListBox();
 		Rectangle topRec  = new Rectangle(500,50);
 		Rectangle baseRec = new Rectangle(500,70);
 
@@ -177,7 +262,6 @@ public class MusicPlayer extends Application {
 		StackPane.setMargin(playListButton, new Insets(308,450,0,0));
 		StackPane.setMargin(addFileButton, new Insets(308,0,0,450));
 		StackPane.setMargin(addFolderButton, new Insets(308,0,0,370));
-		StackPane.setMargin(listBox, new Insets(50,0,70,0));
 		
 		root.getChildren().add(view);
 		root.getChildren().add(topRec);
@@ -187,15 +271,293 @@ public class MusicPlayer extends Application {
 		root.getChildren().add(playListButton);
 		root.getChildren().add(addFileButton);
 		root.getChildren().add(addFolderButton);
-		root.getChildren().add(listBox);
+		if(!Boolean.parseBoolean(System.getProperty("musicplayer.lazyPlaylist", "true"))){
+			showPlayListBox();
+		}
 		
 		Scene scene = new Scene(root,500,500);
-		scene.getStylesheets().add("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\Player.css");
+		scene.getStylesheets().add(MusicPlayer.class.getResource("Player.css").toExternalForm());
+		STARTUP.mark("scene");
 		primaryStage = stage;
 		primaryStage.setScene(scene);
 		primaryStage.setResizable(false);
 		primaryStage.setTitle("MP3 Player");
 		primaryStage.show();
+		STARTUP.mark("shown");
+		STARTUP.markNextFrame("first frame");
+		restorePlaylist();
+	}
+	
+	/**
+	 * How long the phases of startup took.
+	 */
+	public static StartupTimer getStartupTimer(){
+		return STARTUP;
+	}
+	
+	@Override
+	public void stop() throws Exception {
+		if(playlistRestored){
+			// Not before it was restored, or an empty list would replace it
+			try{
+				playlistStore.save(files.getTable(), files.trackIds(), session.getIndex());
+			}
+			catch(IOException e){
+				System.out.println("Cannot save playlist: "+e.getMessage());
+			}
+		}
+		for(LibraryScanner scanner : scanners){
+			scanner.cancel();
+		}
+		if(watcher != null){
+			watcher.close();
+		}
+		if(control != null){
+			control.close();
+		}
+		session.close();
+		metadata.close();
+		durations.close();
+		if(loudness != null){
+			loudness.close();
+		}
+		library.close();
+	}
+	
+	/**
+	 * Reads the playlist saved by the last session in the background and
+	 * puts it in front of anything added meanwhile, in one change. The
+	 * track that was playing is loaded again.
+	 */
+	private void restorePlaylist(){
+		Thread restorer = new Thread(new Runnable(){
+
+			public void run() {
+				PlaylistStore.Saved read;
+				try{
+					long start = System.nanoTime();
+					read = playlistStore.load();
+					if(Metrics.ENABLED){
+						System.out.println("Playlist: "+read.getFiles().size()+" tracks read in "+(System.nanoTime()-start)/1000000+" ms");
+					}
+				}
+				catch(IOException e){
+					System.out.println("Cannot read playlist: "+e.getMessage());
+					read = null;
+				}
+				final PlaylistStore.Saved saved = read;
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						if(saved == null){
+							// Left alone rather than overwritten on exit
+							return;
+						}
+						playlistRestored = true;
+						if(saved.getFiles().isEmpty()){
+							return;
+						}
+						files.addAll(0, saved.getFiles());
+						if(session.getPlayer() == null){
+							int current = Math.max(saved.getCurrent(), 0);
+							if(files.get(current).isFile()){
+								session.load(current);
+							}
+						}
+					}
+
+				});
+			}
+
+		}, "playlist-restore");
+		restorer.setDaemon(true);
+		restorer.start();
+	}
+	
+	/**
+	 * Starts the remote control server when {@code musicplayer.control}
+	 * names a port.
+	 */
+	private void startControl(){
+		String port = System.getProperty("musicplayer.control");
+		if(port == null){
+			return;
+		}
+		control = new ControlServer(new ControlServer.Queuer(){
+
+			public void enqueue(PlaybackSession target, File path) {
+				addPath(path);
+			}
+
+		});
+		control.addSession("main", session);
+		try{
+			control.start(Integer.parseInt(port));
+			System.out.println("Control server on port "+control.getPort());
+		}
+		catch(IOException | NumberFormatException e){
+			System.out.println("Control server disabled: "+e.getMessage());
+			control.close();
+			control = null;
+		}
+	}
+	
+	/**
+	 * Adds an audio file, the audio files of a folder or the tracks of an
+	 * M3U playlist to the playlist.
+	 */
+	private void addPath(File path){
+		if(path.isDirectory()){
+			searchAudio(path);
+		}
+		else if(M3uPlaylist.isPlaylist(path)){
+			importPlaylist(path);
+		}
+		else if(AudioFiles.isAudio(path.getName())){
+			files.add(path);
+			if(session.getPlayer() == null){
+				session.load(files.size()-1);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the tracks of an M3U playlist at the end of the playlist, read in
+	 * the background.
+	 */
+	private void importPlaylist(final File playlist){
+		Thread importer = new Thread(new Runnable(){
+
+			public void run() {
+				final List<File> read;
+				try{
+					read = M3uPlaylist.read(playlist);
+				}
+				catch(IOException e){
+					System.out.println("Cannot read playlist "+playlist+": "+e.getMessage());
+					return;
+				}
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						files.addAll(read);
+						if(session.getPlayer() == null && !files.isEmpty()){
+							session.load(0);
+						}
+					}
+
+				});
+			}
+
+		}, "playlist-import");
+		importer.setDaemon(true);
+		importer.start();
+	}
+	
+	/**
+	 * Writes the playlist as it is now to an M3U file in the background.
+	 */
+	private void exportPlaylist(final File playlist){
+		final int[] ids = files.trackIds();
+		Thread exporter = new Thread(new Runnable(){
+
+			public void run() {
+				try{
+					M3uPlaylist.write(playlist, files.getTable(), ids, durations);
+				}
+				catch(IOException e){
+					System.out.println("Cannot write playlist "+playlist+": "+e.getMessage());
+				}
+			}
+
+		}, "playlist-export");
+		exporter.setDaemon(true);
+		exporter.start();
+	}
+	
+	/**
+	 * Shows the playlist rows whose tracks are in {@code ids}, or the whole
+	 * playlist when {@code ids} is null.
+	 */
+	private void showMatches(BitSet ids){
+		listView.setItems(ids == null ? files : new TrackFilter(files, ids));
+	}
+	
+	/**
+	 * Creates the playlist and what follows it. Its panel is only built
+	 * when it is first shown, but tracks can be added and played before.
+	 */
+	private void initPlaylist(){
+		files = new TrackList(new TrackTable());
+		durations = new TrackDurations(files.getTable(), library, new TrackDurations.Listener(){
+
+			public void probed() {
+				if(rowLoader != null){
+					rowLoader.durationsChanged();
+				}
+				showPlaylistTime();
+			}
+			
+		});
+		session = new PlaybackSession(files);
+		if(TrackLoudness.ENABLED){
+			loudness = new TrackLoudness(files.getTable(), library);
+			session.setLoudness(loudness);
+		}
+		
+		files.addListener(new ListChangeListener<File>(){
+
+			public void onChanged(Change<? extends File> change) {
+				boolean moved = false;
+				while(change.next()){
+					moved |= change.wasPermutated() || change.wasRemoved() || change.getTo() < files.size();
+					if(change.wasAdded() && !change.wasPermutated()){
+						durations.request(files, change.getFrom(), change.getTo());
+						if(loudness != null){
+							loudness.request(files, change.getFrom(), change.getTo());
+						}
+					}
+				}
+				if(listView != null && listView.getItems() instanceof TrackFilter){
+					// Rows appended at the end leave the filter's row numbers
+					// valid; they show up when the search runs again
+					if(moved){
+						showMatches(((TrackFilter) listView.getItems()).getIds());
+					}
+					search.refresh();
+				}
+				showPlaylistTime();
+			}
+			
+		});
+		
+		playlistTimeDelay.setOnFinished(new EventHandler<ActionEvent>(){
+
+			public void handle(ActionEvent arg0) {
+				if(playlistTimeText == null){
+					return;
+				}
+				String total = formatTime(durations.total(files)/1000);
+				playlistTimeText.setText(durations.isProbing() ? total+" ..." : total);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Builds the playlist panel the first time it is about to be shown.
+	 */
+	private void showPlayListBox(){
+		if(listBox != null){
+			return;
+		}
+		long start = System.nanoTime();
+		listBox = getPlayListBox();
+		StackPane.setMargin(listBox, new Insets(50,0,70,0));
+		rootPane.getChildren().add(listBox);
+		if(Metrics.ENABLED){
+			System.out.println("Playlist panel built in "+(System.nanoTime()-start)/1000000+" ms");
+		}
 	}
 	
 	public VBox getPlayListBox(){
@@ -205,22 +567,105 @@ public class MusicPlayer extends Application {
 		Button deleteButton = new Button();
 		Button selectAll    = new Button();
 		
-		deleteButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\delete.png",17,17,true,true,true)));
-		selectAll.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\selectAll.png",17,17,true,true,true)));
+		deleteButton.setGraphic(new ImageView(Icons.get("delete.png", 17)));
+		selectAll.setGraphic(new ImageView(Icons.get("selectAll.png", 17)));
 	
-		closeButton.setGraphic(new ImageView(new Image("resources/back.png",20,20,true,true,true)));
+		closeButton.setGraphic(new ImageView(Icons.get("back.png", 20)));
 		
 		listView = new ListView<File>();
-		listView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+		selection = new BitSetSelectionModel<File>(listView);
+		listView.setSelectionModel(selection);
 		
-		files    = FXCollections.observableArrayList(); 
 		listView.setOpacity(0.7);
 		listView.setItems(files);
+		rowLoader = new RowMetadataLoader(listView, metadata);
+		listView.setCellFactory(TrackCell.factory(rowLoader, durations));
+		listView.setFixedCellSize(24);
 		
+		MenuItem importItem = new MenuItem("Importar lista M3U...");
+		MenuItem exportItem = new MenuItem("Exportar lista M3U...");
+		listView.setContextMenu(new ContextMenu(importItem, exportItem));
+		importItem.setOnAction(new EventHandler<ActionEvent>(){
+
+			public void handle(ActionEvent arg0) {
+				FileChooser chooser = new FileChooser();
+				chooser.setInitialDirectory(new File(System.getProperty("user.home")));
+				chooser.setTitle("Selecciona una lista de reproduccion");
+				chooser.getExtensionFilters().addAll(
+				         new ExtensionFilter("M3U", "*.m3u", "*.m3u8"));
+				File selectedFile = chooser.showOpenDialog(primaryStage);
+				if(selectedFile != null){
+					importPlaylist(selectedFile);
+				}
+			}
+			
+		});
+		exportItem.setOnAction(new EventHandler<ActionEvent>(){
+
+			public void handle(ActionEvent arg0) {
+				FileChooser chooser = new FileChooser();
+				chooser.setInitialDirectory(new File(System.getProperty("user.home")));
+				chooser.setTitle("Guardar lista de reproduccion");
+				chooser.getExtensionFilters().addAll(
+				         new ExtensionFilter("M3U8", "*.m3u8"),
+				         new ExtensionFilter("M3U", "*.m3u"));
+				File selectedFile = chooser.showSaveDialog(primaryStage);
+				if(selectedFile != null){
+					if(!M3uPlaylist.isPlaylist(selectedFile)){
+						selectedFile = new File(selectedFile.getPath()+".m3u8");
+					}
+					exportPlaylist(selectedFile);
+				}
+			}
+			
+		});
+		
+		TextField filterField = new TextField();
+		filterField.setPromptText("Buscar");
+		filterField.setOpacity(0.7);
+		search = new TrackSearch(files.getTable(), new TrackSearch.Listener(){
+
+			public void found(String query, BitSet ids) {
+				showMatches(ids);
+			}
+			
+		});
+		metadata.addListener(new MetadataService.Listener(){
+
+			public void loaded(File file, TrackTags tags) {
+				search.tagsLoaded(file, tags);
+			}
+			
+		});
+		filterField.textProperty().addListener(new ChangeListener<String>(){
+
+			public void changed(ObservableValue<? extends String> arg0, String oldValue, String newValue) {
+				search.setQuery(newValue);
+			}
+			
+		});
+		filterField.focusedProperty().addListener(new ChangeListener<Boolean>(){
+
+			public void changed(ObservableValue<? extends Boolean> arg0, Boolean oldValue, Boolean newValue) {
+				if(newValue){
+					search.warmUp();
+				}
+			}
+			
+		});
+		playlistTimeText = new Text(formatTime(0));
+		playlistTimeText.setFill(Color.WHITE);
+		showPlaylistTime();
 		deleteButton.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
-				files.removeAll(listView.getSelectionModel().getSelectedItems());
+				TrackRows rows = (TrackRows) listView.getItems();
+				BitSet selected = selection.getSelectedBits();
+				BitSet marked = new BitSet(files.size());
+				for(int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i+1)){
+					marked.set(rows.sourceIndex(i));
+				}
+				files.removeMarked(marked);
 			}
 			
 		});
@@ -228,11 +673,11 @@ public class MusicPlayer extends Application {
 		selectAll.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
-				if(listView.getSelectionModel().isEmpty()){
-					listView.getSelectionModel().selectAll();
+				if(selection.isEmpty()){
+					selection.selectAll();
 				}
 				else{
-					listView.getSelectionModel().clearSelection();
+					selection.clearSelection();
 				}
 			}
 			
@@ -259,8 +704,10 @@ public class MusicPlayer extends Application {
 		box.getChildren().add(closeButton);
 		box.getChildren().add(selectAll);
 		box.getChildren().add(deleteButton);
+		box.getChildren().add(playlistTimeText);
 		HBox.setMargin(closeButton, new Insets(0,0,0,7));
 		
+		root.getChildren().add(filterField);
 		root.getChildren().add(listView);
 		root.getChildren().add(box);
 		root.setTranslateX(-500);
@@ -268,14 +715,29 @@ public class MusicPlayer extends Application {
 		return root;
 	}
 	
+	/**
+	 * Shows the length of the whole playlist. Adding it up takes a pass over
+	 * every row, so it is done at most once per {@code playlistTimeDelay}
+	 * however many batches of rows or lengths come in meanwhile.
+	 */
+	private void showPlaylistTime(){
+		if(playlistTimeDelay.getStatus() != Animation.Status.RUNNING){
+			playlistTimeDelay.playFromStart();
+		}
+	}
+	
 	public VBox getControlBox(){
 		
 		VBox root = new VBox();
 		HBox hbox = new HBox();
 		
+		StackPane seekBar = new StackPane();
+		seekBar.getChildren().add(waveformView);
+		seekBar.getChildren().add(timeSlider);
+		
 		HBox hbox2 = new HBox();
 		hbox2.getChildren().add(totalTimeText);
-		hbox2.getChildren().add(timeSlider);
+		hbox2.getChildren().add(seekBar);
 		hbox2.getChildren().add(currentTimeText);
 		
 		hbox.getChildren().add(randomButton);
@@ -313,8 +775,7 @@ public class MusicPlayer extends Application {
 		titleText       = new Text();
 		totalTimeText   = new Text("00:00:00");
 		currentTimeText = new Text("00:00:00");
-		
-		isRandom = false;
+		waveformView    = new WaveformView();
 		
 		playButton.setEffect(new DropShadow());
 		stopButton.setEffect(new DropShadow());
@@ -322,15 +783,21 @@ public class MusicPlayer extends Application {
 		backButton.setEffect(new DropShadow());
 		muteButton.setEffect(new DropShadow());
 		
-		playButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\play.png",34,34,true,true,true)));
-		nextButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\next.png",20,20,true,true,true)));
-		backButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\back.png",20,20,true,true,true)));
-		stopButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\stop.png",17,17,true,true,true)));
-		randomButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\random.png",30,30,true,true,true)));
-		muteButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\speakerNormal.png",25,25,true,true,true)));
-		addFileButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\addFile.png",20,20,true,true,true)));
-		addFolderButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\addFolder.png",20,20,true,true,true)));
-		playListButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\playList.png",20,20,true,true,true)));
+		playIcon = new ImageView(Icons.get("play.png", 34));
+		muteIcon = new ImageView(Icons.get("speakerNormal.png", 25));
+		playButton.setGraphic(playIcon);
+		nextButton.setGraphic(new ImageView(Icons.get("next.png", 20)));
+		backButton.setGraphic(new ImageView(Icons.get("back.png", 20)));
+		stopButton.setGraphic(new ImageView(Icons.get("stop.png", 17)));
+		randomButton.setGraphic(new ImageView(Icons.get("random.png", 30)));
+		muteButton.setGraphic(muteIcon);
+		addFileButton.setGraphic(new ImageView(Icons.get("addFile.png", 20)));
+		addFolderButton.setGraphic(new ImageView(Icons.get("addFolder.png", 20)));
+		playListButton.setGraphic(new ImageView(Icons.get("playList.png", 20)));
+		
+		// Swapped in later; decoded now so the first toggle does not wait for them
+		Icons.get("pause.png", 34);
+		Icons.get("speakerMute.png", 25);
 		
 		double r=18;
 		playButton.setShape(new Circle(r));
@@ -342,6 +809,8 @@ public class MusicPlayer extends Application {
 		
 		volumeSlider.setMinWidth(200);
 		timeSlider.setMinWidth(350);
+		timeSlider.setId("timeSlider");
+		waveformView.setPrefHeight(32);
 		
 		titleText.setFill(Color.WHITE);
 		totalTimeText.setFill(Color.WHITE);
@@ -353,14 +822,7 @@ public class MusicPlayer extends Application {
 		playButton.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
-				if(player.getStatus() == Status.PLAYING){
-					player.pause();
-					playButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\play.png",34,34,true,true,true)));
-				}
-				else{
-					player.play();
-					playButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\pause.png",34,34,true,true,true)));
-				}			
+				session.toggle();
 				System.out.println("Clicked");
 			}
 			
@@ -369,8 +831,7 @@ public class MusicPlayer extends Application {
 		stopButton.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
-				player.stop();
-				playButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\play.png",34,34,true,true,true)));
+				session.stop();
 			}
 			
 		});
@@ -378,29 +839,7 @@ public class MusicPlayer extends Application {
 		nextButton.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
-				if(player != null){
-					if(player.getStatus() == Status.PLAYING){
-						player.stop();
-						if(fileIndex < files.size()-1){
-							fileIndex++;
-							media = new Media(files.get(fileIndex).toURI().toString());
-							loadMediaPlayer(media);
-							player.play();
-						}
-						else{
-							playButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\play.png",34,34,true,true,true)));
-						}
-						timeSlider.setValue(0);
-						currentTimeText.setText("00:00:00");
-					}
-					else{
-						if(fileIndex < files.size()-1){
-							fileIndex++;
-							media = new Media(files.get(fileIndex).toURI().toString());
-							loadMediaPlayer(media);
-						}
-					}
-				}
+				session.next();
 			}
 			
 		});
@@ -408,29 +847,7 @@ public class MusicPlayer extends Application {
 		backButton.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
-				if(player != null){
-					if(player.getStatus() == Status.PLAYING){
-						player.stop();
-						if(fileIndex > 0){
-							fileIndex--;
-							media = new Media(files.get(fileIndex).toURI().toString());
-							loadMediaPlayer(media);
-							player.play();
-						}
-						else{
-							playButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\play.png",34,34,true,true,true)));
-						}
-						timeSlider.setValue(0);
-						currentTimeText.setText("00:00:00");
-					}
-					else{
-						if(fileIndex > 0){
-							fileIndex--;
-							media = new Media(files.get(fileIndex).toURI().toString());
-							loadMediaPlayer(media);
-						}
-					}
-				}
+				session.previous();
 			}
 			
 		});
@@ -438,16 +855,19 @@ public class MusicPlayer extends Application {
 		timeSlider.valueChangingProperty().addListener(new ChangeListener<Boolean>(){
 
 			public void changed(ObservableValue<? extends Boolean> arg0,Boolean oldValue, Boolean newValue) {
-				if(player.getStatus() == Status.PLAYING){
-					player.pause();
+				if(newValue){
+					scrubbedPlaying = session.getState() == PlaybackSession.State.PLAYING;
+					if(scrubbedPlaying){
+						session.pause();
+					}
+					return;
+				}
+				Duration value = sliderPosition();
+				if(value != null){
+					seeker.finish(value);
 				}
-				if(player.getStatus() == Status.PAUSED){
-					double duration = player.getTotalDuration().toMillis();
-					double percent = timeSlider.getValue();
-					double value = ((duration*percent)/100);
-					player.seek(new Duration(value));
-					//System.out.println("Changing: ["+(int)value+" ms]"+" Total: ["+(int)duration+" ms] ["+(int)percent+" %]");
-					player.play();
+				if(scrubbedPlaying){
+					session.play();
 				}
 			}
 			
@@ -456,7 +876,13 @@ public class MusicPlayer extends Application {
 		timeSlider.valueProperty().addListener(new ChangeListener<Number>(){
 
 			public void changed(ObservableValue<? extends Number> arg0,Number oldValue, Number newValue) {
-				//System.out.println(""+newValue+" %");
+				// While dragged; the seeker holds back what the player cannot keep up with
+				if(timeSlider.isValueChanging()){
+					Duration value = sliderPosition();
+					if(value != null){
+						seeker.request(value);
+					}
+				}
 			}
 			
 		});
@@ -464,12 +890,7 @@ public class MusicPlayer extends Application {
 		volumeSlider.valueProperty().addListener(new ChangeListener<Number>(){
 
 			public void changed(ObservableValue<? extends Number> arg0,Number oldValue, Number newValue) {
-				player.setVolume(newValue.doubleValue());
-				if(muteButton.isSelected()){
-					muteButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\speakerNormal.png",25,25,true,true,true)));
-					muteButton.setSelected(false);
-					player.setMute(false);
-				}
+				session.setVolume(newValue.doubleValue());
 			}
 			
 		});
@@ -477,14 +898,7 @@ public class MusicPlayer extends Application {
 		muteButton.setOnAction(new EventHandler<ActionEvent>(){
 
 			public void handle(ActionEvent arg0) {
-				if(muteButton.isSelected()){
-					player.setMute(true);
-					muteButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\speakerMute.png",25,25,true,true,true)));
-				}
-				else{
-					player.setMute(false);
-					muteButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\speakerNormal.png",25,25,true,true,true)));
-				}
+				session.setMuted(muteButton.isSelected());
 			}
 			
 		});
@@ -492,7 +906,7 @@ public class MusicPlayer extends Application {
 		randomButton.selectedProperty().addListener(new ChangeListener<Boolean>(){
 
 			public void changed(ObservableValue<? extends Boolean> arg0,Boolean oldValue, Boolean newValue) {
-				isRandom = newValue;
+				session.setShuffled(newValue);
 			}
 			
 		});
@@ -500,119 +914,262 @@ public class MusicPlayer extends Application {
 		
 	}
 	
-	public void loadMediaPlayer(Media value){
-		media = value;
-		player = new MediaPlayer(media);
+	/**
+	 * Follows the session: the play icon, the position, the length and
+	 * title of the track and the volume controls.
+	 */
+	private void setPlayerEvents(){
 		
-		player.currentTimeProperty().addListener(new ChangeListener<Duration>(){
+		ticker = new PositionTicker(){
 
-			public void changed(ObservableValue<? extends Duration> observale,Duration oldVal, Duration newVal) {
-				double time = newVal.toSeconds();
-				double duration = player.getTotalDuration().toSeconds();
-				int percent = (int) ((100*time)/duration);
-				timeSlider.setValue(percent);
-				currentTimeText.setText(formatTime(time));
+			protected MediaPlayer player() {
+				return session.getPlayer();
 			}
-			
+
+			protected void showTime(long seconds) {
+				if(!timeSlider.isValueChanging()){
+					currentTimeText.setText(formatTime(seconds));
+				}
+			}
+
+			protected void showProgress(double fraction) {
+				if(!timeSlider.isValueChanging()){
+					timeSlider.setValue(100*fraction);
+				}
+			}
+
+			protected double resolution() {
+				return 1/Math.max(timeSlider.getWidth(), 1);
+			}
+
+		};
+		
+		seeker = new SeekScheduler(new SeekScheduler.Seekable(){
+
+			public void seek(Duration position) {
+				session.seek(position);
+			}
+
+			public Duration getPosition() {
+				return session.getPosition();
+			}
+
+		}, new SeekScheduler.Listener(){
+
+			public void preview(Duration position) {
+				currentTimeText.setText(formatTime(Math.floor(position.toSeconds())));
+			}
+
 		});
 		
-		player.setOnEndOfMedia(new Runnable(){
+		session.addListener(new PlaybackSession.Listener(){
 
-			public void run() {
-				player.stop();
-				if(fileIndex < files.size()-1){
-					fileIndex++;
-					media = new Media(files.get(fileIndex).toURI().toString());
-					loadMediaPlayer(media);
-					player.play();
+			public void trackLoaded(int index, File file) {
+				titleText.setText(file.getName());
+				seeker.cancel();
+				ticker.reset();
+				showWaveform(file);
+			}
+
+			public void ready(int index, Duration length) {
+				playerReady(index, length);
+			}
+
+			public void stateChanged(PlaybackSession.State state) {
+				if(state == PlaybackSession.State.PLAYING){
+					playIcon.setImage(Icons.get("pause.png", 34));
+					ticker.start();
 				}
 				else{
-					playButton.setGraphic(new ImageView(new Image("C:\\Users\\Luchito Rojas\\Documents\\NetBeansProjects\\MusicPlayer\\src\\musicplayer\\play.png",34,34,true,true,true)));
-					fileIndex = 0;
-					media = new Media(files.get(fileIndex).toURI().toString());
-					loadMediaPlayer(media);
+					playIcon.setImage(Icons.get("play.png", 34));
+					ticker.stop();
+					ticker.render();
 				}
-				timeSlider.setValue(0);
-				currentTimeText.setText("00:00:00");
 			}
-			
-		});
-		
-		player.statusProperty().addListener(new ChangeListener<Status>(){
 
-			public void changed(ObservableValue<? extends Status> arg0,Status oldStatus, Status newStatus) {
-				if(newStatus == Status.READY){
-					totalTimeText.setText(formatTime(player.getTotalDuration().toSeconds()));
-					titleText.setText(new File(media.getSource()).getName().replace("%20", " "));
-					player.setVolume(volume);
+			public void volumeChanged(double volume, boolean muted) {
+				if(volumeSlider.getValue() != volume){
+					volumeSlider.setValue(volume);
 				}
+				muteButton.setSelected(muted);
+				muteIcon.setImage(Icons.get(muted ? "speakerMute.png" : "speakerNormal.png", 25));
 			}
-			
-		});
-		
-		player.volumeProperty().addListener(new ChangeListener<Number>(){
 
-			public void changed(ObservableValue<? extends Number> arg0,Number oldValue, Number newValue) {
-				volume = newValue.doubleValue();
+			public void queueFinished() {
 			}
 			
 		});
-		
-		setControlEvents();
 	}
 	
-	public void searchAudio(File folder){
+	private void playerReady(int index, Duration total){
+		totalTimeText.setText(formatTime(total.toSeconds()));
+		if(!total.isUnknown() && !total.isIndefinite() && index >= 0 && index < files.size()){
+			// The player's length is exact; the probed one may be an estimate
+			durations.learned(files.trackId(index), files.get(index), (long) total.toMillis());
+		}
+	}
+	
+	/**
+	 * What plays, and how; the controls are a view of it.
+	 */
+	public PlaybackSession getSession(){
+		return session;
+	}
+	
+	/**
+	 * Time between the end of the last track and the next one starting to
+	 * play, in nanoseconds.
+	 */
+	public long getLastSwitchLatency(){
+		return session.getLastSwitchLatency();
+	}
+	
+	public void searchAudio(final File folder){
 		System.out.println("Searching in: "+folder.toPath());
-		File[] folderContent = folder.listFiles();
-		int contentSize = folderContent.length;
-		for(int i = 0; i < contentSize; i++){
-			File tempFile = folderContent[i];
-			System.out.println("Checking file: "+tempFile.toPath());
-			if(!tempFile.isHidden()){
-				if(tempFile.isDirectory() && !Files.isSymbolicLink(tempFile.toPath())){
-					continue;
-				}
-				if(tempFile.isFile()){
-					if( tempFile.getName().endsWith(".mp3") || 
-						tempFile.getName().endsWith(".aac") || 
-						tempFile.getName().endsWith(".aif") || 
-						tempFile.getName().endsWith(".aiff")|| 
-						tempFile.getName().endsWith(".mp4") || 
-						tempFile.getName().endsWith(".m4a") || 
-						tempFile.getName().endsWith(".m4v") || 
-						tempFile.getName().endsWith(".wav") ||
-						tempFile.getName().endsWith(".Mp3") || 
-						tempFile.getName().endsWith(".Aac") || 
-						tempFile.getName().endsWith(".Aif") || 
-						tempFile.getName().endsWith(".Aiff")|| 
-						tempFile.getName().endsWith(".Mp4") || 
-						tempFile.getName().endsWith(".M4a") || 
-						tempFile.getName().endsWith(".M4v") || 
-						tempFile.getName().endsWith(".Wav")){
-							
-							System.out.println(" >> File added: "+tempFile.getPath());
-							files.add(tempFile);
+		if(library.hasRoot(folder)){
+			// Imported before; what is in the playlist already stays where it is
+			files.addAbsent(library.filesUnder(folder));
+			if(session.getPlayer() == null && !files.isEmpty()){
+				session.load(0);
+			}
+		}
+		rescan(folder);
+	}
+	
+	/**
+	 * Scans {@code folder} in the background. Once it was imported only the
+	 * tracks new to the index are appended, and those gone are removed, so
+	 * this is also how a folder is caught up after the watcher lost events.
+	 */
+	private void rescan(final File folder){
+		LibraryScanner scanner = new LibraryScanner(folder, new LibraryScanner.Listener(){
+
+			public void filesFound(final List<File> batch) {
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						files.addAll(batch);
+						if(session.getPlayer() == null && !files.isEmpty()){
+							session.load(0);
 						}
+					}
+
+				});
+			}
+
+			public void filesRemoved(final List<File> removed) {
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						files.removeAll(new HashSet<File>(removed));
+					}
+
+				});
+			}
+
+			public void progress(int directories, int scanned, int matched) {
+				System.out.println("Searching: "+directories+" folders, "+scanned+" files checked, "+matched+" added");
+			}
+
+			public void finished(boolean cancelled) {
+				System.out.println((cancelled ? "Search cancelled: " : "Search finished: ")+folder.toPath());
+				if(!cancelled && watcher != null){
+					watcher.watch(folder);
 				}
 			}
+
+		});
+		for(LibraryScanner old : scanners){
+			if(old.isFinished()){
+				scanners.remove(old);
+			}
 		}
+		scanners.add(scanner);
+		scanner.setIndex(library);
+		scanner.start();
 	}
 	
-	private String formatTime(double time){
-		int hours   = 0;
-		int minutes = 0;
-		int seconds = 0;
+	/**
+	 * Folds a batch of changes seen by the folder watcher into the index and
+	 * the playlist. Called on the watcher thread.
+	 */
+	private void folderChanged(List<File> added, List<File> removed){
+		final List<File> newFiles = new ArrayList<File>();
+		for(File file : added){
+			if(library.refresh(file, file.length(), file.lastModified()) == LibraryIndex.Change.NEW){
+				newFiles.add(file);
+			}
+		}
+		final Set<File> goneFiles = new HashSet<File>();
+		for(File path : removed){
+			if(library.get(path) != null){
+				goneFiles.add(path);
+			}
+			else{
+				goneFiles.addAll(library.filesUnder(path));
+			}
+		}
+		for(File file : goneFiles){
+			library.remove(file);
+		}
+		library.flush();
 		
-		hours = (int) (time/3600);
-		if(hours > 0){
-			time -= 3600*hours;
+		if(newFiles.isEmpty() && goneFiles.isEmpty()){
+			return;
 		}
-		minutes = (int) (time/60);
-		if(minutes > 0){
-			time -= 60*minutes;
+		FxQueue.runLater(new Runnable(){
+
+			public void run() {
+				if(!goneFiles.isEmpty()){
+					files.removeAll(goneFiles);
+				}
+				if(!newFiles.isEmpty()){
+					files.addAll(newFiles);
+				}
+			}
+
+		});
+	}
+	
+	/**
+	 * Draws the waveform of {@code file} behind the time slider once it is
+	 * found, if the track is still the one loaded then. The view is hidden
+	 * meanwhile, and stays hidden for tracks that cannot be decoded, such
+	 * as MP3 without a Java Sound decoder for it.
+	 */
+	private void showWaveform(File file){
+		waveformTrack = file;
+		waveformView.setWaveform(null);
+		waveformView.setVisible(false);
+		if(!file.isFile()){
+			return;
 		}
-		seconds = (int) time;
-		return String.format("%02d:%02d:%02d", hours,minutes,seconds);
+		waveforms.load(file, new WaveformCache.Listener(){
+
+			public void loaded(File track, Waveform waveform) {
+				if(track.equals(waveformTrack)){
+					waveformView.setWaveform(waveform);
+					waveformView.setVisible(waveform != null);
+				}
+			}
+
+		});
+	}
+	
+	/**
+	 * Where the time slider points in the track, or null while the length
+	 * of the track is not known.
+	 */
+	private Duration sliderPosition(){
+		Duration length = session.getLength();
+		if(length == null || length.isUnknown() || length.isIndefinite()){
+			return null;
+		}
+		return length.multiply(timeSlider.getValue()/100);
+	}
+	
+	private String formatTime(double time){
+		return TimeFormat.hms(time);
 	}
 
 }
@@ -0,0 +1,53 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Opens tracks as 16 bit little endian PCM for the analyses that read
+ * every sample. Only formats the Java Sound runtime can decode are opened:
+ * WAV, AIFF and AU as it comes, MP3 and others when a decoder for them is
+ * on the class path.
+ *
+ * @author DELL
+ */
+public final class PcmDecoder {
+
+	private PcmDecoder(){
+	}
+
+	/**
+	 * The samples of {@code file}, or null if it cannot be decoded. Closing
+	 * the stream closes the file.
+	 */
+	public static AudioInputStream open(File file) throws IOException {
+		AudioInputStream source;
+		try{
+			source = AudioSystem.getAudioInputStream(file);
+		}
+		catch(UnsupportedAudioFileException e){
+			return null;
+		}
+		AudioFormat format = source.getFormat();
+		int channels = Math.max(format.getChannels(), 1);
+		AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16, channels, channels*2, format.getSampleRate(), false);
+		if(format.matches(pcm)){
+			return source;
+		}
+		if(!AudioSystem.isConversionSupported(pcm, format)){
+			source.close();
+			return null;
+		}
+		return AudioSystem.getAudioInputStream(pcm, source);
+	}
+
+}
@@ -0,0 +1,547 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.media.MediaPlayer.Status;
+import javafx.util.Duration;
+
+/**
+ * Plays a queue of tracks, with no user interface: the queue, the track
+ * playing and where it is in the queue, the transport state, shuffle and
+ * volume. Views drive it through its methods and follow it through its
+ * {@link Listener}; it never looks at a control.
+ *
+ * It needs the FX toolkit, as {@code MediaPlayer} does, but no Stage. All
+ * methods are called on the FX thread, and listeners are called on it.
+ *
+ * @author DELL
+ */
+public class PlaybackSession {
+
+	/**
+	 * Where the transport is. Derived from the status of the current
+	 * player, and {@link #IDLE} while there is none.
+	 */
+	public enum State {
+		IDLE, LOADING, STOPPED, PLAYING, PAUSED, ERROR;
+
+		static State of(Status status){
+			if(status == null){
+				return LOADING;
+			}
+			switch(status){
+			case READY:
+			case STOPPED:
+				return STOPPED;
+			case PLAYING:
+			case STALLED:
+				return PLAYING;
+			case PAUSED:
+				return PAUSED;
+			case HALTED:
+				return ERROR;
+			case DISPOSED:
+				return IDLE;
+			default:
+				return LOADING;
+			}
+		}
+	}
+
+	public interface Listener {
+
+		/**
+		 * The track at {@code index} of the queue was loaded into the
+		 * player. It may not be ready yet.
+		 */
+		void trackLoaded(int index, File file);
+
+		/**
+		 * The current track can play; its length is known.
+		 */
+		void ready(int index, Duration length);
+
+		void stateChanged(State state);
+
+		void volumeChanged(double volume, boolean muted);
+
+		/**
+		 * The last track of the queue, or of the shuffle cycle, ended.
+		 */
+		void queueFinished();
+	}
+
+	private static final Histogram SWITCH = Metrics.histogram("track_switch_seconds");
+	private static final Histogram SEEK   = Metrics.histogram("seek_seconds");
+
+	private final TrackList queue;
+	private final PlayerEngine engine = new PlayerEngine();
+	private final PlayerPreloader preloader = new PlayerPreloader(engine);
+	private final ShuffleEngine shuffle = new ShuffleEngine();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private MediaPlayer player;
+	private int index;
+	// The current track was removed from the queue while it played; index
+	// is then the row that took its place, where next goes on from
+	private boolean removed;
+	private State state = State.IDLE;
+
+	private boolean shuffled;
+	private double volume = 0.5;
+	private boolean muted;
+
+	private TrackLoudness loudness;
+	// Of the current track, from its loudness; the player's volume is volume*gain
+	private double gain = 1;
+
+	private long switchStarted;
+	private long lastSwitchLatency;
+
+	public PlaybackSession(TrackList queue){
+		this.queue = queue;
+		queue.addListener(new ListChangeListener<File>(){
+
+			public void onChanged(Change<? extends File> change) {
+				queueChanged(change);
+			}
+
+		});
+
+		engine.addCurrentTimeListener(new ChangeListener<Duration>(){
+
+			public void changed(ObservableValue<? extends Duration> observable, Duration oldValue, Duration newValue) {
+				int next = nextIndex();
+				if(next >= 0 && preloader.isDue(player.getTotalDuration().subtract(newValue))){
+					preloader.prepare(next, PlaybackSession.this.queue.get(next));
+				}
+			}
+
+		});
+
+		engine.addStatusListener(new ChangeListener<Status>(){
+
+			public void changed(ObservableValue<? extends Status> observable, Status oldStatus, Status newStatus) {
+				setState(State.of(newStatus));
+				if(newStatus == Status.READY){
+					playerReady();
+				}
+				if(newStatus == Status.PLAYING && switchStarted != 0){
+					lastSwitchLatency = System.nanoTime()-switchStarted;
+					switchStarted     = 0;
+					SWITCH.record(lastSwitchLatency);
+					if(Metrics.ENABLED){
+						System.out.println("Track switch: "+lastSwitchLatency/1000+" us");
+					}
+				}
+			}
+
+		});
+
+		engine.setOnEndOfMedia(new Runnable(){
+
+			public void run() {
+				endOfMedia();
+			}
+
+		});
+	}
+
+	public void addListener(Listener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener){
+		listeners.remove(listener);
+	}
+
+	public TrackList getQueue(){
+		return queue;
+	}
+
+	/**
+	 * The player of the current track, or null before one was loaded. For
+	 * views that show its position; playback goes through the session.
+	 */
+	public MediaPlayer getPlayer(){
+		return player;
+	}
+
+	/**
+	 * The row of the current track in the queue, or -1 if none was loaded
+	 * or it was removed from the queue while it played.
+	 */
+	public int getIndex(){
+		return player != null && !removed ? index : -1;
+	}
+
+	public State getState(){
+		return state;
+	}
+
+	/**
+	 * Time between the last track ending, or being left by next or back,
+	 * and the next one starting to play, in nanoseconds.
+	 */
+	public long getLastSwitchLatency(){
+		return lastSwitchLatency;
+	}
+
+	// Transport
+
+	/**
+	 * Loads the track at {@code index} without playing it. Returns false if
+	 * it cannot be opened.
+	 */
+	public boolean load(int index){
+		File file = queue.get(index);
+		MediaPlayer prepared = preloader.take(index, file);
+		if(prepared == null){
+			try{
+				prepared = engine.create(file.toURI().toString());
+			}
+			catch(RuntimeException e){
+				System.out.println("Cannot open "+file+": "+e.getMessage());
+				return false;
+			}
+		}
+		this.index = index;
+		removed    = false;
+		player = engine.switchTo(prepared);
+		gain   = 1;
+		player.setVolume(volume);
+		player.setMute(muted);
+		for(Listener listener : listeners){
+			listener.trackLoaded(index, file);
+		}
+		setState(State.of(player.getStatus()));
+		if(player.getStatus() == Status.READY){
+			playerReady();
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the track at {@code index} and plays it.
+	 */
+	public boolean playAt(int index){
+		if(player != null){
+			player.stop();
+		}
+		if(!load(index)){
+			return false;
+		}
+		player.play();
+		return true;
+	}
+
+	public void play(){
+		if(player != null){
+			player.play();
+		}
+	}
+
+	public void pause(){
+		if(player != null){
+			player.pause();
+		}
+	}
+
+	/**
+	 * Pauses while playing, plays otherwise.
+	 */
+	public void toggle(){
+		if(state == State.PLAYING){
+			pause();
+		}
+		else{
+			play();
+		}
+	}
+
+	public void stop(){
+		if(player != null){
+			player.stop();
+		}
+	}
+
+	/**
+	 * Moves to the next track, which keeps playing if the current one was.
+	 * Returns false at the end of the queue or of the shuffle cycle, where
+	 * playback stops and starts over as when the last track ends.
+	 */
+	public boolean next(){
+		if(nextIndex() < 0){
+			if(player != null){
+				rewind();
+			}
+			return false;
+		}
+		return move(takeNextIndex());
+	}
+
+	/**
+	 * Moves to the track before, like {@link #next()}.
+	 */
+	public boolean previous(){
+		return move(previousIndex());
+	}
+
+	public void seek(Duration position){
+		if(player == null){
+			return;
+		}
+		if(Metrics.ENABLED){
+			long start = System.nanoTime();
+			player.seek(position);
+			SEEK.since(start);
+		}
+		else{
+			player.seek(position);
+		}
+	}
+
+	/**
+	 * Length of the current track, or {@code Duration.UNKNOWN}.
+	 */
+	public Duration getLength(){
+		return player != null ? player.getTotalDuration() : Duration.UNKNOWN;
+	}
+
+	public Duration getPosition(){
+		return player != null ? player.getCurrentTime() : Duration.ZERO;
+	}
+
+	// Shuffle and volume
+
+	public boolean isShuffled(){
+		return shuffled;
+	}
+
+	/**
+	 * Turns shuffle on or off. Turning it on starts a new cycle after the
+	 * current track.
+	 */
+	public void setShuffled(boolean value){
+		shuffled = value;
+		if(shuffled){
+			shuffle.reset(getIndex());
+		}
+		preloader.discard();
+	}
+
+	public double getVolume(){
+		return volume;
+	}
+
+	/**
+	 * Sets the volume, from 0 to 1, and unmutes.
+	 */
+	public void setVolume(double value){
+		volume = Math.max(0, Math.min(1, value));
+		muted  = false;
+		if(player != null){
+			player.setVolume(playerVolume());
+			player.setMute(false);
+		}
+		volumeChanged();
+	}
+
+	/**
+	 * Scales the volume of each track by its gain in {@code loudness} once
+	 * the track is ready, so tracks play about as loud as each other. Null
+	 * plays every track at the volume as it is.
+	 */
+	public void setLoudness(TrackLoudness loudness){
+		this.loudness = loudness;
+	}
+
+	/**
+	 * The factor the volume of the current track is scaled by.
+	 */
+	public double getGain(){
+		return gain;
+	}
+
+	public boolean isMuted(){
+		return muted;
+	}
+
+	public void setMuted(boolean value){
+		muted = value;
+		if(player != null){
+			player.setMute(value);
+		}
+		volumeChanged();
+	}
+
+	/**
+	 * Stops and releases the players.
+	 */
+	public void close(){
+		preloader.discard();
+		engine.close();
+		player = null;
+		setState(State.IDLE);
+	}
+
+	// Internals
+
+	private boolean move(int target){
+		if(player == null){
+			return false;
+		}
+		boolean playing = state == State.PLAYING;
+		if(target < 0){
+			if(playing){
+				player.stop();
+			}
+			return false;
+		}
+		if(playing){
+			switchStarted = System.nanoTime();
+			player.stop();
+		}
+		if(!load(target)){
+			switchStarted = 0;
+			return false;
+		}
+		if(playing){
+			player.play();
+		}
+		return true;
+	}
+
+	private void endOfMedia(){
+		if(nextIndex() >= 0){
+			switchStarted = System.nanoTime();
+			if(load(takeNextIndex())){
+				player.play();
+			}
+			else{
+				switchStarted = 0;
+			}
+			return;
+		}
+		rewind();
+		for(Listener listener : listeners){
+			listener.queueFinished();
+		}
+	}
+
+	/**
+	 * Stops at the end of the queue or of the shuffle cycle and loads the
+	 * track that starts it over: row 0, or the first of a new cycle.
+	 */
+	private void rewind(){
+		player.stop();
+		if(!queue.isEmpty()){
+			load(shuffled ? shuffle.next() : 0);
+		}
+	}
+
+	/**
+	 * The track that plays after the current one, or -1 at the end of the
+	 * queue or of the shuffle cycle. Does not move anywhere.
+	 */
+	private int nextIndex(){
+		if(shuffled){
+			return shuffle.peek();
+		}
+		int next = removed ? index : index+1;
+		return next < queue.size() ? next : -1;
+	}
+
+	/**
+	 * Like {@link #nextIndex()}, but moves the shuffle forward and starts a
+	 * new shuffle cycle when the current one is over.
+	 */
+	private int takeNextIndex(){
+		if(shuffled){
+			return shuffle.next();
+		}
+		return nextIndex();
+	}
+
+	private int previousIndex(){
+		if(shuffled){
+			return shuffle.previous();
+		}
+		return index > 0 ? index-1 : -1;
+	}
+
+	private void playerReady(){
+		gain = loudness != null && !removed ? loudness.gain(queue.trackId(index)) : 1;
+		player.setVolume(playerVolume());
+		for(Listener listener : listeners){
+			listener.ready(getIndex(), player.getTotalDuration());
+		}
+	}
+
+	private double playerVolume(){
+		return Math.min(1, volume*gain);
+	}
+
+	private void setState(State value){
+		if(value == state){
+			return;
+		}
+		state = value;
+		for(Listener listener : listeners){
+			listener.stateChanged(value);
+		}
+	}
+
+	private void volumeChanged(){
+		for(Listener listener : listeners){
+			listener.volumeChanged(volume, muted);
+		}
+	}
+
+	/**
+	 * Keeps the shuffle order and the current row in step with the queue.
+	 * If the current track is removed it keeps playing, and next moves on
+	 * to the row that took its place, or rows inserted there.
+	 */
+	private void queueChanged(ListChangeListener.Change<? extends File> change){
+		while(change.next()){
+			if(change.wasPermutated()){
+				shuffle.clear();
+				shuffle.added(queue.size());
+				continue;
+			}
+			if(change.wasRemoved()){
+				int from = change.getFrom();
+				int count = change.getRemovedSize();
+				shuffle.removed(from, count);
+				if(player != null){
+					if(index >= from+count){
+						index -= count;
+					}
+					else if(index >= from){
+						index   = from;
+						removed = true;
+					}
+				}
+			}
+			if(change.wasAdded()){
+				shuffle.inserted(change.getFrom(), change.getAddedSize());
+				int at = change.getFrom();
+				if(player != null && (at < index || at == index && !removed)){
+					index += change.getAddedSize();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaException;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.media.MediaPlayer.Status;
+import javafx.util.Duration;
+
+/**
+ * Owns the one active {@link MediaPlayer}. Listeners are registered here once
+ * and moved from player to player on every switch; the player left behind is
+ * detached and disposed so neither native resources nor listener lists build
+ * up over a long session.
+ *
+ * Every player should be created and disposed through an engine so the
+ * counters returned by {@link #livePlayers()} and {@link #attachedListeners()}
+ * stay meaningful.
+ *
+ * @author DELL
+ */
+public class PlayerEngine {
+
+	private static final AtomicInteger LIVE_PLAYERS       = new AtomicInteger();
+	private static final AtomicInteger ATTACHED_LISTENERS = new AtomicInteger();
+
+	private static final Histogram READY  = Metrics.histogram("media_ready_seconds");
+	private static final AtomicLong ERRORS = Metrics.counter("player_errors_total");
+
+	private final List<ChangeListener<? super Duration>> timeListeners = new ArrayList<ChangeListener<? super Duration>>();
+	private final List<ChangeListener<? super Status>> statusListeners = new ArrayList<ChangeListener<? super Status>>();
+	private final List<ChangeListener<? super Number>> volumeListeners = new ArrayList<ChangeListener<? super Number>>();
+	private Runnable onEndOfMedia;
+
+	private MediaPlayer player;
+
+	/** Players created and not yet disposed, across all engines. */
+	public static int livePlayers(){
+		return LIVE_PLAYERS.get();
+	}
+
+	/** Listeners currently registered on a player, across all engines. */
+	public static int attachedListeners(){
+		return ATTACHED_LISTENERS.get();
+	}
+
+	/**
+	 * Creates a player for the URL {@code source}. With the metrics on, the
+	 * time from here to the player being ready is recorded.
+	 */
+	public MediaPlayer create(String source){
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		return create(new Media(source), start);
+	}
+
+	public MediaPlayer create(Media media){
+		return create(media, Metrics.ENABLED ? System.nanoTime() : 0);
+	}
+
+	private MediaPlayer create(Media media, long start){
+		MediaPlayer created = new MediaPlayer(media);
+		LIVE_PLAYERS.incrementAndGet();
+		if(Metrics.ENABLED){
+			watch(created, start);
+		}
+		return created;
+	}
+
+	public void dispose(MediaPlayer disposed){
+		disposed.dispose();
+		LIVE_PLAYERS.decrementAndGet();
+	}
+
+	public MediaPlayer getPlayer(){
+		return player;
+	}
+
+	/**
+	 * Makes {@code next} the active player. The previous one is detached at
+	 * once and disposed on the next pulse, after the caller had the chance to
+	 * start the new one.
+	 */
+	public MediaPlayer switchTo(MediaPlayer next){
+		final MediaPlayer previous = player;
+		if(previous != null){
+			detach(previous);
+			FxQueue.runLater(new Runnable(){
+
+				public void run() {
+					previous.stop();
+					dispose(previous);
+				}
+
+			});
+		}
+		player = next;
+		if(next != null){
+			attach(next);
+		}
+		return next;
+	}
+
+	/**
+	 * Detaches and disposes the active player.
+	 */
+	public void close(){
+		if(player != null){
+			detach(player);
+			player.stop();
+			dispose(player);
+			player = null;
+		}
+	}
+
+	public void addCurrentTimeListener(ChangeListener<? super Duration> listener){
+		timeListeners.add(listener);
+		if(player != null){
+			player.currentTimeProperty().addListener(listener);
+			ATTACHED_LISTENERS.incrementAndGet();
+		}
+	}
+
+	public void addStatusListener(ChangeListener<? super Status> listener){
+		statusListeners.add(listener);
+		if(player != null){
+			player.statusProperty().addListener(listener);
+			ATTACHED_LISTENERS.incrementAndGet();
+		}
+	}
+
+	public void addVolumeListener(ChangeListener<? super Number> listener){
+		volumeListeners.add(listener);
+		if(player != null){
+			player.volumeProperty().addListener(listener);
+			ATTACHED_LISTENERS.incrementAndGet();
+		}
+	}
+
+	public void setOnEndOfMedia(Runnable value){
+		onEndOfMedia = value;
+		if(player != null){
+			player.setOnEndOfMedia(value);
+		}
+	}
+
+	/**
+	 * Records how long {@code player} takes to be ready from {@code start},
+	 * a {@code System.nanoTime()}, and counts its errors. Done for every
+	 * player created here when the metrics are on; players made elsewhere
+	 * can be watched with it too.
+	 */
+	public static void watch(final MediaPlayer player, final long start){
+		player.statusProperty().addListener(new ChangeListener<Status>(){
+
+			public void changed(ObservableValue<? extends Status> observable, Status oldStatus, Status newStatus) {
+				if(newStatus == Status.READY){
+					READY.since(start);
+				}
+				if(newStatus != Status.UNKNOWN){
+					player.statusProperty().removeListener(this);
+				}
+			}
+
+		});
+		player.errorProperty().addListener(new ChangeListener<MediaException>(){
+
+			public void changed(ObservableValue<? extends MediaException> observable, MediaException oldError, MediaException newError) {
+				if(newError != null){
+					ERRORS.incrementAndGet();
+				}
+			}
+
+		});
+	}
+
+	private void attach(MediaPlayer target){
+		for(ChangeListener<? super Duration> listener : timeListeners){
+			target.currentTimeProperty().addListener(listener);
+		}
+		for(ChangeListener<? super Status> listener : statusListeners){
+			target.statusProperty().addListener(listener);
+		}
+		for(ChangeListener<? super Number> listener : volumeListeners){
+			target.volumeProperty().addListener(listener);
+		}
+		target.setOnEndOfMedia(onEndOfMedia);
+		ATTACHED_LISTENERS.addAndGet(timeListeners.size()+statusListeners.size()+volumeListeners.size());
+	}
+
+	private void detach(MediaPlayer target){
+		for(ChangeListener<? super Duration> listener : timeListeners){
+			target.currentTimeProperty().removeListener(listener);
+		}
+		for(ChangeListener<? super Status> listener : statusListeners){
+			target.statusProperty().removeListener(listener);
+		}
+		for(ChangeListener<? super Number> listener : volumeListeners){
+			target.volumeProperty().removeListener(listener);
+		}
+		target.setOnEndOfMedia(null);
+		ATTACHED_LISTENERS.addAndGet(-(timeListeners.size()+statusListeners.size()+volumeListeners.size()));
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.media.MediaPlayer.Status;
+import javafx.util.Duration;
+
+/**
+ * Opens the track that comes next while the current one is still playing, so
+ * that by the end of the current track a player is already READY and the
+ * switch costs nothing more than a call to {@code play()}.
+ *
+ * The lead time is read from the {@code musicplayer.preload} system property,
+ * in seconds, and defaults to ten.
+ *
+ * @author DELL
+ */
+public class PlayerPreloader {
+
+	private final PlayerEngine engine;
+	private final Duration lead;
+
+	private MediaPlayer prepared;
+	private File preparedFile;
+	private int preparedIndex = -1;
+
+	public PlayerPreloader(PlayerEngine engine){
+		this(engine, Duration.seconds(Double.parseDouble(System.getProperty("musicplayer.preload", "10"))));
+	}
+
+	public PlayerPreloader(PlayerEngine engine, Duration lead){
+		this.engine = engine;
+		this.lead   = lead;
+	}
+
+	/**
+	 * Whether a track with {@code remaining} time left is close enough to its
+	 * end to start opening the next one.
+	 */
+	public boolean isDue(Duration remaining){
+		return remaining.lessThanOrEqualTo(lead);
+	}
+
+	public boolean isPrepared(int index, File file){
+		return prepared != null && preparedIndex == index && file.equals(preparedFile);
+	}
+
+	/**
+	 * Starts opening the track at {@code index}. Anything prepared before for
+	 * another track is thrown away.
+	 */
+	public void prepare(int index, File file){
+		if(isPrepared(index, file)){
+			return;
+		}
+		discard();
+		try{
+			prepared      = engine.create(file.toURI().toString());
+			preparedFile  = file;
+			preparedIndex = index;
+		}
+		catch(RuntimeException e){
+			System.out.println("Cannot preload "+file+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Hands over the prepared player if it is for the given track, otherwise
+	 * returns {@code null}. A player that is still opening is handed over as
+	 * well, it is closer to READY than a new one would be. Either way nothing
+	 * stays prepared afterwards.
+	 */
+	public MediaPlayer take(int index, File file){
+		if(!isPrepared(index, file) || prepared.getStatus() == Status.HALTED){
+			discard();
+			return null;
+		}
+		MediaPlayer ready = prepared;
+		prepared      = null;
+		preparedFile  = null;
+		preparedIndex = -1;
+		return ready;
+	}
+
+	public void discard(){
+		if(prepared != null){
+			engine.dispose(prepared);
+		}
+		prepared      = null;
+		preparedFile  = null;
+		preparedIndex = -1;
+	}
+
+}
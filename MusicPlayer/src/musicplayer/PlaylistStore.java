@@ -0,0 +1,190 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The playlist kept between sessions, in a compact binary file: every
+ * folder once, then every track as the number of its folder and its file
+ * name, both UTF-8. The row that was playing is kept too.
+ *
+ * The file is memory mapped to be read, and written to a temporary file
+ * that is then moved over the old one, so a crash while saving leaves the
+ * previous playlist in place. The mapping is released as soon as the file
+ * is read, or the move would fail on Windows.
+ *
+ * @author DELL
+ */
+public class PlaylistStore {
+
+	private static final int MAGIC   = 0x4d50504c;
+	private static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * What a saved playlist holds.
+	 */
+	public static final class Saved {
+
+		private final List<File> files;
+		private final int current;
+
+		private Saved(List<File> files, int current){
+			this.files   = files;
+			this.current = current;
+		}
+
+		public List<File> getFiles(){
+			return files;
+		}
+
+		/**
+		 * The row that was playing, or -1.
+		 */
+		public int getCurrent(){
+			return current;
+		}
+	}
+
+	private final File file;
+
+	public PlaylistStore(File file){
+		this.file = file;
+	}
+
+	/**
+	 * Writes the tracks {@code ids} of {@code table}, in that order.
+	 * {@code current} is the row playing, or -1.
+	 */
+	public void save(TrackTable table, int[] ids, int current) throws IOException {
+		// Folder names are interned by the table, so equal folders are the same String
+		Map<String, Integer> dirs = new IdentityHashMap<String, Integer>();
+		List<String> dirList = new ArrayList<String>();
+		int[] dirOf = new int[ids.length];
+		for(int i = 0; i < ids.length; i++){
+			String dir = table.directory(ids[i]);
+			Integer index = dirs.get(dir);
+			if(index == null){
+				index = dirList.size();
+				dirs.put(dir, index);
+				dirList.add(dir);
+			}
+			dirOf[i] = index;
+		}
+
+		File temp = new File(file.getPath()+".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(current);
+			out.writeInt(dirList.size());
+			for(String dir : dirList){
+				writeString(out, dir);
+			}
+			out.writeInt(ids.length);
+			for(int i = 0; i < ids.length; i++){
+				out.writeInt(dirOf[i]);
+				writeString(out, table.fileName(ids[i]));
+			}
+		}
+		finally{
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * The saved playlist; empty if there is none or it cannot be read.
+	 */
+	public Saved load() throws IOException {
+		if(!file.isFile()){
+			return new Saved(Collections.<File>emptyList(), -1);
+		}
+		FileInputStream in = new FileInputStream(file);
+		MappedByteBuffer buffer = null;
+		try{
+			FileChannel channel = in.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION){
+				System.out.println("Ignoring unreadable playlist: "+file);
+				return new Saved(Collections.<File>emptyList(), -1);
+			}
+			int current = buffer.getInt();
+			// Every count is checked against the bytes left before it sizes
+			// an array, so a corrupt file cannot ask for gigabytes
+			String[] dirs = new String[checkCount(buffer.getInt(), buffer, 4)];
+			for(int i = 0; i < dirs.length; i++){
+				byte[] dir = new byte[checkCount(buffer.getInt(), buffer, 1)];
+				buffer.get(dir);
+				dirs[i] = new String(dir, UTF8);
+			}
+			int count = checkCount(buffer.getInt(), buffer, 8);
+			List<File> files = new ArrayList<File>(count);
+			byte[] name = new byte[256];
+			for(int i = 0; i < count; i++){
+				String dir = dirs[buffer.getInt()];
+				int length = checkCount(buffer.getInt(), buffer, 1);
+				if(length > name.length){
+					name = new byte[Math.max(length, name.length*2)];
+				}
+				buffer.get(name, 0, length);
+				String fileName = new String(name, 0, length, UTF8);
+				files.add(dir.isEmpty() ? new File(fileName) : new File(dir, fileName));
+			}
+			return new Saved(files, current < files.size() ? current : -1);
+		}
+		catch(BufferUnderflowException e){
+			System.out.println("Ignoring truncated playlist: "+file);
+			return new Saved(Collections.<File>emptyList(), -1);
+		}
+		catch(IndexOutOfBoundsException | NegativeArraySizeException e){
+			System.out.println("Ignoring unreadable playlist: "+file);
+			return new Saved(Collections.<File>emptyList(), -1);
+		}
+		finally{
+			in.close();
+			MappedBuffers.release(buffer);
+		}
+	}
+
+	/**
+	 * {@code count} if that many entries of at least {@code size} bytes fit
+	 * in what is left of {@code buffer}.
+	 */
+	private static int checkCount(int count, ByteBuffer buffer, int size){
+		if(count < 0 || count > buffer.remaining()/size){
+			throw new IndexOutOfBoundsException("Count "+count);
+		}
+		return count;
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+}
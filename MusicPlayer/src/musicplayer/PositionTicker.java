@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.media.MediaPlayer.Status;
+
+/**
+ * Drives the playback position display from the pulse instead of from every
+ * change of {@code currentTime}. The player clock is read once per frame at
+ * most, and between two media ticks the position is moved forward with the
+ * frame time so the bar advances smoothly.
+ *
+ * Subclasses only get called when there is something new to show: the time
+ * label once per whole second, the progress bar when it moved by more than
+ * {@link #resolution()}.
+ *
+ * Start it when playback starts and stop it when it stops; {@link #render()}
+ * draws a single frame for the moments in between, such as a seek while
+ * paused.
+ *
+ * @author DELL
+ */
+public abstract class PositionTicker extends AnimationTimer {
+
+	private double lastClock = -1;
+	private long lastClockFrame;
+
+	private long shownSecond = -1;
+	private double shownFraction = -1;
+
+	protected abstract MediaPlayer player();
+
+	protected abstract void showTime(long seconds);
+
+	protected abstract void showProgress(double fraction);
+
+	/**
+	 * Smallest change of the progress fraction worth drawing.
+	 */
+	protected double resolution(){
+		return 0.001;
+	}
+
+	@Override
+	public void handle(long now) {
+		update(now);
+	}
+
+	public void render(){
+		lastClock = -1;
+		update(System.nanoTime());
+	}
+
+	/**
+	 * Shows the start of the track, whatever the player says.
+	 */
+	public void reset(){
+		lastClock     = -1;
+		shownSecond   = 0;
+		shownFraction = 0;
+		showTime(0);
+		showProgress(0);
+	}
+
+	private void update(long now){
+		MediaPlayer player = player();
+		if(player == null){
+			return;
+		}
+		double total = player.getTotalDuration().toSeconds();
+		double clock = player.getCurrentTime().toSeconds();
+
+		double position;
+		if(clock != lastClock){
+			lastClock      = clock;
+			lastClockFrame = now;
+			position       = clock;
+		}
+		else if(player.getStatus() == Status.PLAYING){
+			position = clock+(now-lastClockFrame)/1e9*player.getCurrentRate();
+		}
+		else{
+			position = clock;
+		}
+		if(total > 0 && position > total){
+			position = total;
+		}
+
+		long second = (long) position;
+		if(second != shownSecond){
+			shownSecond = second;
+			showTime(second);
+		}
+
+		if(total > 0 && !Double.isInfinite(total)){
+			double fraction = position/total;
+			if(Math.abs(fraction-shownFraction) >= resolution()){
+				shownFraction = fraction;
+				showProgress(fraction);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javafx.scene.control.ListView;
+
+/**
+ * Asks the {@link MetadataService} for the tags of the playlist rows on
+ * screen, and of a screenful of rows on each side of them so scrolling finds
+ * them ready.
+ *
+ * The ListView says nothing about which rows are visible, so the cells tell
+ * us instead: every {@link TrackCell} reports when it is given a row, and
+ * once per pulse the rows the cells hold are taken as the viewport. When it
+ * moved, older requests are dropped and the new rows are asked for, the
+ * visible ones first. Loaded tags are pushed to the cells showing them.
+ *
+ * @author DELL
+ */
+public class RowMetadataLoader implements MetadataService.Listener {
+
+	private final ListView<File> listView;
+	private final MetadataService service;
+
+	private final Set<TrackCell> cells = Collections.newSetFromMap(new WeakHashMap<TrackCell, Boolean>());
+
+	private boolean scheduled;
+	private List<File> shownItems;
+	private int shownFirst = -1;
+	private int shownLast = -1;
+
+	public RowMetadataLoader(ListView<File> listView, MetadataService service){
+		this.listView = listView;
+		this.service  = service;
+		service.addListener(this);
+	}
+
+	public MetadataService getService(){
+		return service;
+	}
+
+	void register(TrackCell cell){
+		cells.add(cell);
+	}
+
+	/**
+	 * Called by a cell that was given a row to show.
+	 */
+	void rowShown(){
+		if(scheduled){
+			return;
+		}
+		scheduled = true;
+		FxQueue.runLater(new Runnable(){
+
+			public void run() {
+				scheduled = false;
+				update();
+			}
+
+		});
+	}
+
+	private void update(){
+		List<File> items = listView.getItems();
+		if(items == null || items.isEmpty()){
+			return;
+		}
+		int first = Integer.MAX_VALUE;
+		int last = -1;
+		for(TrackCell cell : cells){
+			int index = cell.getIndex();
+			if(!cell.isEmpty() && index >= 0 && index < items.size()){
+				first = Math.min(first, index);
+				last  = Math.max(last, index);
+			}
+		}
+		if(last < 0 || (items == shownItems && first == shownFirst && last == shownLast)){
+			return;
+		}
+		shownItems = items;
+		shownFirst = first;
+		shownLast  = last;
+
+		service.cancelPending();
+		int span = last-first+1;
+		for(int i = first; i <= last; i++){
+			service.request(items.get(i));
+		}
+		for(int i = 1; i <= span; i++){
+			if(last+i < items.size()){
+				service.request(items.get(last+i));
+			}
+			if(first-i >= 0){
+				service.request(items.get(first-i));
+			}
+		}
+	}
+
+	/**
+	 * Has the cells show track lengths found since they were given their
+	 * rows.
+	 */
+	public void durationsChanged(){
+		for(TrackCell cell : cells){
+			cell.showDuration();
+		}
+	}
+
+	public void loaded(File file, TrackTags tags){
+		for(TrackCell cell : cells){
+			if(file.equals(cell.getItem())){
+				cell.showTags(tags);
+			}
+		}
+	}
+
+}
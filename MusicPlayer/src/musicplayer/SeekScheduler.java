@@ -0,0 +1,187 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.animation.AnimationTimer;
+import javafx.util.Duration;
+
+/**
+ * Turns the stream of positions from a dragged seek bar into few seeks. A
+ * seek costs a lot on a VBR MP3 or a remote track, and a drag asks for
+ * dozens, so only one is handed to the player at a time: positions asked
+ * for meanwhile replace each other, and when the seek under way has landed
+ * the latest one is sent. Every position asked for is shown at once
+ * through {@link Listener#preview(Duration)}, and the last one of a drag is
+ * always sent as it is.
+ *
+ * A seek has landed when the player reports a new position, or after
+ * {@link #MAX_WAIT} ms if it does not. Called on the FX thread.
+ *
+ * @author DELL
+ */
+public class SeekScheduler {
+
+	private static final long MAX_WAIT = 200;
+
+	// Reported positions this close to the target count as landed
+	private static final double TOLERANCE = 50;
+
+	private static final Histogram SETTLE = Metrics.histogram("seek_settle_seconds");
+	private static final AtomicLong COALESCED = Metrics.counter("seeks_coalesced_total");
+
+	/**
+	 * What is seeked.
+	 */
+	public interface Seekable {
+
+		void seek(Duration position);
+
+		/** Where the player reports to be. */
+		Duration getPosition();
+	}
+
+	public interface Listener {
+
+		/**
+		 * A position was asked for; it is where the player will be.
+		 */
+		void preview(Duration position);
+	}
+
+	private final Seekable target;
+	private final Listener listener;
+
+	private Duration pending;
+	private Duration inFlight;
+	private Duration reportedBefore;
+	private long sentAt;
+
+	private long dragStarted;
+	private boolean finishing;
+	private int coalesced;
+	private long lastLatency;
+
+	private final AnimationTimer watch = new AnimationTimer(){
+
+		@Override
+		public void handle(long now) {
+			check();
+		}
+
+	};
+
+	public SeekScheduler(Seekable target, Listener listener){
+		this.target   = target;
+		this.listener = listener;
+	}
+
+	/**
+	 * Asks for {@code position}. It is sent now if no seek is under way,
+	 * otherwise when the one under way lands, unless asked for something
+	 * else by then.
+	 */
+	public void request(Duration position){
+		if(dragStarted == 0){
+			dragStarted = System.nanoTime();
+		}
+		listener.preview(position);
+		if(inFlight == null){
+			send(position);
+			return;
+		}
+		if(pending != null){
+			coalesced++;
+			if(Metrics.ENABLED){
+				COALESCED.incrementAndGet();
+			}
+		}
+		// Back where the seek under way goes, nothing more to send
+		pending = inFlight.equals(position) ? null : position;
+	}
+
+	/**
+	 * Asks for {@code position} as the end of a drag. It is the last seek
+	 * sent, so the player ends where the thumb was let go.
+	 */
+	public void finish(Duration position){
+		request(position);
+		finishing = true;
+	}
+
+	/**
+	 * Drops the seek waited for, as when another track is loaded.
+	 */
+	public void cancel(){
+		watch.stop();
+		pending  = null;
+		inFlight = null;
+		dragStarted = 0;
+		coalesced   = 0;
+		finishing   = false;
+	}
+
+	public boolean isSeeking(){
+		return inFlight != null;
+	}
+
+	/**
+	 * Time, in nanoseconds, from a seek being sent to the player reporting
+	 * the new position, for the last seek that did.
+	 */
+	public long getLastLatency(){
+		return lastLatency;
+	}
+
+	private void send(Duration position){
+		inFlight       = position;
+		reportedBefore = target.getPosition();
+		sentAt         = System.nanoTime();
+		target.seek(position);
+		watch.start();
+	}
+
+	private void check(){
+		if(inFlight == null){
+			watch.stop();
+			return;
+		}
+		long waited = System.nanoTime()-sentAt;
+		Duration reported = target.getPosition();
+		boolean moved = reported != null && (!reported.equals(reportedBefore)
+				|| Math.abs(reported.toMillis()-inFlight.toMillis()) < TOLERANCE);
+		if(!moved && waited < MAX_WAIT*1000000){
+			return;
+		}
+		if(moved){
+			lastLatency = waited;
+			if(Metrics.ENABLED){
+				SETTLE.record(waited);
+			}
+		}
+		inFlight = null;
+		if(pending != null){
+			Duration next = pending;
+			pending = null;
+			send(next);
+			return;
+		}
+		watch.stop();
+		if(finishing){
+			done();
+		}
+	}
+
+	private void done(){
+		if(dragStarted != 0 && Metrics.ENABLED){
+			System.out.println("Seek: "+lastLatency/1000+" us to land, "+(System.nanoTime()-dragStarted)/1000000+" ms in all, "+coalesced+" positions skipped");
+		}
+		dragStarted = 0;
+		coalesced   = 0;
+		finishing   = false;
+	}
+
+}
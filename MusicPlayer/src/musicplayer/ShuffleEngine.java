@@ -0,0 +1,238 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Random play order over a list of {@code size} tracks, with no repeats until
+ * every track has played once.
+ *
+ * The order is an {@code int[]} permutation that is shuffled lazily: the
+ * tracks before {@code played} have been drawn, in the order they played, and
+ * each {@link #next()} swaps a random one of the remaining tracks into the
+ * next slot, one Fisher-Yates step at a time. {@code slot[]} is the inverse
+ * permutation, so the engine can find any track without searching.
+ *
+ * Tracks appended to the list join the undrawn part and can come up in the
+ * current cycle. Tracks removed from the list are dropped wherever they are;
+ * since that shifts the index of every track after them, removal is a
+ * single pass over the arrays.
+ *
+ * @author DELL
+ */
+public class ShuffleEngine {
+
+	private final Random random;
+
+	private int[] order = new int[16];
+	private int[] slot  = new int[16];
+	private int size;
+	private int played;
+
+	// Position in the drawn part while stepping back, -1 when at its end
+	private int cursor = -1;
+
+	// Whether order[played] was already drawn by peek()
+	private boolean peeked;
+
+	public ShuffleEngine(){
+		this(new Random());
+	}
+
+	public ShuffleEngine(Random random){
+		this.random = random;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Tracks drawn so far in the current cycle.
+	 */
+	public int played(){
+		return played;
+	}
+
+	/**
+	 * Starts a new cycle. {@code current}, if not -1, counts as already
+	 * played so it does not come up again straight away.
+	 */
+	public void reset(int current){
+		played = 0;
+		cursor = -1;
+		peeked = false;
+		if(current >= 0 && current < size){
+			swap(0, slot[current]);
+			played = 1;
+		}
+	}
+
+	/**
+	 * The next track in random order. When every track has played a new cycle
+	 * begins, avoiding the track that played last.
+	 */
+	public int next(){
+		if(size == 0){
+			return -1;
+		}
+		if(cursor >= 0){
+			cursor++;
+			if(cursor < played){
+				return order[cursor];
+			}
+			cursor = -1;
+		}
+		if(peeked){
+			peeked = false;
+			return order[played++];
+		}
+		if(played == size){
+			int last = order[played-1];
+			played = 0;
+			if(size > 1){
+				int pick = random.nextInt(size-1);
+				swap(0, pick >= slot[last] ? pick+1 : pick);
+				played = 1;
+				return order[0];
+			}
+		}
+		swap(played, played+random.nextInt(size-played));
+		return order[played++];
+	}
+
+	/**
+	 * The track that played before the current one, or -1 at the start of the
+	 * cycle.
+	 */
+	public int previous(){
+		int at = cursor >= 0 ? cursor : played-1;
+		if(at <= 0){
+			return -1;
+		}
+		cursor = at-1;
+		return order[cursor];
+	}
+
+	/**
+	 * The track {@link #next()} will return, drawing it now if needed; used
+	 * to preload it.
+	 */
+	public int peek(){
+		if(size == 0){
+			return -1;
+		}
+		if(cursor >= 0 && cursor+1 < played){
+			return order[cursor+1];
+		}
+		if(played == size){
+			return -1;
+		}
+		if(!peeked){
+			swap(played, played+random.nextInt(size-played));
+			peeked = true;
+		}
+		return order[played];
+	}
+
+	/**
+	 * Tracks were appended at the end of the list.
+	 */
+	public void added(int count){
+		ensureCapacity(size+count);
+		for(int i = 0; i < count; i++){
+			order[size] = size;
+			slot[size]  = size;
+			size++;
+		}
+	}
+
+	/**
+	 * {@code count} tracks were inserted at {@code from}.
+	 */
+	public void inserted(int from, int count){
+		if(from >= size){
+			added(count);
+			return;
+		}
+		for(int i = 0; i < size; i++){
+			if(order[i] >= from){
+				order[i] += count;
+			}
+		}
+		ensureCapacity(size+count);
+		for(int i = 0; i < count; i++){
+			order[size+i] = from+i;
+		}
+		size += count;
+		peeked = false;
+		rebuildSlots();
+	}
+
+	/**
+	 * {@code count} tracks were removed starting at {@code from}.
+	 */
+	public void removed(int from, int count){
+		int to = from+count;
+		int write = 0;
+		int newPlayed = played;
+		int newCursor = cursor;
+		for(int read = 0; read < size; read++){
+			int track = order[read];
+			if(track >= from && track < to){
+				if(read < played){
+					newPlayed--;
+				}
+				if(cursor >= 0 && read <= cursor){
+					newCursor--;
+				}
+				continue;
+			}
+			order[write++] = track >= to ? track-count : track;
+		}
+		size   = write;
+		played = newPlayed;
+		peeked = false;
+		cursor = cursor >= 0 ? Math.max(newCursor, 0) : -1;
+		if(cursor >= played){
+			cursor = -1;
+		}
+		rebuildSlots();
+	}
+
+	public void clear(){
+		size   = 0;
+		played = 0;
+		cursor = -1;
+		peeked = false;
+	}
+
+	private void swap(int i, int j){
+		int a = order[i];
+		int b = order[j];
+		order[i] = b;
+		order[j] = a;
+		slot[b]  = i;
+		slot[a]  = j;
+	}
+
+	private void rebuildSlots(){
+		for(int i = 0; i < size; i++){
+			slot[order[i]] = i;
+		}
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity > order.length){
+			int length = Math.max(capacity, order.length*2);
+			order = Arrays.copyOf(order, length);
+			slot  = Arrays.copyOf(slot, length);
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Records how long the phases of startup take, counted from the moment the
+ * timer was created, so time to first frame can be followed from one build
+ * to the next.
+ *
+ * @author DELL
+ */
+public final class StartupTimer {
+
+	private final long origin = System.nanoTime();
+	private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Records that {@code phase} is over.
+	 */
+	public synchronized void mark(String phase){
+		phases.put(phase, System.nanoTime()-origin);
+	}
+
+	/**
+	 * Records {@code phase} on the next pulse, once the scene as it is now
+	 * has been rendered, and prints every phase recorded by then when
+	 * {@link Metrics#ENABLED}. Called on the FX thread.
+	 */
+	public void markNextFrame(final String phase){
+		new AnimationTimer(){
+
+			@Override
+			public void handle(long now) {
+				stop();
+				mark(phase);
+				if(Metrics.ENABLED){
+					System.out.println("Startup: "+StartupTimer.this);
+				}
+			}
+
+		}.start();
+	}
+
+	/**
+	 * Milliseconds from the start to the end of {@code phase}, or -1 if it
+	 * was not recorded.
+	 */
+	public synchronized long elapsed(String phase){
+		Long nanos = phases.get(phase);
+		return nanos != null ? nanos/1000000 : -1;
+	}
+
+	/**
+	 * Every phase recorded so far with the milliseconds it ended at.
+	 */
+	public synchronized Map<String, Long> getPhases(){
+		Map<String, Long> millis = new LinkedHashMap<String, Long>();
+		for(Map.Entry<String, Long> entry : phases.entrySet()){
+			millis.put(entry.getKey(), entry.getValue()/1000000);
+		}
+		return millis;
+	}
+
+	@Override
+	public synchronized String toString(){
+		StringBuilder text = new StringBuilder();
+		for(Map.Entry<String, Long> entry : phases.entrySet()){
+			if(text.length() > 0){
+				text.append(", ");
+			}
+			text.append(entry.getKey()).append(' ').append(entry.getValue()/1000000).append(" ms");
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,573 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads title, artist, album, year and cover straight from a file's bytes,
+ * without opening a {@code Media}. Understands ID3v2.2, 2.3 and 2.4 tags at
+ * the start of the file, the ID3v1 tag at its end, and the iTunes item list
+ * of MP4 files.
+ *
+ * Only the bytes that matter are read: the first block of the file, the
+ * frames and atoms of interest, and the last 128 bytes. Covers are located
+ * but not read.
+ *
+ * @author DELL
+ */
+public final class TagReader {
+
+	private static final Charset LATIN1   = Charset.forName("ISO-8859-1");
+	private static final Charset UTF8     = Charset.forName("UTF-8");
+	private static final Charset UTF16    = Charset.forName("UTF-16");
+	private static final Charset UTF16BE  = Charset.forName("UTF-16BE");
+
+	// Read at once from the start of the file; most tags without a cover fit
+	private static final int BLOCK = 16*1024;
+
+	// Tags that must be decoded as a whole are not read past this
+	private static final int MAX_TAG = 16*1024*1024;
+
+	private static final int FRONT_COVER = 3;
+
+	private TagReader(){
+	}
+
+	/**
+	 * The tags of {@code file}, or {@link TrackTags#NONE} if it has none that
+	 * can be read.
+	 */
+	public static TrackTags read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try{
+			return new Reader(file, in.getChannel()).read();
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	private static final class Reader {
+
+		private final File file;
+		private final FileChannel channel;
+		private final long length;
+
+		private ByteBuffer block;
+
+		private String title;
+		private String artist;
+		private String album;
+		private String year;
+
+		private byte[] image;
+		private long imageOffset = -1;
+		private int imageLength;
+		private int imageType = -1;
+
+		Reader(File file, FileChannel channel) throws IOException {
+			this.file    = file;
+			this.channel = channel;
+			this.length  = channel.size();
+		}
+
+		TrackTags read() throws IOException {
+			block = read(0, (int) Math.min(BLOCK, length));
+			if(block.remaining() >= 10 && block.get(0) == 'I' && block.get(1) == 'D' && block.get(2) == '3'){
+				readId3v2();
+			}
+			else if(block.remaining() >= 8 && block.get(4) == 'f' && block.get(5) == 't' && block.get(6) == 'y' && block.get(7) == 'p'){
+				readAtoms(0, length, 0);
+			}
+			if((title == null || artist == null || album == null || year == null) && length >= 128){
+				readId3v1();
+			}
+			if(title == null && artist == null && album == null && year == null && image == null && imageLength == 0){
+				return TrackTags.NONE;
+			}
+			return new TrackTags(title, artist, album, year, file, image, imageOffset, imageLength);
+		}
+
+		/**
+		 * {@code count} bytes from {@code position}, served from the first
+		 * block when they are in it.
+		 */
+		private ByteBuffer read(long position, int count) throws IOException {
+			if(block != null && position+count <= block.limit()){
+				ByteBuffer slice = block.duplicate();
+				slice.position((int) position);
+				slice.limit((int) position+count);
+				return slice.slice();
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(count);
+			while(buffer.hasRemaining()){
+				if(channel.read(buffer, position+buffer.position()) < 0){
+					break;
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+
+		// ID3v2
+
+		private void readId3v2() throws IOException {
+			int major = block.get(3);
+			int flags = block.get(5) & 0xff;
+			int size  = syncsafe(block, 6);
+			if(major < 2 || major > 4 || size <= 0){
+				return;
+			}
+			if(major == 2 && (flags & 0x40) != 0){
+				// Compressed 2.2 tags were never defined
+				return;
+			}
+			boolean unsync = (flags & 0x80) != 0;
+			long start = 10;
+			long end = Math.min(10L+size, length);
+			if(unsync){
+				// The whole tag must be decoded before frames can be found
+				ByteBuffer tag = unsynchronise(read(start, (int) Math.min(end-start, MAX_TAG)));
+				readFrames(tag, major);
+				return;
+			}
+			if(major > 2 && (flags & 0x40) != 0){
+				ByteBuffer header = read(start, 4);
+				if(header.remaining() < 4){
+					return;
+				}
+				start += major == 3 ? 4+(header.getInt(0) & 0xffffffffL) : syncsafe(header, 0);
+				if(start <= 10 || start > end){
+					return;
+				}
+			}
+			long position = start;
+			int headerSize = major == 2 ? 6 : 10;
+			while(position+headerSize <= end){
+				ByteBuffer header = read(position, headerSize);
+				if(header.remaining() < headerSize || header.get(0) == 0){
+					break;
+				}
+				String id = major == 2 ? ascii(header, 0, 3) : ascii(header, 0, 4);
+				int frameSize = major == 2 ? int24(header, 3) : major == 3 ? header.getInt(4) : syncsafe(header, 4);
+				int frameFlags = major == 2 ? 0 : header.get(9) & 0xff;
+				long body = position+headerSize;
+				if(frameSize < 0 || body+frameSize > end){
+					break;
+				}
+				if(wanted(id)){
+					frame(id, major, frameFlags, body, frameSize);
+				}
+				position = body+frameSize;
+			}
+		}
+
+		/**
+		 * Walks the frames of a tag that was read and decoded whole.
+		 */
+		private void readFrames(ByteBuffer tag, int major) throws IOException {
+			int headerSize = major == 2 ? 6 : 10;
+			int position = 0;
+			int flags = block.get(5) & 0xff;
+			if(major > 2 && (flags & 0x40) != 0 && tag.remaining() >= 4){
+				position = major == 3 ? 4+tag.getInt(0) : syncsafe(tag, 0);
+			}
+			while(position >= 0 && position+headerSize <= tag.limit()){
+				if(tag.get(position) == 0){
+					break;
+				}
+				String id = major == 2 ? ascii(tag, position, 3) : ascii(tag, position, 4);
+				int frameSize = major == 2 ? int24(tag, position+3) : major == 3 ? tag.getInt(position+4) : syncsafe(tag, position+4);
+				int frameFlags = major == 2 ? 0 : tag.get(position+9) & 0xff;
+				int body = position+headerSize;
+				if(frameSize < 0 || body+frameSize > tag.limit()){
+					break;
+				}
+				if(wanted(id)){
+					ByteBuffer data = tag.duplicate();
+					data.position(body);
+					data.limit(body+frameSize);
+					frameData(id, major, frameFlags, data.slice(), -1);
+				}
+				position = body+frameSize;
+			}
+		}
+
+		private void frame(String id, int major, int flags, long body, int size) throws IOException {
+			boolean picture = id.equals("APIC") || id.equals("PIC");
+			boolean unsync = major == 4 && (flags & 0x02) != 0;
+			if(!picture && size > 64*1024 || size > MAX_TAG){
+				return;
+			}
+			// Only the picture header is needed to locate the picture
+			int count = picture && !unsync ? Math.min(size, 1024) : size;
+			long located = imageOffset;
+			frameData(id, major, flags, read(body, count), body);
+			if(picture && imageOffset != located && imageOffset >= 0){
+				// The rest of the frame is the picture
+				imageLength = (int) (body+size-imageOffset);
+			}
+		}
+
+		/**
+		 * Decodes one frame. {@code body} is where the data starts in the
+		 * file, or -1 when the data is not a plain copy of the file.
+		 */
+		private void frameData(String id, int major, int flags, ByteBuffer data, long body) throws IOException {
+			if(major == 3 && (flags & 0xc0) != 0){
+				return;
+			}
+			if(major == 4){
+				if((flags & 0x0c) != 0){
+					return;
+				}
+				int skip = ((flags & 0x40) != 0 ? 1 : 0)+((flags & 0x01) != 0 ? 4 : 0);
+				if(skip > data.remaining()){
+					return;
+				}
+				data.position(data.position()+skip);
+				data = data.slice();
+				if(body >= 0){
+					body += skip;
+				}
+				if((flags & 0x02) != 0){
+					data = unsynchronise(data);
+					body = -1;
+				}
+			}
+			else if(major == 3 && (flags & 0x20) != 0){
+				if(data.remaining() < 1){
+					return;
+				}
+				data.position(data.position()+1);
+				data = data.slice();
+				if(body >= 0){
+					body++;
+				}
+			}
+			if(id.equals("APIC") || id.equals("PIC")){
+				picture(data, id.equals("PIC"), body);
+				return;
+			}
+			String text = text(data);
+			if(text == null || text.isEmpty()){
+				return;
+			}
+			if(id.equals("TIT2") || id.equals("TT2")){
+				title = text;
+			}
+			else if(id.equals("TPE1") || id.equals("TP1")){
+				artist = text;
+			}
+			else if(id.equals("TALB") || id.equals("TAL")){
+				album = text;
+			}
+			else if(id.equals("TYER") || id.equals("TYE") || id.equals("TDRC")){
+				year = text.length() > 4 ? text.substring(0, 4) : text;
+			}
+		}
+
+		private void picture(ByteBuffer data, boolean v22, long body) throws IOException {
+			if(data.remaining() < 4){
+				return;
+			}
+			int encoding = data.get(0);
+			int position = 1;
+			if(v22){
+				position += 3;
+			}
+			else{
+				while(position < data.limit() && data.get(position) != 0){
+					position++;
+				}
+				position++;
+			}
+			if(position >= data.limit()){
+				return;
+			}
+			int type = data.get(position++) & 0xff;
+			position = skipText(data, position, encoding);
+			if(position < 0 || position >= data.limit()){
+				return;
+			}
+			// Keep the front cover over any other picture
+			if(imageType == FRONT_COVER || (imageType >= 0 && type != FRONT_COVER)){
+				return;
+			}
+			imageType = type;
+			if(body >= 0){
+				image       = null;
+				imageOffset = body+position;
+				imageLength = data.limit()-position;
+			}
+			else{
+				image = new byte[data.limit()-position];
+				ByteBuffer copy = data.duplicate();
+				copy.position(position);
+				copy.get(image);
+				imageOffset = -1;
+				imageLength = image.length;
+			}
+		}
+
+		private boolean wanted(String id){
+			return id.equals("TIT2") || id.equals("TPE1") || id.equals("TALB") || id.equals("TYER") || id.equals("TDRC") || id.equals("APIC")
+					|| id.equals("TT2") || id.equals("TP1") || id.equals("TAL") || id.equals("TYE") || id.equals("PIC");
+		}
+
+		// ID3v1
+
+		private void readId3v1() throws IOException {
+			ByteBuffer tag = read(length-128, 128);
+			if(tag.remaining() < 128 || tag.get(0) != 'T' || tag.get(1) != 'A' || tag.get(2) != 'G'){
+				return;
+			}
+			if(title == null){
+				title = latin1(tag, 3, 30);
+			}
+			if(artist == null){
+				artist = latin1(tag, 33, 30);
+			}
+			if(album == null){
+				album = latin1(tag, 63, 30);
+			}
+			if(year == null){
+				year = latin1(tag, 93, 4);
+			}
+		}
+
+		// MP4
+
+		/**
+		 * Walks the atoms between {@code from} and {@code to} down to
+		 * moov/udta/meta/ilst.
+		 */
+		private void readAtoms(long from, long to, int depth) throws IOException {
+			long position = from;
+			while(position+8 <= to){
+				ByteBuffer header = read(position, 16);
+				if(header.remaining() < 8){
+					return;
+				}
+				long size = header.getInt(0) & 0xffffffffL;
+				String type = ascii(header, 4, 4);
+				int headerSize = 8;
+				if(size == 1 && header.remaining() >= 16){
+					size = header.getLong(8);
+					headerSize = 16;
+				}
+				else if(size == 0){
+					size = to-position;
+				}
+				if(size < headerSize || position+size > to){
+					return;
+				}
+				long body = position+headerSize;
+				long end = position+size;
+				if(type.equals("moov") || type.equals("udta")){
+					readAtoms(body, end, depth+1);
+				}
+				else if(type.equals("meta")){
+					// meta is a full atom: version and flags come first
+					readAtoms(body+4, end, depth+1);
+				}
+				else if(type.equals("ilst")){
+					readItems(body, end);
+					return;
+				}
+				position = end;
+			}
+		}
+
+		private void readItems(long from, long to) throws IOException {
+			long position = from;
+			while(position+8 <= to){
+				ByteBuffer header = read(position, 8);
+				if(header.remaining() < 8){
+					return;
+				}
+				long size = header.getInt(0) & 0xffffffffL;
+				if(size < 8 || position+size > to){
+					return;
+				}
+				int kind = header.getInt(4);
+				long data = position+8;
+				ByteBuffer dataHeader = read(data, 16);
+				// Each item holds a data atom: size, "data", type, locale, value
+				if(dataHeader.remaining() == 16 && dataHeader.getInt(4) == 0x64617461){
+					long valueStart = data+16;
+					int valueLength = (int) Math.min(dataHeader.getInt(0)-16L, position+size-valueStart);
+					if(valueLength > 0){
+						item(kind, valueStart, valueLength);
+					}
+				}
+				position += size;
+			}
+		}
+
+		private void item(int kind, long start, int count) throws IOException {
+			if(kind == 0x636f7672){
+				// covr
+				if(imageLength == 0){
+					imageOffset = start;
+					imageLength = count;
+					imageType   = FRONT_COVER;
+				}
+				return;
+			}
+			if(count > 64*1024){
+				return;
+			}
+			String text = null;
+			switch(kind){
+			case 0xa96e616d: // title
+			case 0xa9415254: // artist
+			case 0xa9616c62: // album
+			case 0xa9646179: // day
+				ByteBuffer value = read(start, count);
+				text = trim(UTF8.decode(value).toString());
+				break;
+			default:
+				return;
+			}
+			if(text.isEmpty()){
+				return;
+			}
+			switch(kind){
+			case 0xa96e616d:
+				title = text;
+				break;
+			case 0xa9415254:
+				artist = text;
+				break;
+			case 0xa9616c62:
+				album = text;
+				break;
+			default:
+				year = text.length() > 4 ? text.substring(0, 4) : text;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * A text frame: an encoding byte, then the text. Of several values only
+	 * the first is kept.
+	 */
+	private static String text(ByteBuffer data){
+		if(data.remaining() < 2){
+			return null;
+		}
+		int encoding = data.get(0);
+		ByteBuffer bytes = data.duplicate();
+		bytes.position(1);
+		int end = textEnd(bytes, 1, encoding);
+		bytes.limit(end);
+		return trim(charset(encoding).decode(bytes.slice()).toString());
+	}
+
+	private static int skipText(ByteBuffer data, int position, int encoding){
+		int end = textEnd(data, position, encoding);
+		int terminator = encoding == 1 || encoding == 2 ? 2 : 1;
+		return end+terminator;
+	}
+
+	/**
+	 * Where the text starting at {@code position} ends: its terminator, or
+	 * the end of the data.
+	 */
+	private static int textEnd(ByteBuffer data, int position, int encoding){
+		int limit = data.limit();
+		if(encoding == 1 || encoding == 2){
+			for(int i = position; i+1 < limit; i += 2){
+				if(data.get(i) == 0 && data.get(i+1) == 0){
+					return i;
+				}
+			}
+			return limit-((limit-position) & 1);
+		}
+		for(int i = position; i < limit; i++){
+			if(data.get(i) == 0){
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	private static Charset charset(int encoding){
+		switch(encoding){
+		case 1:
+			return UTF16;
+		case 2:
+			return UTF16BE;
+		case 3:
+			return UTF8;
+		default:
+			return LATIN1;
+		}
+	}
+
+	private static String latin1(ByteBuffer data, int offset, int count){
+		int end = offset;
+		while(end < offset+count && data.get(end) != 0){
+			end++;
+		}
+		ByteBuffer bytes = data.duplicate();
+		bytes.position(offset);
+		bytes.limit(end);
+		String text = trim(LATIN1.decode(bytes).toString());
+		return text.isEmpty() ? null : text;
+	}
+
+	private static String trim(String text){
+		int end = text.length();
+		while(end > 0 && (text.charAt(end-1) == 0 || Character.isWhitespace(text.charAt(end-1)))){
+			end--;
+		}
+		return text.substring(0, end).trim();
+	}
+
+	private static String ascii(ByteBuffer data, int offset, int count){
+		char[] chars = new char[count];
+		for(int i = 0; i < count; i++){
+			chars[i] = (char) (data.get(offset+i) & 0xff);
+		}
+		return new String(chars);
+	}
+
+	private static int syncsafe(ByteBuffer data, int offset){
+		return (data.get(offset) & 0x7f) << 21 | (data.get(offset+1) & 0x7f) << 14
+				| (data.get(offset+2) & 0x7f) << 7 | data.get(offset+3) & 0x7f;
+	}
+
+	private static int int24(ByteBuffer data, int offset){
+		return (data.get(offset) & 0xff) << 16 | (data.get(offset+1) & 0xff) << 8 | data.get(offset+2) & 0xff;
+	}
+
+	/**
+	 * Undoes ID3 unsynchronisation: every 0xFF 0x00 pair becomes 0xFF.
+	 */
+	private static ByteBuffer unsynchronise(ByteBuffer data){
+		byte[] out = new byte[data.remaining()];
+		int count = 0;
+		byte previous = 0;
+		for(int i = data.position(); i < data.limit(); i++){
+			byte b = data.get(i);
+			if(!(previous == (byte) 0xff && b == 0)){
+				out[count++] = b;
+			}
+			previous = b;
+		}
+		return ByteBuffer.wrap(out, 0, count).slice();
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+/**
+ * Time labels built digit by digit into a char buffer instead of going
+ * through {@code String.format}.
+ *
+ * @author DELL
+ */
+public final class TimeFormat {
+
+	private TimeFormat(){
+	}
+
+	/**
+	 * Writes {@code seconds} as {@code hh:mm:ss} into {@code buf}, which
+	 * must hold at least 8 chars. Returns the number of chars written; more
+	 * than 8 are needed only past 99 hours.
+	 */
+	public static int hms(long seconds, char[] buf){
+		if(seconds < 0){
+			seconds = 0;
+		}
+		long hours = seconds/3600;
+		int minutes = (int) (seconds/60%60);
+		int secs = (int) (seconds%60);
+		int pos = hours > 99 ? digits(hours, buf, 0) : two(hours, buf, 0);
+		buf[pos++] = ':';
+		pos = two(minutes, buf, pos);
+		buf[pos++] = ':';
+		return two(secs, buf, pos);
+	}
+
+	/**
+	 * Writes {@code seconds} as {@code mm:ss} into {@code buf}, minutes are
+	 * not wrapped into hours.
+	 */
+	public static int ms(long seconds, char[] buf){
+		if(seconds < 0){
+			seconds = 0;
+		}
+		long minutes = seconds/60;
+		int secs = (int) (seconds%60);
+		int pos = minutes > 99 ? digits(minutes, buf, 0) : two(minutes, buf, 0);
+		buf[pos++] = ':';
+		return two(secs, buf, pos);
+	}
+
+	public static String hms(double seconds){
+		char[] buf = new char[24];
+		return new String(buf, 0, hms(toSeconds(seconds), buf));
+	}
+
+	public static String ms(double seconds){
+		char[] buf = new char[24];
+		return new String(buf, 0, ms(toSeconds(seconds), buf));
+	}
+
+	private static long toSeconds(double seconds){
+		return Double.isNaN(seconds) || Double.isInfinite(seconds) ? 0 : (long) seconds;
+	}
+
+	private static int two(long value, char[] buf, int pos){
+		buf[pos]   = (char) ('0'+value/10);
+		buf[pos+1] = (char) ('0'+value%10);
+		return pos+2;
+	}
+
+	private static int digits(long value, char[] buf, int pos){
+		int length = 0;
+		for(long rest = value; rest > 0; rest /= 10){
+			length++;
+		}
+		for(int i = pos+length-1; i >= pos; i--){
+			buf[i] = (char) ('0'+value%10);
+			value /= 10;
+		}
+		return pos+length;
+	}
+
+}
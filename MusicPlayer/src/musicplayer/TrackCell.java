@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.util.Callback;
+
+/**
+ * Playlist row showing "Artist - Title" once the track's tags are read, and
+ * until then the display name from the {@link TrackRows} the ListView
+ * shows, instead of {@code File.toString()}, which is the whole path. The
+ * length of the track is shown on the right once {@link TrackDurations}
+ * knows it.
+ *
+ * @author DELL
+ */
+public class TrackCell extends ListCell<File> {
+
+	private final RowMetadataLoader loader;
+	private final TrackDurations durations;
+
+	private final Label name = new Label();
+	private final Label time = new Label();
+	private final HBox row = new HBox(name, time);
+	private final char[] timeChars = new char[24];
+
+	private int trackId = -1;
+
+	public TrackCell(RowMetadataLoader loader, TrackDurations durations){
+		this.loader    = loader;
+		this.durations = durations;
+		name.setMaxWidth(Double.MAX_VALUE);
+		name.textFillProperty().bind(textFillProperty());
+		time.textFillProperty().bind(textFillProperty());
+		time.setMinWidth(Label.USE_PREF_SIZE);
+		HBox.setHgrow(name, Priority.ALWAYS);
+		loader.register(this);
+	}
+
+	public static Callback<ListView<File>, ListCell<File>> factory(final RowMetadataLoader loader, final TrackDurations durations){
+		return new Callback<ListView<File>, ListCell<File>>(){
+
+			public ListCell<File> call(ListView<File> listView) {
+				return new TrackCell(loader, durations);
+			}
+
+		};
+	}
+
+	@Override
+	protected void updateItem(File item, boolean empty) {
+		super.updateItem(item, empty);
+		int index = getIndex();
+		TrackRows tracks = (TrackRows) getListView().getItems();
+		setText(null);
+		if(empty || item == null || index < 0 || index >= tracks.size()){
+			trackId = -1;
+			setGraphic(null);
+		}
+		else{
+			TrackTags tags = loader.getService().cached(item);
+			String label = tags != null ? tags.label() : null;
+			name.setText(label != null ? label : tracks.displayName(index));
+			trackId = tracks.trackId(index);
+			showDuration();
+			setGraphic(row);
+			loader.rowShown();
+		}
+	}
+
+	void showTags(TrackTags tags){
+		String label = tags.label();
+		if(label != null){
+			name.setText(label);
+		}
+	}
+
+	/**
+	 * Shows the length of the track, if it is known by now.
+	 */
+	void showDuration(){
+		int millis = trackId >= 0 ? durations.get(trackId) : TrackDurations.UNKNOWN;
+		if(millis < 0){
+			time.setText("");
+		}
+		else{
+			time.setText(new String(timeChars, 0, TimeFormat.ms(millis/1000, timeChars)));
+		}
+	}
+
+}
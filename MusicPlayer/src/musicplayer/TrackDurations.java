@@ -0,0 +1,236 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The length of every track in the playlist, found by
+ * {@link DurationProber} on a pool of background threads, so rows can show
+ * it and the playlist can be totalled before any track is played.
+ *
+ * Lengths are kept per track id of the {@link TrackTable}. Tracks in the
+ * {@link LibraryIndex} take theirs from it under
+ * {@link LibraryIndex#ATTR_DURATION}, and only the others are probed; what
+ * is probed is written back. The length a {@code MediaPlayer} reports once
+ * it is ready replaces the probed one, which for an MP3 without a VBR header
+ * is only an estimate.
+ *
+ * Tracks are asked for in batches of {@link #BATCH}, which the pool works
+ * through in parallel. The {@link Listener} is called on the FX thread,
+ * at most once per pulse however many batches finished.
+ *
+ * @author DELL
+ */
+public class TrackDurations {
+
+	public static final int BATCH = 256;
+
+	/** Returned for tracks whose length is not known. */
+	public static final int UNKNOWN = -1;
+
+	// Probed without finding a length; not probed again
+	private static final int FAILED = -2;
+
+	public interface Listener {
+
+		/**
+		 * Called when lengths were found since the last call.
+		 */
+		void probed();
+	}
+
+	private final TrackTable table;
+	private final LibraryIndex library;
+	private final Listener listener;
+	private final ExecutorService pool;
+
+	// Milliseconds per track id; guarded by this
+	private int[] millis = new int[0];
+
+	// Ids handed to the pool; FX thread only
+	private final BitSet requested = new BitSet();
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicBoolean notifying = new AtomicBoolean();
+
+	public TrackDurations(TrackTable table, LibraryIndex library, Listener listener){
+		this.table    = table;
+		this.library  = library;
+		this.listener = listener;
+		final AtomicInteger count = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory(){
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "duration-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+
+		});
+	}
+
+	/**
+	 * The length of track {@code id} in milliseconds, or {@link #UNKNOWN}.
+	 */
+	public synchronized int get(int id){
+		return id < millis.length && millis[id] >= 0 ? millis[id] : UNKNOWN;
+	}
+
+	/**
+	 * Total length of the tracks in {@code list}, in milliseconds, leaving
+	 * out those whose length is not known.
+	 */
+	public synchronized long total(TrackList list){
+		long total = 0;
+		for(int i = 0; i < list.size(); i++){
+			int id = list.trackId(i);
+			if(id < millis.length && millis[id] > 0){
+				total += millis[id];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Whether some of the tracks asked for are still being probed.
+	 */
+	public boolean isProbing(){
+		return pending.get() > 0;
+	}
+
+	/**
+	 * Finds the lengths of the rows {@code from} to {@code to} of
+	 * {@code list} in the background. Called on the FX thread.
+	 */
+	public void request(TrackList list, int from, int to){
+		int[] batch = new int[BATCH];
+		int count = 0;
+		for(int i = from; i < to; i++){
+			int id = list.trackId(i);
+			if(requested.get(id)){
+				continue;
+			}
+			requested.set(id);
+			batch[count++] = id;
+			if(count == BATCH){
+				submit(batch, count);
+				batch = new int[BATCH];
+				count = 0;
+			}
+		}
+		if(count > 0){
+			submit(batch, count);
+		}
+	}
+
+	/**
+	 * Records the length a {@code MediaPlayer} found for track {@code id}.
+	 */
+	public void learned(int id, File file, long length){
+		if(length < 0 || length > Integer.MAX_VALUE){
+			return;
+		}
+		synchronized(this){
+			ensureCapacity(id+1);
+			if(millis[id] == length){
+				return;
+			}
+			millis[id] = (int) length;
+		}
+		requested.set(id);
+		library.setAttribute(file, LibraryIndex.ATTR_DURATION, length);
+		notifyListener();
+	}
+
+	public void close(){
+		pool.shutdownNow();
+	}
+
+	private void submit(final int[] ids, final int count){
+		pending.addAndGet(count);
+		pool.execute(new Runnable(){
+
+			public void run() {
+				try{
+					int[] found = new int[count];
+					for(int i = 0; i < count; i++){
+						found[i] = length(table.file(ids[i]));
+					}
+					synchronized(TrackDurations.this){
+						ensureCapacity(table.size());
+						for(int i = 0; i < count; i++){
+							if(millis[ids[i]] == UNKNOWN){
+								millis[ids[i]] = found[i];
+							}
+						}
+					}
+					library.flush();
+				}
+				finally{
+					pending.addAndGet(-count);
+				}
+				notifyListener();
+			}
+
+		});
+	}
+
+	/**
+	 * The length of {@code file} from the library index, or else probed and
+	 * put in the index.
+	 */
+	private int length(File file){
+		long length = library.getAttribute(file, LibraryIndex.ATTR_DURATION);
+		if(length != LibraryIndex.UNKNOWN){
+			return (int) length;
+		}
+		try{
+			length = DurationProber.probe(file);
+		}
+		catch(IOException e){
+			System.out.println("Cannot read length of "+file+": "+e.getMessage());
+			return FAILED;
+		}
+		if(length < 0 || length > Integer.MAX_VALUE){
+			return FAILED;
+		}
+		library.setAttribute(file, LibraryIndex.ATTR_DURATION, length);
+		return (int) length;
+	}
+
+	private void notifyListener(){
+		if(!notifying.compareAndSet(false, true)){
+			return;
+		}
+		FxQueue.runLater(new Runnable(){
+
+			public void run() {
+				notifying.set(false);
+				listener.probed();
+			}
+
+		});
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity > millis.length){
+			int length = millis.length;
+			millis = Arrays.copyOf(millis, Math.max(capacity, length*2));
+			Arrays.fill(millis, length, millis.length, UNKNOWN);
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import javafx.collections.ObservableListBase;
+
+/**
+ * The rows of a {@link TrackList} whose tracks are in a set of ids, as
+ * found by a search. It is a snapshot: it holds the matching row numbers
+ * and never changes, so when the playlist changes a new one is made and put
+ * in the ListView in its place. That costs one pass over the playlist
+ * instead of a change event that names every row that went.
+ *
+ * @author DELL
+ */
+public class TrackFilter extends ObservableListBase<File> implements TrackRows {
+
+	private final TrackList source;
+	private final BitSet ids;
+	private final int[] rows;
+
+	public TrackFilter(TrackList source, BitSet ids){
+		this.source = source;
+		this.ids    = ids;
+		// A track queued on several rows has one id, so there can be more
+		// matching rows than ids
+		int[] rows = new int[Math.min(Math.max(ids.cardinality(), 16), source.size())];
+		int count = 0;
+		for(int i = 0; i < source.size(); i++){
+			if(ids.get(source.trackId(i))){
+				if(count == rows.length){
+					rows = Arrays.copyOf(rows, Math.min(count*2, source.size()));
+				}
+				rows[count++] = i;
+			}
+		}
+		this.rows = count == rows.length ? rows : Arrays.copyOf(rows, count);
+	}
+
+	/**
+	 * The ids this filter was made from, to make the next one after the
+	 * playlist changes.
+	 */
+	public BitSet getIds(){
+		return ids;
+	}
+
+	@Override
+	public File get(int index) {
+		return source.get(sourceIndex(index));
+	}
+
+	@Override
+	public int size() {
+		return rows.length;
+	}
+
+	public int sourceIndex(int row){
+		if(row < 0 || row >= rows.length){
+			throw new IndexOutOfBoundsException("Index: "+row+", Size: "+rows.length);
+		}
+		return rows[row];
+	}
+
+	public int trackId(int row){
+		return source.trackId(sourceIndex(row));
+	}
+
+	public String displayName(int row){
+		return source.displayName(sourceIndex(row));
+	}
+
+}
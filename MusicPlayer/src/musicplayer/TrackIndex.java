@@ -0,0 +1,367 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Trigram index over the tracks of a {@link TrackTable}, for finding every
+ * track whose name, folder, or title, artist or album tag contains a piece
+ * of text.
+ *
+ * Text is folded before indexing and searching: lower case, accents
+ * dropped, so a query typed without accents still finds accented names.
+ * Every three consecutive folded characters are a trigram, and each trigram
+ * keeps the ascending list of track ids that contain it. A query of three or
+ * more characters intersects the lists of its trigrams, smallest first, and
+ * then checks the candidates left against the real text.
+ *
+ * A query that extends the previous one is narrowed from the previous
+ * result when that is smaller than any trigram list. Shorter queries are
+ * matched against every track.
+ *
+ * The index is caught up with the table before every search, so new tracks
+ * are indexed as they arrive. Tags are only known once a track's file was
+ * read, for a row shown or a track played, so they are added to the index
+ * as they are read, through {@link #addTags(int, TrackTags)}; the first
+ * tags read for a track are the ones it is found by. It is not thread
+ * safe: use it from one thread.
+ *
+ * @author DELL
+ */
+public class TrackIndex {
+
+	private static final char[] FOLD = new char[0x250];
+
+	static{
+		for(char c = 0; c < FOLD.length; c++){
+			String plain = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+			FOLD[c] = Character.toLowerCase(plain.charAt(0));
+		}
+	}
+
+	private final TrackTable table;
+	private int indexed;
+
+	// Open addressing from trigram key to term number
+	private long[] keys = new long[1 << 12];
+	private int[] terms = new int[1 << 12];
+	private int termCount;
+
+	private int[][] postings = new int[1024][];
+	private int[] counts = new int[1024];
+
+	// Folded last folder names, keyed by the table's shared path strings
+	private final Map<String, String> folders = new IdentityHashMap<String, String>();
+
+	// Folded title, artist and album by track id, null until read
+	private String[] tags = new String[1024];
+
+	// Changes whenever tracks or tags are indexed
+	private int version;
+
+	private String lastQuery;
+	private BitSet lastResult;
+	private int lastVersion;
+
+	public TrackIndex(TrackTable table){
+		this.table = table;
+	}
+
+	/**
+	 * Number of tracks indexed so far.
+	 */
+	public int size(){
+		return indexed;
+	}
+
+	/**
+	 * Indexes the tracks added to the table since the last call.
+	 */
+	public void catchUp(){
+		int size = table.size();
+		while(indexed < size){
+			index(indexed, text(indexed));
+			indexed++;
+			version++;
+		}
+	}
+
+	/**
+	 * Makes track {@code id} found by the title, artist and album in
+	 * {@code tags} as well. Tags for a track that has some already are
+	 * ignored.
+	 */
+	public void addTags(int id, TrackTags tags){
+		catchUp();
+		if(id < 0 || id >= indexed || (id < this.tags.length && this.tags[id] != null)){
+			return;
+		}
+		StringBuilder text = new StringBuilder();
+		for(String tag : new String[]{ tags.getTitle(), tags.getArtist(), tags.getAlbum() }){
+			if(tag != null && !tag.isEmpty()){
+				text.append(fold(tag)).append('\n');
+			}
+		}
+		if(text.length() == 0){
+			return;
+		}
+		if(id >= this.tags.length){
+			this.tags = Arrays.copyOf(this.tags, Math.max(id+1, this.tags.length*2));
+		}
+		this.tags[id] = text.toString();
+		index(id, this.tags[id]);
+		version++;
+	}
+
+	/**
+	 * The ids of every track whose name or folder contains {@code query},
+	 * ignoring case and accents.
+	 */
+	public BitSet search(String query){
+		catchUp();
+		String folded = fold(query);
+		BitSet result;
+		if(folded.length() < 3){
+			result = narrowable(folded) ? verify(lastResult, folded) : scan(folded);
+		}
+		else{
+			int[] lists = lists(folded);
+			if(lists == null){
+				result = new BitSet();
+			}
+			else if(narrowable(folded) && lastResult.cardinality() < counts[lists[0]]){
+				result = verify(lastResult, folded);
+			}
+			else{
+				result = intersect(lists);
+				if(folded.length() > 3){
+					result = verify(result, folded);
+				}
+			}
+		}
+		lastQuery   = folded;
+		lastResult  = result;
+		lastVersion = version;
+		return result;
+	}
+
+	/**
+	 * Lower case without accents, character by character.
+	 */
+	public static String fold(String text){
+		char[] chars = new char[text.length()];
+		for(int i = 0; i < chars.length; i++){
+			chars[i] = fold(text.charAt(i));
+		}
+		return new String(chars);
+	}
+
+	private static char fold(char c){
+		return c < FOLD.length ? FOLD[c] : Character.toLowerCase(c);
+	}
+
+	private boolean narrowable(String folded){
+		return lastResult != null && lastVersion == version && folded.contains(lastQuery);
+	}
+
+	/**
+	 * What a track is found by: its name, then the name of its folder.
+	 */
+	private String text(int id){
+		return table.name(id)+'\n'+folder(id);
+	}
+
+	private String folder(int id){
+		String dir = table.directory(id);
+		String folded = folders.get(dir);
+		if(folded == null){
+			int slash = Math.max(dir.lastIndexOf('/'), dir.lastIndexOf('\\'));
+			folded = fold(dir.substring(slash+1));
+			folders.put(dir, folded);
+		}
+		return folded;
+	}
+
+	private boolean matches(int id, String folded){
+		return containsFolded(table.name(id), folded) || folder(id).contains(folded)
+				|| (id < tags.length && tags[id] != null && tags[id].contains(folded));
+	}
+
+	/**
+	 * Whether {@code text} folded contains {@code folded}, without building
+	 * the folded copy.
+	 */
+	private static boolean containsFolded(String text, String folded){
+		int last = text.length()-folded.length();
+		char first = folded.charAt(0);
+		for(int i = 0; i <= last; i++){
+			if(fold(text.charAt(i)) != first){
+				continue;
+			}
+			int j = 1;
+			while(j < folded.length() && fold(text.charAt(i+j)) == folded.charAt(j)){
+				j++;
+			}
+			if(j == folded.length()){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds {@code id} to the list of every trigram of {@code text}. Tracks
+	 * come in order and are appended; tags come later and are inserted.
+	 */
+	private void index(int id, String text){
+		if(text.length() < 3){
+			return;
+		}
+		char a = fold(text.charAt(0));
+		char b = fold(text.charAt(1));
+		for(int i = 2; i < text.length(); i++){
+			char c = fold(text.charAt(i));
+			int term = term(key(a, b, c), true);
+			int count = counts[term];
+			int[] list = postings[term];
+			int at = count == 0 || list[count-1] < id ? count : Arrays.binarySearch(list, 0, count, id);
+			// Appended, or inserted unless the track has the trigram already
+			if(at < 0 || at == count){
+				at = at < 0 ? -at-1 : at;
+				if(count == list.length){
+					list = Arrays.copyOf(list, count+(count >> 1)+1);
+					postings[term] = list;
+				}
+				System.arraycopy(list, at, list, at+1, count-at);
+				list[at] = id;
+				counts[term] = count+1;
+			}
+			a = b;
+			b = c;
+		}
+	}
+
+	/**
+	 * The terms of every trigram in {@code folded}, smallest list first, or
+	 * null if some trigram appears in no track.
+	 */
+	private int[] lists(String folded){
+		int[] lists = new int[folded.length()-2];
+		for(int i = 0; i < lists.length; i++){
+			int term = term(key(folded.charAt(i), folded.charAt(i+1), folded.charAt(i+2)), false);
+			if(term < 0){
+				return null;
+			}
+			lists[i] = term;
+		}
+		// Insertion sort by list length; queries are short
+		for(int i = 1; i < lists.length; i++){
+			int term = lists[i];
+			int j = i;
+			while(j > 0 && counts[lists[j-1]] > counts[term]){
+				lists[j] = lists[j-1];
+				j--;
+			}
+			lists[j] = term;
+		}
+		return lists;
+	}
+
+	private BitSet intersect(int[] lists){
+		BitSet result = new BitSet();
+		int[] smallest = postings[lists[0]];
+		int[] from = new int[lists.length];
+		outer:
+		for(int i = 0; i < counts[lists[0]]; i++){
+			int id = smallest[i];
+			for(int l = 1; l < lists.length; l++){
+				int term = lists[l];
+				int at = Arrays.binarySearch(postings[term], from[l], counts[term], id);
+				if(at < 0){
+					from[l] = -at-1;
+					continue outer;
+				}
+				from[l] = at+1;
+			}
+			result.set(id);
+		}
+		return result;
+	}
+
+	private BitSet verify(BitSet candidates, String folded){
+		BitSet result = new BitSet();
+		for(int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id+1)){
+			if(matches(id, folded)){
+				result.set(id);
+			}
+		}
+		return result;
+	}
+
+	private BitSet scan(String folded){
+		BitSet result = new BitSet();
+		for(int id = 0; id < indexed; id++){
+			if(matches(id, folded)){
+				result.set(id);
+			}
+		}
+		return result;
+	}
+
+	private static long key(char a, char b, char c){
+		return 1L << 48 | (long) a << 32 | (long) b << 16 | c;
+	}
+
+	private int term(long key, boolean create){
+		int mask = keys.length-1;
+		int at = (int) ((key*0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while(keys[at] != 0){
+			if(keys[at] == key){
+				return terms[at];
+			}
+			at = (at+1) & mask;
+		}
+		if(!create){
+			return -1;
+		}
+		int term = termCount++;
+		if(term == postings.length){
+			postings = Arrays.copyOf(postings, term*2);
+			counts   = Arrays.copyOf(counts, term*2);
+		}
+		postings[term] = new int[2];
+		keys[at]  = key;
+		terms[at] = term;
+		if(termCount*2 > keys.length){
+			rehash();
+		}
+		return term;
+	}
+
+	private void rehash(){
+		long[] oldKeys = keys;
+		int[] oldTerms = terms;
+		keys  = new long[oldKeys.length*2];
+		terms = new int[oldKeys.length*2];
+		int mask = keys.length-1;
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] != 0){
+				int at = (int) ((oldKeys[i]*0x9E3779B97F4A7C15L) >>> 40) & mask;
+				while(keys[at] != 0){
+					at = (at+1) & mask;
+				}
+				keys[at]  = oldKeys[i];
+				terms[at] = oldTerms[i];
+			}
+		}
+	}
+
+}
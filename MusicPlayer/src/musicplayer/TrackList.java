@@ -0,0 +1,285 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import javafx.collections.ObservableListBase;
+
+/**
+ * The playlist as an {@code ObservableList<File>} over a {@link TrackTable}.
+ * The list itself only holds an {@code int[]} of track ids; the {@code File}
+ * handed out by {@link #get(int)} is built on the spot, which is fine for the
+ * few rows a ListView shows at a time.
+ *
+ * Bulk operations fire a single change event.
+ *
+ * @author DELL
+ */
+public class TrackList extends ObservableListBase<File> implements TrackRows {
+
+	private final TrackTable table;
+
+	private int[] ids = new int[1024];
+	private int size;
+
+	public TrackList(TrackTable table){
+		this.table = table;
+	}
+
+	public TrackTable getTable(){
+		return table;
+	}
+
+	@Override
+	public File get(int index) {
+		checkIndex(index);
+		return table.file(ids[index]);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public int trackId(int index){
+		checkIndex(index);
+		return ids[index];
+	}
+
+	/**
+	 * A copy of the track ids of every row, in order, for reading the
+	 * playlist away from the FX thread.
+	 */
+	public int[] trackIds(){
+		return Arrays.copyOf(ids, size);
+	}
+
+	public int sourceIndex(int index){
+		checkIndex(index);
+		return index;
+	}
+
+	public String displayName(int index){
+		checkIndex(index);
+		return table.displayName(ids[index]);
+	}
+
+	@Override
+	public boolean add(File file) {
+		add(size, file);
+		return true;
+	}
+
+	@Override
+	public void add(int index, File file) {
+		addAll(index, Arrays.asList(file));
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends File> files) {
+		return addAll(size, files);
+	}
+
+	@Override
+	public boolean addAll(int index, Collection<? extends File> files) {
+		if(index < 0 || index > size){
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+		}
+		int count = files.size();
+		if(count == 0){
+			return false;
+		}
+		ensureCapacity(size+count);
+		System.arraycopy(ids, index, ids, index+count, size-index);
+		int at = index;
+		for(File file : files){
+			ids[at++] = table.add(file);
+		}
+		size += count;
+		modCount++;
+
+		beginChange();
+		nextAdd(index, index+count);
+		endChange();
+		return true;
+	}
+
+	/**
+	 * Appends those of {@code files} that are not in the list yet, each
+	 * once, in one change. Returns false if there were none.
+	 */
+	public boolean addAbsent(Collection<? extends File> files){
+		BitSet present = new BitSet(table.size());
+		for(int i = 0; i < size; i++){
+			present.set(ids[i]);
+		}
+		ensureCapacity(size+files.size());
+		int from = size;
+		for(File file : files){
+			// Paths have one id each, so a row of the same path has this id
+			int id = table.add(file);
+			if(!present.get(id)){
+				present.set(id);
+				ids[size++] = id;
+			}
+		}
+		if(size == from){
+			return false;
+		}
+		modCount++;
+
+		beginChange();
+		nextAdd(from, size);
+		endChange();
+		return true;
+	}
+
+	@Override
+	public boolean setAll(Collection<? extends File> files) {
+		List<File> removed = snapshot(0, size);
+		size = 0;
+		ensureCapacity(files.size());
+		for(File file : files){
+			ids[size++] = table.add(file);
+		}
+		modCount++;
+
+		beginChange();
+		if(!removed.isEmpty()){
+			nextRemove(0, removed);
+		}
+		if(size > 0){
+			nextAdd(0, size);
+		}
+		endChange();
+		return true;
+	}
+
+	@Override
+	public File set(int index, File file) {
+		File old = get(index);
+		ids[index] = table.add(file);
+		modCount++;
+
+		beginChange();
+		nextSet(index, old);
+		endChange();
+		return old;
+	}
+
+	@Override
+	public File remove(int index) {
+		File old = get(index);
+		remove(index, index+1);
+		return old;
+	}
+
+	@Override
+	public void remove(int from, int to) {
+		if(from < 0 || to > size || from > to){
+			throw new IndexOutOfBoundsException("Range: "+from+".."+to+", Size: "+size);
+		}
+		if(from == to){
+			return;
+		}
+		List<File> removed = snapshot(from, to);
+		System.arraycopy(ids, to, ids, from, size-to);
+		size -= to-from;
+		modCount++;
+
+		beginChange();
+		nextRemove(from, removed);
+		endChange();
+	}
+
+	@Override
+	public void clear() {
+		remove(0, size);
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> files) {
+		BitSet marked = new BitSet(size);
+		for(int i = 0; i < size; i++){
+			if(files.contains(table.file(ids[i]))){
+				marked.set(i);
+			}
+		}
+		return removeMarked(marked);
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> files) {
+		BitSet marked = new BitSet(size);
+		for(int i = 0; i < size; i++){
+			if(!files.contains(table.file(ids[i]))){
+				marked.set(i);
+			}
+		}
+		return removeMarked(marked);
+	}
+
+	/**
+	 * Removes every row whose index is set, compacting the ids in one pass
+	 * and firing one change with a sub-change per removed range. Used for
+	 * deleting a selection of any size. Bits past the last row are ignored;
+	 * returns false if no row was set.
+	 */
+	public boolean removeMarked(BitSet marked){
+		// Bits past the last row are no rows; nothing to remove if all are
+		int write = marked.nextSetBit(0);
+		if(write < 0 || write >= size){
+			return false;
+		}
+		beginChange();
+		int removedSoFar = 0;
+		for(int from = write; from >= 0 && from < size; ){
+			int to = marked.nextClearBit(from);
+			if(to > size){
+				to = size;
+			}
+			nextRemove(from-removedSoFar, snapshot(from, to));
+			removedSoFar += to-from;
+			int keepTo = marked.nextSetBit(to);
+			if(keepTo < 0 || keepTo > size){
+				keepTo = size;
+			}
+			System.arraycopy(ids, to, ids, write, keepTo-to);
+			write += keepTo-to;
+			from = keepTo;
+		}
+		size = write;
+		modCount++;
+		endChange();
+		return true;
+	}
+
+	private List<File> snapshot(int from, int to){
+		List<File> files = new ArrayList<File>(to-from);
+		for(int i = from; i < to; i++){
+			files.add(table.file(ids[i]));
+		}
+		return files;
+	}
+
+	private void checkIndex(int index){
+		if(index < 0 || index >= size){
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+		}
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity > ids.length){
+			ids = Arrays.copyOf(ids, Math.max(capacity, ids.length*2));
+		}
+	}
+
+}
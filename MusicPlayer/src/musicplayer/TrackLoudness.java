@@ -0,0 +1,244 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The integrated loudness of every track in the playlist, measured by
+ * {@link LoudnessMeter} on a pool of background threads, one per core, and
+ * the gain that brings each track to {@link #REFERENCE}, as ReplayGain
+ * does. The {@link PlaybackSession} applies the gain when a track is ready,
+ * so tracks play about as loud as each other at one volume. Turned off with
+ * {@code -Dmusicplayer.normalize=false}.
+ *
+ * Values are kept per track id of the {@link TrackTable}. Tracks in the
+ * {@link LibraryIndex} take theirs from it under
+ * {@link LibraryIndex#ATTR_LOUDNESS}, and only the others are decoded; what
+ * is measured is written back. Tracks that cannot be decoded play at the
+ * volume as it is; that is written back too, so they are not decoded again
+ * until they change on disk. Which ones can be decoded is up to
+ * {@link PcmDecoder}: MP3 only when a Java Sound decoder for it is on the
+ * class path.
+ *
+ * Each track is a task of its own, since decoding one takes far longer
+ * than handing it out. When the pool runs out of work the number of tracks
+ * measured per second is kept, and printed with {@link Metrics#ENABLED}.
+ *
+ * @author DELL
+ */
+public class TrackLoudness {
+
+	/** On unless {@code musicplayer.normalize} is false. */
+	public static final boolean ENABLED = !"false".equals(System.getProperty("musicplayer.normalize"));
+
+	/** Loudness tracks are brought to, in LUFS; that of ReplayGain 2. */
+	public static final double REFERENCE = -18;
+
+	/** The most a quiet track is raised, 6 dB. */
+	public static final double MAX_GAIN = 2;
+
+	// Hundredths of LU per track id; guarded by this. FAILED is also what
+	// the library index holds for tracks that could not be measured
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+	private static final int FAILED  = Integer.MIN_VALUE+1;
+
+	// Tracks measured between writes of the library index
+	private static final int FLUSH = 64;
+
+	private static final Histogram ANALYSIS = Metrics.histogram("loudness_analysis_seconds");
+	private static final AtomicLong TRACKS = Metrics.counter("loudness_tracks_total");
+
+	private final TrackTable table;
+	private final LibraryIndex library;
+	private final ExecutorService pool;
+
+	// Guarded by this
+	private int[] loudness = new int[0];
+
+	// Ids handed to the pool; FX thread only
+	private final BitSet requested = new BitSet();
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	// The run of work since the pool was last idle; guarded by this
+	private long runStarted;
+	private int runMeasured;
+	private double lastThroughput;
+
+	public TrackLoudness(TrackTable table, LibraryIndex library){
+		this.table   = table;
+		this.library = library;
+		final AtomicInteger count = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "loudness-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+
+		});
+	}
+
+	/**
+	 * The integrated loudness of track {@code id} in LUFS, or NaN if it is
+	 * not known.
+	 */
+	public synchronized double get(int id){
+		return id < loudness.length && loudness[id] > FAILED ? loudness[id]/100.0 : Double.NaN;
+	}
+
+	/**
+	 * The factor to scale the volume of track {@code id} by, or 1 if its
+	 * loudness is not known.
+	 */
+	public double gain(int id){
+		double lufs = get(id);
+		if(Double.isNaN(lufs)){
+			return 1;
+		}
+		return Math.min(MAX_GAIN, Math.pow(10, (REFERENCE-lufs)/20));
+	}
+
+	/**
+	 * Whether some of the tracks asked for are still being measured.
+	 */
+	public boolean isAnalyzing(){
+		return pending.get() > 0;
+	}
+
+	/**
+	 * Tracks decoded and measured per second over the last run of the pool,
+	 * from the first track handed to it until it was idle again.
+	 */
+	public synchronized double getLastThroughput(){
+		return lastThroughput;
+	}
+
+	/**
+	 * Measures the rows {@code from} to {@code to} of {@code list} in the
+	 * background. Called on the FX thread.
+	 */
+	public void request(TrackList list, int from, int to){
+		for(int i = from; i < to; i++){
+			int id = list.trackId(i);
+			if(requested.get(id)){
+				continue;
+			}
+			requested.set(id);
+			submit(id);
+		}
+	}
+
+	public void close(){
+		pool.shutdownNow();
+	}
+
+	private void submit(final int id){
+		synchronized(this){
+			if(pending.getAndIncrement() == 0){
+				runStarted  = System.nanoTime();
+				runMeasured = 0;
+			}
+		}
+		pool.execute(new Runnable(){
+
+			public void run() {
+				boolean measured = false;
+				try{
+					File file = table.file(id);
+					long stored = library.getAttribute(file, LibraryIndex.ATTR_LOUDNESS);
+					int value;
+					if(stored != LibraryIndex.UNKNOWN){
+						value = (int) stored;
+					}
+					else{
+						value = measure(file);
+						// Tracks refused by the decoder take no time; left out of the rate
+						measured = value != FAILED;
+					}
+					synchronized(TrackLoudness.this){
+						ensureCapacity(id+1);
+						loudness[id] = value;
+					}
+				}
+				finally{
+					finished(measured);
+				}
+			}
+
+		});
+	}
+
+	/**
+	 * Decodes and measures {@code file}, and puts what it found in the
+	 * library index. A read error is not put there, as the file may read
+	 * next time; a track that cannot be decoded, or is silent, is.
+	 */
+	private int measure(File file){
+		long start = System.nanoTime();
+		double lufs;
+		try{
+			lufs = LoudnessMeter.measure(file);
+		}
+		catch(IOException e){
+			System.out.println("Cannot measure loudness of "+file+": "+e.getMessage());
+			return FAILED;
+		}
+		if(Metrics.ENABLED){
+			ANALYSIS.since(start);
+			TRACKS.incrementAndGet();
+		}
+		int value = Double.isNaN(lufs) ? FAILED : (int) Math.round(lufs*100);
+		library.setAttribute(file, LibraryIndex.ATTR_LOUDNESS, value);
+		return value;
+	}
+
+	private void finished(boolean measured){
+		long took;
+		int count;
+		synchronized(this){
+			if(measured){
+				runMeasured++;
+			}
+			if(pending.decrementAndGet() > 0){
+				if(measured && runMeasured%FLUSH == 0){
+					library.flush();
+				}
+				return;
+			}
+			took  = System.nanoTime()-runStarted;
+			count = runMeasured;
+			if(count == 0){
+				return;
+			}
+			lastThroughput = count/(took/1e9);
+		}
+		library.flush();
+		if(Metrics.ENABLED){
+			System.out.println("Loudness: "+count+" tracks in "+took/1000000+" ms, "+String.format("%.1f", count/(took/1e9))+" tracks/s on "+Runtime.getRuntime().availableProcessors()+" threads");
+		}
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity > loudness.length){
+			int length = loudness.length;
+			loudness = Arrays.copyOf(loudness, Math.max(capacity, length*2));
+			Arrays.fill(loudness, length, loudness.length, UNKNOWN);
+		}
+	}
+
+}
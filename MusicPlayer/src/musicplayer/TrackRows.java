@@ -0,0 +1,30 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+/**
+ * A list shown in the playlist: either the whole {@link TrackList} or a
+ * {@link TrackFilter} over it. Rows are mapped back to the playlist so that
+ * actions on what is shown apply to the right tracks.
+ *
+ * @author DELL
+ */
+public interface TrackRows {
+
+	int size();
+
+	/**
+	 * The index in the playlist of the track shown at {@code row}.
+	 */
+	int sourceIndex(int row);
+
+	/**
+	 * The {@link TrackTable} id of the track shown at {@code row}.
+	 */
+	int trackId(int row);
+
+	String displayName(int row);
+}
@@ -0,0 +1,160 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javafx.animation.PauseTransition;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.util.Duration;
+
+/**
+ * Runs playlist searches as the user types. Queries are debounced on the FX
+ * thread and looked up in a {@link TrackIndex} on a single background
+ * thread, which also keeps the index caught up with the table. A query that
+ * was overtaken by a newer one before it ran is skipped, and a result that
+ * arrives after a newer query was typed is dropped. Tags read for tracks
+ * are handed to the index on the same thread.
+ *
+ * Methods are called on the FX thread, and the {@link Listener} is called
+ * back on it.
+ *
+ * @author DELL
+ */
+public class TrackSearch {
+
+	public static final Duration DELAY = Duration.millis(150);
+
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "playlist-search");
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	});
+
+	public interface Listener {
+
+		/**
+		 * The ids of the tracks matching {@code query}, or null when the
+		 * query is empty and everything should show.
+		 */
+		void found(String query, BitSet ids);
+	}
+
+	private final TrackTable table;
+	private final TrackIndex index;
+	private final Listener listener;
+	private final PauseTransition pause = new PauseTransition(DELAY);
+
+	private String query = "";
+	private volatile int generation;
+
+	public TrackSearch(TrackTable table, Listener listener){
+		this.table    = table;
+		this.index    = new TrackIndex(table);
+		this.listener = listener;
+		pause.setOnFinished(new EventHandler<ActionEvent>(){
+
+			public void handle(ActionEvent event) {
+				run();
+			}
+
+		});
+	}
+
+	public String getQuery(){
+		return query;
+	}
+
+	public boolean isActive(){
+		return !query.isEmpty();
+	}
+
+	public void setQuery(String text){
+		query = text == null ? "" : text.trim();
+		pause.playFromStart();
+	}
+
+	/**
+	 * Runs the current query again after the usual delay, to pick up tracks
+	 * added since.
+	 */
+	public void refresh(){
+		if(isActive()){
+			pause.playFromStart();
+		}
+	}
+
+	/**
+	 * Makes {@code file} found by its tags too, and runs the current query
+	 * again, as the file may match it now.
+	 */
+	public void tagsLoaded(File file, final TrackTags tags){
+		if(tags == TrackTags.NONE){
+			return;
+		}
+		// The file is in the playlist, so this finds its id
+		final int id = table.add(file);
+		EXECUTOR.execute(new Runnable(){
+
+			public void run() {
+				index.addTags(id, tags);
+			}
+
+		});
+		refresh();
+	}
+
+	/**
+	 * Indexes the tracks added so far in the background, so the first query
+	 * does not have to.
+	 */
+	public void warmUp(){
+		EXECUTOR.execute(new Runnable(){
+
+			public void run() {
+				index.catchUp();
+			}
+
+		});
+	}
+
+	private void run(){
+		final String text = query;
+		final int current = ++generation;
+		if(text.isEmpty()){
+			listener.found(text, null);
+			return;
+		}
+		EXECUTOR.execute(new Runnable(){
+
+			public void run() {
+				if(current != generation){
+					return;
+				}
+				final BitSet ids = index.search(text);
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						if(current == generation){
+							listener.found(text, ids);
+						}
+					}
+
+				});
+			}
+
+		});
+	}
+
+}
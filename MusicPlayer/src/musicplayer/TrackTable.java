@@ -0,0 +1,240 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact storage for every track the playlist has seen, addressed by an int
+ * id. Instead of one {@code File} per track it keeps:
+ *
+ * - the folder, as an index into a table of distinct folder paths;
+ * - the display name, the file name without its extension, as UTF-8 bytes in
+ *   one shared pool;
+ * - the extension, as an index into a table of distinct extensions.
+ *
+ * A {@code File} is only built when somebody asks for one. Display names are
+ * decoded on demand through a small cache sized for the rows on screen.
+ *
+ * A path has one id however often it is added: adding it again, to the
+ * same list or another one sharing the table, returns the id it got the
+ * first time, found through an open addressing table of ids hashed on the
+ * folder, name and extension. Ids are never freed, so the table holds every
+ * distinct track seen in the session, but deleting and adding tracks back
+ * does not grow it. Tracks are added on the FX thread; they may be read from
+ * any thread once added.
+ *
+ * @author DELL
+ */
+public final class TrackTable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int CACHE_SIZE = 1024;
+
+	private final Map<String, Integer> dirIds = new HashMap<String, Integer>();
+	private final Map<String, Integer> extIds = new HashMap<String, Integer>();
+	private String[] dirs = new String[64];
+	private String[] exts = new String[16];
+
+	private volatile int size;
+	private int[] dirOf      = new int[1024];
+	private int[] nameStart  = new int[1024];
+	private short[] nameSize = new short[1024];
+	private short[] extOf    = new short[1024];
+
+	private byte[] pool = new byte[1 << 16];
+	private int poolSize;
+
+	// Id+1 of the track hashed to each slot, 0 for none; kept under half full
+	private int[] slots = new int[2048];
+
+	private final String[] cachedNames = new String[CACHE_SIZE];
+	private final int[] cachedIds = new int[CACHE_SIZE];
+
+	public TrackTable(){
+		Arrays.fill(cachedIds, -1);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int add(File file){
+		String name = file.getName();
+		String parent = file.getParent();
+		int dot = name.lastIndexOf('.');
+		String display = dot > 0 ? name.substring(0, dot) : name;
+		String ext = dot > 0 ? name.substring(dot) : "";
+		byte[] bytes = display.getBytes(UTF8);
+		if(bytes.length > Short.MAX_VALUE){
+			bytes = Arrays.copyOf(bytes, Short.MAX_VALUE);
+		}
+
+		int dir = internDir(parent != null ? parent : "");
+		int extension = internExt(ext);
+		int hash = hash(dir, extension, bytes, 0, bytes.length);
+		int slot = hash & (slots.length-1);
+		for(; slots[slot] != 0; slot = (slot+1) & (slots.length-1)){
+			int known = slots[slot]-1;
+			if(dirOf[known] == dir && extOf[known] == extension && sameName(known, bytes)){
+				return known;
+			}
+		}
+
+		int id = size;
+		ensureCapacity(id+1);
+		if(poolSize+bytes.length > pool.length){
+			pool = Arrays.copyOf(pool, Math.max(pool.length*2, poolSize+bytes.length));
+		}
+		System.arraycopy(bytes, 0, pool, poolSize, bytes.length);
+		nameStart[id] = poolSize;
+		nameSize[id]  = (short) bytes.length;
+		poolSize     += bytes.length;
+		dirOf[id]     = dir;
+		extOf[id]     = (short) extension;
+		slots[slot]   = id+1;
+		size = id+1;
+		if(2*size > slots.length){
+			rehash();
+		}
+		return id;
+	}
+
+	public File file(int id){
+		String dir = dirs[dirOf[id]];
+		String name = new String(pool, nameStart[id], nameSize[id], UTF8)+exts[extOf[id]];
+		return dir.isEmpty() ? new File(name) : new File(dir, name);
+	}
+
+	/**
+	 * The name shown in the playlist: the file name without extension.
+	 */
+	public String displayName(int id){
+		int slot = id & (CACHE_SIZE-1);
+		synchronized(cachedIds){
+			if(cachedIds[slot] == id){
+				return cachedNames[slot];
+			}
+		}
+		String name = name(id);
+		synchronized(cachedIds){
+			cachedIds[slot]   = id;
+			cachedNames[slot] = name;
+		}
+		return name;
+	}
+
+	/**
+	 * The same name as {@link #displayName(int)}, decoded without going
+	 * through the cache. For code that reads every track once.
+	 */
+	public String name(int id){
+		return new String(pool, nameStart[id], nameSize[id], UTF8);
+	}
+
+	/**
+	 * The file name, extension included, without the folder.
+	 */
+	public String fileName(int id){
+		return name(id)+exts[extOf[id]];
+	}
+
+	public String directory(int id){
+		return dirs[dirOf[id]];
+	}
+
+	public int directoryCount(){
+		return dirIds.size();
+	}
+
+	/**
+	 * Rough number of bytes used, for comparing against plain {@code File}
+	 * objects.
+	 */
+	public long footprint(){
+		long bytes = pool.length+dirOf.length*(4L+4+2+2)+slots.length*4L;
+		for(String dir : dirIds.keySet()){
+			bytes += 40+2L*dir.length();
+		}
+		return bytes;
+	}
+
+	private boolean sameName(int id, byte[] bytes){
+		if(nameSize[id] != bytes.length){
+			return false;
+		}
+		int start = nameStart[id];
+		for(int i = 0; i < bytes.length; i++){
+			if(pool[start+i] != bytes[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(int dir, int ext, byte[] bytes, int from, int to){
+		int hash = 31*dir+ext;
+		for(int i = from; i < to; i++){
+			hash = 31*hash+bytes[i];
+		}
+		// Spreads the low bits, which pick the slot
+		return hash ^ (hash >>> 16);
+	}
+
+	private void rehash(){
+		int[] grown = new int[slots.length*2];
+		for(int id = 0; id < size; id++){
+			int slot = hash(dirOf[id], extOf[id], pool, nameStart[id], nameStart[id]+nameSize[id]) & (grown.length-1);
+			while(grown[slot] != 0){
+				slot = (slot+1) & (grown.length-1);
+			}
+			grown[slot] = id+1;
+		}
+		slots = grown;
+	}
+
+	private int internDir(String dir){
+		Integer id = dirIds.get(dir);
+		if(id == null){
+			id = dirIds.size();
+			if(id == dirs.length){
+				dirs = Arrays.copyOf(dirs, id*2);
+			}
+			dirs[id] = dir;
+			dirIds.put(dir, id);
+		}
+		return id;
+	}
+
+	private int internExt(String ext){
+		Integer id = extIds.get(ext);
+		if(id == null){
+			id = extIds.size();
+			if(id == exts.length){
+				exts = Arrays.copyOf(exts, id*2);
+			}
+			exts[id] = ext;
+			extIds.put(ext, id);
+		}
+		return id;
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity > dirOf.length){
+			int length = Math.max(capacity, dirOf.length*2);
+			dirOf     = Arrays.copyOf(dirOf, length);
+			nameStart = Arrays.copyOf(nameStart, length);
+			nameSize  = Arrays.copyOf(nameSize, length);
+			extOf     = Arrays.copyOf(extOf, length);
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import javafx.scene.image.Image;
+
+/**
+ * The tags read from a track by {@link TagReader}: the same fields
+ * {@link Metadata} routes for a playing {@code Media}. Missing fields are
+ * null.
+ *
+ * The cover is not kept in memory. Only where it sits in the file is
+ * remembered, and it is read when asked for.
+ *
+ * @author DELL
+ */
+public final class TrackTags {
+
+	public static final TrackTags NONE = new TrackTags(null, null, null, null, null, null, -1, 0);
+
+	private final String title;
+	private final String artist;
+	private final String album;
+	private final String year;
+
+	private final File file;
+	private final byte[] image;
+	private final long imageOffset;
+	private final int imageLength;
+
+	TrackTags(String title, String artist, String album, String year, File file, byte[] image, long imageOffset, int imageLength){
+		this.title       = title;
+		this.artist      = artist;
+		this.album       = album;
+		this.year        = year;
+		this.file        = file;
+		this.image       = image;
+		this.imageOffset = imageOffset;
+		this.imageLength = imageLength;
+	}
+
+	public String getTitle(){
+		return title;
+	}
+
+	public String getArtist(){
+		return artist;
+	}
+
+	public String getAlbum(){
+		return album;
+	}
+
+	public String getYear(){
+		return year;
+	}
+
+	public boolean hasImage(){
+		return image != null || imageLength > 0;
+	}
+
+	/**
+	 * The encoded cover as stored in the file, or null if there is none or
+	 * it can no longer be read.
+	 */
+	public byte[] readImage(){
+		if(image != null){
+			return image;
+		}
+		if(imageLength <= 0){
+			return null;
+		}
+		try{
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try{
+				byte[] bytes = new byte[imageLength];
+				in.seek(imageOffset);
+				in.readFully(bytes);
+				return bytes;
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException e){
+			System.out.println("Cannot read cover of "+file+": "+e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * "Artist - Title", the title alone, or null when there is no title.
+	 */
+	public String label(){
+		if(title == null){
+			return null;
+		}
+		return artist != null ? artist+" - "+title : title;
+	}
+
+	/**
+	 * Hands every field present to {@code sink}, the way
+	 * {@link Metadata#dispatch} does for {@code Media} metadata. The cover is
+	 * read and decoded here.
+	 */
+	public void applyTo(Metadata.Sink sink){
+		if(album != null){
+			Metadata.dispatch(Metadata.ALBUM, album, sink);
+		}
+		if(artist != null){
+			Metadata.dispatch(Metadata.ARTIST, artist, sink);
+		}
+		if(title != null){
+			Metadata.dispatch(Metadata.TITLE, title, sink);
+		}
+		if(year != null){
+			Metadata.dispatch(Metadata.YEAR, year, sink);
+		}
+		byte[] bytes = hasImage() ? readImage() : null;
+		if(bytes != null){
+			Image cover = new Image(new ByteArrayInputStream(bytes));
+			if(!cover.isError()){
+				Metadata.dispatch(Metadata.IMAGE, cover, sink);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Overview of a track's waveform: the lowest and highest sample of every
+ * stretch of it, at several zoom levels. Level 0 has up to {@link #COLUMNS}
+ * stretches and every next level half as many, down to
+ * {@link #MIN_COLUMNS}, so a bar of any width is drawn from the level
+ * closest to it without looking at more than twice its pixels.
+ *
+ * Samples are kept as bytes, the high byte of 16 bits, in one array per
+ * level with the lowest and highest of stretch {@code i} at {@code 2*i}
+ * and {@code 2*i+1}. A track takes under 16 KB however long it is.
+ *
+ * @author DELL
+ */
+public final class Waveform {
+
+	public static final int COLUMNS = 4096;
+	public static final int MIN_COLUMNS = 128;
+
+	// Sample frames reduced to one pair while decoding
+	private static final int BLOCK = 256;
+
+	private static final int MAGIC = 0x4D505746;
+	private static final int VERSION = 1;
+
+	private final byte[][] levels;
+
+	private Waveform(byte[][] levels){
+		this.levels = levels;
+	}
+
+	public int getLevels(){
+		return levels.length;
+	}
+
+	public int getColumns(int level){
+		return levels[level].length/2;
+	}
+
+	public byte min(int level, int column){
+		return levels[level][2*column];
+	}
+
+	public byte max(int level, int column){
+		return levels[level][2*column+1];
+	}
+
+	/**
+	 * The coarsest level with at least {@code width} columns, or level 0
+	 * when none has that many.
+	 */
+	public int levelFor(double width){
+		int level = levels.length-1;
+		while(level > 0 && getColumns(level) < width){
+			level--;
+		}
+		return level;
+	}
+
+	/**
+	 * Decodes {@code file} to PCM and reduces it. Returns null for tracks
+	 * {@link PcmDecoder} cannot decode.
+	 */
+	public static Waveform analyze(File file) throws IOException {
+		AudioInputStream in = PcmDecoder.open(file);
+		if(in == null){
+			return null;
+		}
+		try{
+			return reduce(in, in.getFormat().getChannels());
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads 16 bit little endian PCM to the end into pairs of
+	 * {@link #BLOCK} frames, then merges those into the levels.
+	 */
+	private static Waveform reduce(AudioInputStream in, int channels) throws IOException {
+		int frameSize = channels*2;
+		byte[] buffer = new byte[frameSize*BLOCK*64];
+		short[] pairs = new short[2*1024];
+		int blocks = 0;
+		int inBlock = 0;
+		short low = Short.MAX_VALUE;
+		short high = Short.MIN_VALUE;
+		int read;
+		while((read = in.read(buffer, 0, buffer.length)) > 0){
+			// Audio streams return whole frames only
+			for(int i = 0; i+frameSize <= read; i += frameSize){
+				for(int c = 0; c < frameSize; c += 2){
+					short sample = (short) ((buffer[i+c] & 0xff) | (buffer[i+c+1] << 8));
+					if(sample < low){
+						low = sample;
+					}
+					if(sample > high){
+						high = sample;
+					}
+				}
+				if(++inBlock == BLOCK){
+					if(2*blocks+2 > pairs.length){
+						pairs = Arrays.copyOf(pairs, pairs.length*2);
+					}
+					pairs[2*blocks]   = low;
+					pairs[2*blocks+1] = high;
+					blocks++;
+					inBlock = 0;
+					low  = Short.MAX_VALUE;
+					high = Short.MIN_VALUE;
+				}
+			}
+		}
+		if(inBlock > 0){
+			if(2*blocks+2 > pairs.length){
+				pairs = Arrays.copyOf(pairs, pairs.length+2);
+			}
+			pairs[2*blocks]   = low;
+			pairs[2*blocks+1] = high;
+			blocks++;
+		}
+		if(blocks == 0){
+			return null;
+		}
+
+		int columns = Math.min(COLUMNS, blocks);
+		int count = 1;
+		for(int c = columns/2; c >= MIN_COLUMNS; c /= 2){
+			count++;
+		}
+		byte[][] levels = new byte[count][];
+		levels[0] = new byte[2*columns];
+		for(int c = 0; c < columns; c++){
+			int from = (int) ((long) c*blocks/columns);
+			int to = (int) ((long) (c+1)*blocks/columns);
+			short min = Short.MAX_VALUE;
+			short max = Short.MIN_VALUE;
+			for(int b = from; b < to; b++){
+				min = (short) Math.min(min, pairs[2*b]);
+				max = (short) Math.max(max, pairs[2*b+1]);
+			}
+			levels[0][2*c]   = (byte) (min >> 8);
+			levels[0][2*c+1] = (byte) (max >> 8);
+		}
+		for(int l = 1; l < count; l++){
+			byte[] finer = levels[l-1];
+			byte[] level = new byte[2*(finer.length/4)];
+			for(int c = 0; c < level.length/2; c++){
+				level[2*c]   = (byte) Math.min(finer[4*c], finer[4*c+2]);
+				level[2*c+1] = (byte) Math.max(finer[4*c+1], finer[4*c+3]);
+			}
+			levels[l] = level;
+		}
+		return new Waveform(levels);
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(levels.length);
+		for(byte[] level : levels){
+			out.writeInt(level.length);
+			out.write(level);
+		}
+	}
+
+	/**
+	 * Reads what {@link #write(DataOutputStream)} wrote, or returns null if
+	 * it is not that.
+	 */
+	public static Waveform read(DataInputStream in) throws IOException {
+		if(in.readInt() != MAGIC || in.readByte() != VERSION){
+			return null;
+		}
+		int count = in.readByte();
+		if(count < 1){
+			return null;
+		}
+		byte[][] levels = new byte[count][];
+		for(int l = 0; l < count; l++){
+			int length = in.readInt();
+			if(length < 2 || length > 2*COLUMNS || length%2 != 0){
+				return null;
+			}
+			levels[l] = new byte[length];
+			in.readFully(levels[l]);
+		}
+		return new Waveform(levels);
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The {@link Waveform} of every track played, so a track is decoded once
+ * and its seek bar is drawn from a few KB ever after.
+ *
+ * Waveforms are keyed by the SHA-1 of the track's path, size and time of
+ * change, so an edited track is analyzed again. The most recent ones stay
+ * in memory, and every decoded one is written to the {@code waveforms}
+ * folder of {@link AppData}, which is trimmed to the newest
+ * {@link #MAX_FILES}. Recent tracks that could not be decoded are only
+ * remembered in memory.
+ *
+ * Tracks are decoded on one background thread of low priority, so playback
+ * never competes with the analysis.
+ *
+ * @author DELL
+ */
+public class WaveformCache {
+
+	public static final int MEMORY_ENTRIES = 16;
+	public static final int MAX_FILES = 5000;
+
+	private static final Histogram ANALYSIS = Metrics.histogram("waveform_analysis_seconds");
+
+	public interface Listener {
+
+		/**
+		 * Called on the FX thread with the waveform of the track, or null if
+		 * it cannot be decoded.
+		 */
+		void loaded(File track, Waveform waveform);
+	}
+
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "waveform");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+
+	});
+
+	private final File dir;
+
+	private final Map<String, Waveform> memory = new LinkedHashMap<String, Waveform>(MEMORY_ENTRIES, 0.75f, true){
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Waveform> eldest) {
+			return size() > MEMORY_ENTRIES;
+		}
+
+	};
+
+	private int files = -1;
+
+	public WaveformCache(){
+		this(AppData.file("waveforms"));
+	}
+
+	public WaveformCache(File dir){
+		this.dir = dir;
+	}
+
+	/**
+	 * Finds the waveform of {@code track} in the background and hands it
+	 * to {@code listener}.
+	 */
+	public void load(final File track, final Listener listener){
+		EXECUTOR.execute(new Runnable(){
+
+			public void run() {
+				final Waveform waveform = get(track);
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						listener.loaded(track, waveform);
+					}
+
+				});
+			}
+
+		});
+	}
+
+	/**
+	 * The waveform of {@code track}: from memory, from disk, or decoded and
+	 * stored. Null if the track cannot be decoded.
+	 */
+	public Waveform get(File track){
+		String key = key(track);
+		synchronized(memory){
+			if(memory.containsKey(key)){
+				return memory.get(key);
+			}
+		}
+		File file = new File(dir, key+".wf");
+		Waveform waveform = file.isFile() ? read(file) : null;
+		if(waveform != null){
+			// Keeps recently played tracks out of the next trim
+			file.setLastModified(System.currentTimeMillis());
+		}
+		else{
+			long start = System.nanoTime();
+			try{
+				waveform = Waveform.analyze(track);
+			}
+			catch(IOException e){
+				System.out.println("Cannot decode "+track+": "+e.getMessage());
+				return null;
+			}
+			if(waveform == null){
+				synchronized(memory){
+					memory.put(key, null);
+				}
+				return null;
+			}
+			if(Metrics.ENABLED){
+				long took = System.nanoTime()-start;
+				ANALYSIS.record(took);
+				System.out.println("Waveform of "+track.getName()+": "+took/1000000+" ms");
+			}
+			store(file, waveform);
+		}
+		synchronized(memory){
+			memory.put(key, waveform);
+		}
+		return waveform;
+	}
+
+	private static String key(File track){
+		String id = track.getAbsolutePath()+"\n"+track.length()+"\n"+track.lastModified();
+		return Digests.sha1(id.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Waveform read(File file){
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try{
+				return Waveform.read(in);
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException e){
+			System.out.println("Cannot read waveform "+file+": "+e.getMessage());
+			return null;
+		}
+	}
+
+	private void store(File file, Waveform waveform){
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			System.out.println("Cannot create waveform folder: "+dir);
+			return;
+		}
+		File temp = new File(dir, file.getName()+".tmp");
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try{
+				waveform.write(out);
+			}
+			finally{
+				out.close();
+			}
+			if(temp.renameTo(file)){
+				trim();
+			}
+			else{
+				temp.delete();
+			}
+		}
+		catch(IOException e){
+			temp.delete();
+			System.out.println("Cannot store waveform "+file+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes the oldest waveforms once there are more than
+	 * {@link #MAX_FILES}. The folder is only listed when it may be over.
+	 */
+	private synchronized void trim(){
+		if(files >= 0 && ++files <= MAX_FILES){
+			return;
+		}
+		File[] stored = dir.listFiles();
+		if(stored == null){
+			return;
+		}
+		files = stored.length;
+		if(files <= MAX_FILES){
+			return;
+		}
+		Arrays.sort(stored, new Comparator<File>(){
+
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+
+		});
+		for(int i = 0; i < stored.length-MAX_FILES; i++){
+			if(stored[i].delete()){
+				files--;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a {@link Waveform} across its width, meant to sit behind a seek
+ * bar. The canvas is only drawn again when the waveform or the size
+ * changes, from the level of the waveform closest to the width, so it
+ * costs one pass over at most twice as many columns as there are pixels.
+ *
+ * Takes no mouse events, so the bar above it gets them all.
+ *
+ * @author DELL
+ */
+public class WaveformView extends Region {
+
+	private final Canvas canvas = new Canvas();
+
+	private Waveform waveform;
+	private Color color = Color.rgb(255, 255, 255, 0.35);
+
+	public WaveformView(){
+		getChildren().add(canvas);
+		setMouseTransparent(true);
+		// Never wider than what it sits behind asks for
+		setMinSize(0, 0);
+		setPrefSize(0, 0);
+	}
+
+	public void setWaveform(Waveform waveform){
+		this.waveform = waveform;
+		draw();
+	}
+
+	public Waveform getWaveform(){
+		return waveform;
+	}
+
+	public void setColor(Color color){
+		this.color = color;
+		draw();
+	}
+
+	@Override
+	protected void layoutChildren() {
+		double width = Math.floor(getWidth());
+		double height = Math.floor(getHeight());
+		if(canvas.getWidth() != width || canvas.getHeight() != height){
+			canvas.setWidth(width);
+			canvas.setHeight(height);
+			draw();
+		}
+	}
+
+	private void draw(){
+		int width = (int) canvas.getWidth();
+		double height = canvas.getHeight();
+		GraphicsContext g = canvas.getGraphicsContext2D();
+		g.clearRect(0, 0, canvas.getWidth(), height);
+		if(waveform == null || width < 1 || height < 1){
+			return;
+		}
+		int level = waveform.levelFor(width);
+		int columns = waveform.getColumns(level);
+		double middle = height/2;
+		double scale = middle/128;
+		g.setFill(color);
+		for(int x = 0; x < width; x++){
+			int from = (int) ((long) x*columns/width);
+			int to = Math.max(from+1, (int) ((long) (x+1)*columns/width));
+			int min = Byte.MAX_VALUE;
+			int max = Byte.MIN_VALUE;
+			for(int c = from; c < to && c < columns; c++){
+				min = Math.min(min, waveform.min(level, c));
+				max = Math.max(max, waveform.max(level, c));
+			}
+			if(max < min){
+				continue;
+			}
+			double top = middle-(max+1)*scale;
+			double bottom = middle-min*scale;
+			// At least a pixel, so silence still shows as a line
+			g.fillRect(x, top, 1, Math.max(1, bottom-top));
+		}
+	}
+
+}
@@ -0,0 +1,289 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.collections.ListChangeListener;
+
+/**
+ * Runs several zones, each an independent {@link PlaybackSession} with its
+ * own queue, transport and volume, in one process. What does not belong to
+ * a zone is shared: the track table, the library index, the length
+ * prober, the loudness analyzer and their threads, and a pool sized to the
+ * cores for the work of filling queues, reading playlists and searching
+ * folders. The table gives a path the same id in every queue, so a track
+ * queued in several zones is stored, probed and measured once. An extra
+ * zone costs its queue of track ids and its players.
+ *
+ * Zones are added, removed and driven on the FX thread.
+ *
+ * @author DELL
+ */
+public class ZoneHost {
+
+	/**
+	 * One room: a named playback session.
+	 */
+	public static final class Zone {
+
+		private final String name;
+		private final PlaybackSession session;
+
+		private Zone(String name, PlaybackSession session){
+			this.name    = name;
+			this.session = session;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public PlaybackSession getSession(){
+			return session;
+		}
+
+		@Override
+		public String toString(){
+			PlaybackSession.State state = session.getState();
+			int index = session.getIndex();
+			return name+": "+state+", "+(index >= 0 ? (index+1)+"/" : "")+session.getQueue().size()+" tracks, volume "
+					+(int) Math.round(session.getVolume()*100)+"%"+(session.isMuted() ? " (mute)" : "")+(session.isShuffled() ? ", shuffle" : "");
+		}
+	}
+
+	private final TrackTable table = new TrackTable();
+	private final LibraryIndex library;
+	private final TrackDurations durations;
+	// Null when loudness normalization is off
+	private final TrackLoudness loudness;
+	private final ExecutorService control;
+
+	// FX thread only
+	private final Map<String, Zone> zones = new LinkedHashMap<String, Zone>();
+	private final List<LibraryScanner> scanners = new ArrayList<LibraryScanner>();
+
+	public ZoneHost(LibraryIndex library){
+		this.library = library;
+		durations = new TrackDurations(table, library, new TrackDurations.Listener(){
+
+			public void probed() {
+			}
+
+		});
+		loudness = TrackLoudness.ENABLED ? new TrackLoudness(table, library) : null;
+		final AtomicInteger count = new AtomicInteger();
+		control = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "zone-control-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+	}
+
+	public TrackTable getTable(){
+		return table;
+	}
+
+	public TrackDurations getDurations(){
+		return durations;
+	}
+
+	/**
+	 * Adds an empty zone. Throws IllegalArgumentException if there is one
+	 * called {@code name} already.
+	 */
+	public Zone addZone(String name){
+		if(zones.containsKey(name)){
+			throw new IllegalArgumentException("Zone exists: "+name);
+		}
+		final TrackList queue = new TrackList(table);
+		queue.addListener(new ListChangeListener<File>(){
+
+			public void onChanged(Change<? extends File> change) {
+				while(change.next()){
+					if(change.wasAdded() && !change.wasPermutated()){
+						durations.request(queue, change.getFrom(), change.getTo());
+						if(loudness != null){
+							loudness.request(queue, change.getFrom(), change.getTo());
+						}
+					}
+				}
+			}
+
+		});
+		PlaybackSession session = new PlaybackSession(queue);
+		session.setLoudness(loudness);
+		Zone zone = new Zone(name, session);
+		zones.put(name, zone);
+		return zone;
+	}
+
+	/**
+	 * The zone called {@code name}, or null.
+	 */
+	public Zone getZone(String name){
+		return zones.get(name);
+	}
+
+	public List<Zone> getZones(){
+		return Collections.unmodifiableList(new ArrayList<Zone>(zones.values()));
+	}
+
+	/**
+	 * Stops the zone called {@code name} and drops it. Returns false if
+	 * there is none.
+	 */
+	public boolean removeZone(String name){
+		Zone zone = zones.remove(name);
+		if(zone == null){
+			return false;
+		}
+		zone.getSession().close();
+		return true;
+	}
+
+	/**
+	 * Adds audio files, folders and M3U playlists to the end of the queue of
+	 * {@code zone}, in the background. Folders are searched and indexed like
+	 * the player's; the first track found is loaded if nothing was.
+	 */
+	public void enqueue(final Zone zone, final List<File> paths){
+		for(final File path : paths){
+			if(path.isDirectory()){
+				search(zone, path);
+				continue;
+			}
+			control.execute(new Runnable(){
+
+				public void run() {
+					List<File> found;
+					if(M3uPlaylist.isPlaylist(path)){
+						try{
+							found = M3uPlaylist.read(path);
+						}
+						catch(IOException e){
+							System.out.println("Cannot read playlist "+path+": "+e.getMessage());
+							return;
+						}
+					}
+					else if(path.isFile()){
+						found = Collections.singletonList(path);
+					}
+					else{
+						System.out.println("Not found: "+path);
+						return;
+					}
+					added(zone, found, false);
+				}
+
+			});
+		}
+	}
+
+	/**
+	 * Stops every zone and the shared threads. The library index is left
+	 * open for its owner to close.
+	 */
+	public void close(){
+		for(LibraryScanner scanner : scanners){
+			scanner.cancel();
+		}
+		for(Zone zone : zones.values()){
+			zone.getSession().close();
+		}
+		zones.clear();
+		control.shutdownNow();
+		durations.close();
+		if(loudness != null){
+			loudness.close();
+		}
+	}
+
+	private void search(final Zone zone, final File folder){
+		if(library.hasRoot(folder)){
+			// Known already; taken before the scan below starts, which only
+			// brings the tracks new to the index
+			added(zone, library.filesUnder(folder), true);
+		}
+		LibraryScanner scanner = new LibraryScanner(folder, new LibraryScanner.Listener(){
+
+			public void filesFound(List<File> batch) {
+				added(zone, batch, false);
+			}
+
+			public void filesRemoved(final List<File> removed) {
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						zone.getSession().getQueue().removeAll(new HashSet<File>(removed));
+					}
+
+				});
+			}
+
+			public void progress(int directories, int scanned, int matched) {
+			}
+
+			public void finished(boolean cancelled) {
+				System.out.println(zone.getName()+": "+(cancelled ? "search cancelled: " : "search finished: ")+folder);
+			}
+
+		});
+		for(int i = scanners.size()-1; i >= 0; i--){
+			if(scanners.get(i).isFinished()){
+				scanners.remove(i);
+			}
+		}
+		scanners.add(scanner);
+		scanner.setIndex(library);
+		scanner.start();
+	}
+
+	/**
+	 * Hands tracks found in the background to the zone, in one change. With
+	 * {@code absent} those queued already are skipped.
+	 */
+	private void added(final Zone zone, final List<File> found, final boolean absent){
+		if(found.isEmpty()){
+			return;
+		}
+		FxQueue.runLater(new Runnable(){
+
+			public void run() {
+				if(zones.get(zone.getName()) != zone){
+					// Removed meanwhile
+					return;
+				}
+				PlaybackSession session = zone.getSession();
+				if(absent){
+					session.getQueue().addAbsent(found);
+				}
+				else{
+					session.getQueue().addAll(found);
+				}
+				if(session.getPlayer() == null){
+					session.load(0);
+				}
+			}
+
+		});
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package musicplayer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+
+/**
+ * Plays several zones from one process, with no window. Each argument
+ * {@code name=path} adds {@code path}, a file, folder or M3U playlist, to
+ * the zone {@code name}, which is created when first named:
+ *
+ * <pre>java musicplayer.ZonePlayer kitchen=/music/jazz lounge=/music/lounge.m3u8</pre>
+ *
+ * The zones are then driven with commands read from the console, one per
+ * line; {@code help} lists them. With {@code -Dmusicplayer.control=<port>}
+ * every zone can also be driven through a {@link ControlServer}, under
+ * {@code /zones/<name>}.
+ *
+ * @author DELL
+ */
+public class ZonePlayer extends Application {
+
+	private static final String HELP =
+			"zones                     list the zones\n"+
+			"new <zone>                add an empty zone\n"+
+			"remove <zone>             stop and drop a zone\n"+
+			"<zone> add <path>         queue a file, folder or M3U playlist\n"+
+			"<zone> play|pause|stop|next|back\n"+
+			"<zone> volume <0-100>     set the volume\n"+
+			"<zone> mute|unmute\n"+
+			"<zone> shuffle on|off\n"+
+			"quit";
+
+	private LibraryIndex library;
+	private ZoneHost host;
+	private ControlServer control;
+
+	public static void main(String[] args) {
+		launch(args);
+	}
+
+	@Override
+	public void start(Stage stage) throws Exception {
+		// The stage is never shown; the toolkit stays up until quit
+		Platform.setImplicitExit(false);
+		Metrics.start();
+
+		library = new LibraryIndex(AppData.file("library.idx"));
+		try{
+			library.load();
+		}
+		catch(IOException e){
+			System.out.println("Cannot read library index: "+e.getMessage());
+		}
+		host = new ZoneHost(library);
+		String port = System.getProperty("musicplayer.control");
+		if(port != null){
+			control = new ControlServer(new ControlServer.Queuer(){
+
+				public void enqueue(PlaybackSession session, File path) {
+					for(ZoneHost.Zone zone : host.getZones()){
+						if(zone.getSession() == session){
+							host.enqueue(zone, Collections.singletonList(path));
+						}
+					}
+				}
+
+			});
+			try{
+				control.start(Integer.parseInt(port));
+				System.out.println("Control server on port "+control.getPort());
+			}
+			catch(IOException | NumberFormatException e){
+				System.out.println("Control server disabled: "+e.getMessage());
+				control.close();
+				control = null;
+			}
+		}
+
+		for(String arg : getParameters().getRaw()){
+			int equals = arg.indexOf('=');
+			if(equals <= 0){
+				System.out.println("Expected zone=path: "+arg);
+				continue;
+			}
+			ZoneHost.Zone zone = zone(arg.substring(0, equals));
+			List<File> paths = new ArrayList<File>();
+			paths.add(new File(arg.substring(equals+1)));
+			host.enqueue(zone, paths);
+		}
+
+		Thread console = new Thread(new Runnable(){
+
+			public void run() {
+				readCommands();
+			}
+
+		}, "zone-console");
+		console.setDaemon(true);
+		console.start();
+	}
+
+	@Override
+	public void stop() throws Exception {
+		if(control != null){
+			control.close();
+		}
+		host.close();
+		library.close();
+	}
+
+	/**
+	 * The zone called {@code name}, added if there is none.
+	 */
+	private ZoneHost.Zone zone(String name){
+		ZoneHost.Zone zone = host.getZone(name);
+		if(zone == null){
+			zone = host.addZone(name);
+			if(control != null){
+				control.addSession(name, zone.getSession());
+			}
+		}
+		return zone;
+	}
+
+	private void readCommands(){
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		try{
+			String line;
+			while((line = in.readLine()) != null){
+				final String command = line.trim();
+				if(command.isEmpty()){
+					continue;
+				}
+				FxQueue.runLater(new Runnable(){
+
+					public void run() {
+						execute(command);
+					}
+
+				});
+			}
+		}
+		catch(IOException e){
+			System.out.println("Console closed: "+e.getMessage());
+		}
+	}
+
+	private void execute(String command){
+		String[] words = command.split("\\s+", 3);
+		if(words[0].equals("quit")){
+			Platform.exit();
+			return;
+		}
+		if(words[0].equals("help")){
+			System.out.println(HELP);
+			return;
+		}
+		if(words[0].equals("zones")){
+			for(ZoneHost.Zone zone : host.getZones()){
+				System.out.println(zone);
+			}
+			Runtime runtime = Runtime.getRuntime();
+			System.out.println(host.getZones().size()+" zones, "+PlayerEngine.livePlayers()+" players, "
+					+host.getTable().size()+" tracks known, "+(runtime.totalMemory()-runtime.freeMemory())/(1024*1024)+" MB used");
+			return;
+		}
+		if(words.length < 2){
+			System.out.println("Unknown command: "+command);
+			return;
+		}
+		if(words[0].equals("new")){
+			System.out.println(zone(words[1]));
+			return;
+		}
+		if(words[0].equals("remove")){
+			if(!host.removeZone(words[1])){
+				System.out.println("No zone: "+words[1]);
+			}
+			else if(control != null){
+				control.removeSession(words[1]);
+			}
+			return;
+		}
+
+		ZoneHost.Zone zone = host.getZone(words[0]);
+		if(zone == null){
+			System.out.println("No zone: "+words[0]);
+			return;
+		}
+		PlaybackSession session = zone.getSession();
+		String action = words[1];
+		String argument = words.length > 2 ? words[2] : null;
+		if(action.equals("add") && argument != null){
+			List<File> paths = new ArrayList<File>();
+			paths.add(new File(argument));
+			host.enqueue(zone, paths);
+		}
+		else if(action.equals("play")){
+			session.play();
+		}
+		else if(action.equals("pause")){
+			session.pause();
+		}
+		else if(action.equals("stop")){
+			session.stop();
+		}
+		else if(action.equals("next")){
+			session.next();
+		}
+		else if(action.equals("back")){
+			session.previous();
+		}
+		else if(action.equals("volume") && argument != null){
+			try{
+				session.setVolume(Integer.parseInt(argument)/100.0);
+			}
+			catch(NumberFormatException e){
+				System.out.println("Bad volume: "+argument);
+				return;
+			}
+		}
+		else if(action.equals("mute") || action.equals("unmute")){
+			session.setMuted(action.equals("mute"));
+		}
+		else if(action.equals("shuffle") && argument != null){
+			session.setShuffled(argument.equals("on"));
+		}
+		else{
+			System.out.println("Unknown command: "+command);
+			return;
+		}
+		System.out.println(zone);
+	}
+
+}